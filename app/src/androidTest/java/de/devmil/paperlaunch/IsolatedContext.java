@@ -0,0 +1,111 @@
+/*
+ * Copyright 2015 Devmil Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.devmil.paperlaunch;
+
+import android.content.ComponentCallbacks;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.database.DatabaseErrorHandler;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.File;
+
+/**
+ * Context for tests that keeps their databases and files apart from the ones of the app.
+ * It is its own application context, so the singletons that get initialized with it use the test data as well.
+ */
+public class IsolatedContext extends ContextWrapper {
+    private static final String PREFIX = "test_";
+
+    private File mFilesDir;
+    private File mCacheDir;
+
+    public IsolatedContext(Context base) {
+        super(base);
+        mFilesDir = new File(base.getFilesDir(), PREFIX + "files");
+        mCacheDir = new File(base.getCacheDir(), PREFIX + "cache");
+    }
+
+    /**
+     * deletes the files of the test, databases have to be deleted by name (see deleteDatabase)
+     */
+    public void deleteFiles() {
+        deleteRecursive(mFilesDir);
+        deleteRecursive(mCacheDir);
+    }
+
+    private static void deleteRecursive(File file) {
+        File[] children = file.listFiles();
+        if(children != null) {
+            for(File child : children) {
+                deleteRecursive(child);
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    @Override
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    @Override
+    public void registerComponentCallbacks(ComponentCallbacks callback) {
+        getBaseContext().getApplicationContext().registerComponentCallbacks(callback);
+    }
+
+    @Override
+    public void unregisterComponentCallbacks(ComponentCallbacks callback) {
+        getBaseContext().getApplicationContext().unregisterComponentCallbacks(callback);
+    }
+
+    @Override
+    public File getFilesDir() {
+        return ensureExists(mFilesDir);
+    }
+
+    @Override
+    public File getCacheDir() {
+        return ensureExists(mCacheDir);
+    }
+
+    private static File ensureExists(File dir) {
+        //noinspection ResultOfMethodCallIgnored
+        dir.mkdirs();
+        return dir;
+    }
+
+    @Override
+    public File getDatabasePath(String name) {
+        return super.getDatabasePath(PREFIX + name);
+    }
+
+    @Override
+    public SQLiteDatabase openOrCreateDatabase(String name, int mode, SQLiteDatabase.CursorFactory factory) {
+        return super.openOrCreateDatabase(PREFIX + name, mode, factory);
+    }
+
+    @Override
+    public SQLiteDatabase openOrCreateDatabase(String name, int mode, SQLiteDatabase.CursorFactory factory, DatabaseErrorHandler errorHandler) {
+        return super.openOrCreateDatabase(PREFIX + name, mode, factory, errorHandler);
+    }
+
+    @Override
+    public boolean deleteDatabase(String name) {
+        return super.deleteDatabase(PREFIX + name);
+    }
+}
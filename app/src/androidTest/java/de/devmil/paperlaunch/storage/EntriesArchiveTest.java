@@ -0,0 +1,167 @@
+/*
+ * Copyright 2015 Devmil Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.devmil.paperlaunch.storage;
+
+import android.graphics.Color;
+import android.graphics.drawable.Drawable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.devmil.paperlaunch.model.Folder;
+import de.devmil.paperlaunch.model.Launch;
+
+public class EntriesArchiveTest extends StorageTestCase {
+    private static final int FOLDER_COUNT = 10;
+    //together with the folders 10000 entries
+    private static final int LAUNCHES_PER_FOLDER = 999;
+    private static final int ICON_COUNT = 20;
+
+    public void testExportAndImportKeepOrderAndIcons() {
+        createEntries();
+        final EntriesTreeBuilder exported = loadTree();
+        assertEquals(FOLDER_COUNT * (LAUNCHES_PER_FOLDER + 1), exported.getEntries().size());
+
+        final ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        final int[] exportedCount = new int[1];
+        read(new ITransactionAction() {
+            @Override
+            public void execute(ITransactionContext transactionContext) {
+                try {
+                    exportedCount[0] = transactionContext.exportEntries(archive);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        assertEquals(exported.getEntries().size(), exportedCount[0]);
+
+        final int[] importedCount = new int[1];
+        write(new ITransactionAction() {
+            @Override
+            public void execute(ITransactionContext transactionContext) {
+                try {
+                    importedCount[0] = transactionContext.importEntries(new ByteArrayInputStream(archive.toByteArray()), true);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        assertEquals(exportedCount[0], importedCount[0]);
+
+        EntriesTreeBuilder imported = loadTree();
+        assertEquals(exported.getEntries().size(), imported.getEntries().size());
+        assertSameContent(exported, groupByParent(exported), -1, imported, groupByParent(imported), -1);
+    }
+
+    /**
+     * FOLDER_COUNT folders in the root folder, each containing LAUNCHES_PER_FOLDER launches.
+     * The folders and every 10th launch get one of ICON_COUNT icons.
+     */
+    private void createEntries() {
+        final Drawable[] icons = new Drawable[ICON_COUNT];
+        for(int i=0; i<ICON_COUNT; i++) {
+            icons[i] = createIcon(48, Color.rgb(i * 10, 255 - i * 10, 128));
+        }
+        write(new ITransactionAction() {
+            @Override
+            public void execute(ITransactionContext transactionContext) {
+                transactionContext.startTransaction();
+                for(int f=0; f<FOLDER_COUNT; f++) {
+                    Folder folder = transactionContext.createFolder(-1, f, 0);
+                    folder.getDto().setName("folder " + f);
+                    folder.getDto().setIcon(icons[f % ICON_COUNT]);
+                    transactionContext.updateFolderData(folder.getDto());
+                    List<Launch> launches = transactionContext.createLaunches(folder.getId(), createIntents(LAUNCHES_PER_FOLDER));
+                    for(int l=0; l<launches.size(); l += 10) {
+                        Launch launch = transactionContext.loadLaunch(launches.get(l).getId());
+                        launch.getDto().setName("launch " + f + "/" + l);
+                        launch.getDto().setIcon(icons[(f + l) % ICON_COUNT]);
+                        transactionContext.updateLaunchData(launch);
+                    }
+                }
+                transactionContext.commitTransaction();
+            }
+        });
+    }
+
+    private EntriesTreeBuilder loadTree() {
+        final EntriesTreeBuilder[] result = new EntriesTreeBuilder[1];
+        read(new ITransactionAction() {
+            @Override
+            public void execute(ITransactionContext transactionContext) {
+                result[0] = transactionContext.loadTree();
+            }
+        });
+        return result[0];
+    }
+
+    private static Map<Long, List<EntryDTO>> groupByParent(EntriesTreeBuilder tree) {
+        Map<Long, List<EntryDTO>> result = new HashMap<>();
+        //getEntries is ordered by order key
+        for(EntryDTO entry : tree.getEntries()) {
+            List<EntryDTO> children = result.get(entry.getParentFolderId());
+            if(children == null) {
+                children = new ArrayList<>();
+                result.put(entry.getParentFolderId(), children);
+            }
+            children.add(entry);
+        }
+        return result;
+    }
+
+    private void assertSameContent(
+            EntriesTreeBuilder expectedTree, Map<Long, List<EntryDTO>> expectedChildren, long expectedFolderId,
+            EntriesTreeBuilder actualTree, Map<Long, List<EntryDTO>> actualChildren, long actualFolderId) {
+        List<EntryDTO> expectedEntries = expectedChildren.get(expectedFolderId);
+        List<EntryDTO> actualEntries = actualChildren.get(actualFolderId);
+        assertNotNull(actualEntries);
+        assertEquals(expectedEntries.size(), actualEntries.size());
+        IconStore iconStore = new IconStore(getIsolatedContext());
+        for(int i=0; i<expectedEntries.size(); i++) {
+            EntryDTO expected = expectedEntries.get(i);
+            EntryDTO actual = actualEntries.get(i);
+            assertEquals(expected.getOrderIndex(), actual.getOrderIndex());
+            if(expected.getFolderId() > 0) {
+                FolderDTO expectedFolder = expectedTree.getFolder(expected.getFolderId());
+                FolderDTO actualFolder = actualTree.getFolder(actual.getFolderId());
+                assertNotNull(actualFolder);
+                assertEquals(expectedFolder.getName(), actualFolder.getName());
+                assertEquals(expectedFolder.getDepth(), actualFolder.getDepth());
+                assertEquals(expectedFolder.getIconHash(), actualFolder.getIconHash());
+                assertTrue(iconStore.contains(actualFolder.getIconHash()));
+                assertSameContent(
+                        expectedTree, expectedChildren, expectedFolder.getId(),
+                        actualTree, actualChildren, actualFolder.getId());
+            } else {
+                LaunchDTO expectedLaunch = expectedTree.getLaunch(expected.getLaunchId());
+                LaunchDTO actualLaunch = actualTree.getLaunch(actual.getLaunchId());
+                assertNotNull(actualLaunch);
+                assertEquals(expectedLaunch.getName(), actualLaunch.getName());
+                assertEquals(expectedLaunch.getLaunchIntent().toUri(0), actualLaunch.getLaunchIntent().toUri(0));
+                assertEquals(expectedLaunch.getIconHash(), actualLaunch.getIconHash());
+                if(actualLaunch.getIconHash() != null) {
+                    assertTrue(iconStore.contains(actualLaunch.getIconHash()));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,331 @@
+/*
+ * Copyright 2015 Devmil Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.devmil.paperlaunch.storage;
+
+import android.graphics.Color;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.devmil.paperlaunch.model.Folder;
+import de.devmil.paperlaunch.model.IEntry;
+import de.devmil.paperlaunch.utils.BitmapUtils;
+
+public class EntriesDataSourceTest extends StorageTestCase {
+    private static final int HOT_ACTION_ENTRY_COUNT = 3 * QueryProfiler.DEFAULT_REPEAT_THRESHOLD;
+
+    public void testLoadFolderOnlyReadsTheFolder() {
+        createLaunches(-1, 50);
+        final long folderId = createFolder(-1, 0);
+        createLaunches(folderId, 3);
+        final long subFolderId = createFolder(folderId, 1);
+        createLaunches(subFolderId, 2);
+
+        final Folder[] folder = new Folder[1];
+        ITransactionAction loadFolder = new ITransactionAction() {
+            @Override
+            public void execute(ITransactionContext transactionContext) {
+                folder[0] = transactionContext.loadFolder(folderId);
+            }
+        };
+        read(loadFolder);
+
+        QueryProfiler.ActionProfile profile = getProfile(loadFolder);
+        profile.assertMaxStatementCount(1);
+        //the folder, its launches, the sub folder and its launches
+        assertEquals(7, profile.getStatements().get(0).getRows());
+        assertEquals(4, folder[0].getSubEntries().size());
+        //created with order index -1
+        Folder subFolder = (Folder)folder[0].getSubEntries().get(0);
+        assertEquals(subFolderId, subFolder.getId());
+        assertEquals(2, subFolder.getSubEntries().size());
+    }
+
+    public void testLoadRootContentDoesntRepeatQueries() {
+        createHotActionEntries();
+        QueryProfiler.getInstance().setStrict(true);
+
+        final List<IEntry> result = new ArrayList<>();
+        ITransactionAction loadRootContent = new ITransactionAction() {
+            @Override
+            public void execute(ITransactionContext transactionContext) {
+                result.addAll(transactionContext.loadRootContent());
+            }
+        };
+        read(loadRootContent);
+
+        QueryProfiler.ActionProfile profile = getProfile(loadRootContent);
+        profile.assertNoRepeatedQueries();
+        //the generation and the nodes
+        profile.assertMaxStatementCount(2);
+        assertEquals(HOT_ACTION_ENTRY_COUNT + 1, result.size());
+    }
+
+    public void testLoadTreeDoesntRepeatQueries() {
+        createHotActionEntries();
+        QueryProfiler.getInstance().setStrict(true);
+
+        final EntriesTreeBuilder[] result = new EntriesTreeBuilder[1];
+        ITransactionAction loadTree = new ITransactionAction() {
+            @Override
+            public void execute(ITransactionContext transactionContext) {
+                result[0] = transactionContext.loadTree();
+            }
+        };
+        read(loadTree);
+
+        QueryProfiler.ActionProfile profile = getProfile(loadTree);
+        profile.assertNoRepeatedQueries();
+        profile.assertMaxStatementCount(2);
+        //the root launches, the folder and its launches
+        assertEquals(2 * HOT_ACTION_ENTRY_COUNT + 1, result[0].getEntries().size());
+    }
+
+    public void testLoadFolderDoesntRepeatQueries() {
+        final long folderId = createHotActionEntries();
+        QueryProfiler.getInstance().setStrict(true);
+
+        final Folder[] result = new Folder[1];
+        ITransactionAction loadFolder = new ITransactionAction() {
+            @Override
+            public void execute(ITransactionContext transactionContext) {
+                result[0] = transactionContext.loadFolder(folderId);
+            }
+        };
+        read(loadFolder);
+
+        QueryProfiler.ActionProfile profile = getProfile(loadFolder);
+        profile.assertNoRepeatedQueries();
+        profile.assertMaxStatementCount(1);
+        assertEquals(HOT_ACTION_ENTRY_COUNT, result[0].getSubEntries().size());
+    }
+
+    public void testUpdateFolderDataDoesntRepeatQueries() {
+        final long folderId = createHotActionEntries();
+        final Folder folder = EntriesRepository.getInstance().loadFolder(getIsolatedContext(), folderId);
+        QueryProfiler.getInstance().setStrict(true);
+
+        folder.getDto().setName("renamed");
+        folder.getDto().setIcon(createIcon(48, Color.BLUE));
+        ITransactionAction updateFolderData = new ITransactionAction() {
+            @Override
+            public void execute(ITransactionContext transactionContext) {
+                transactionContext.updateFolderData(folder.getDto());
+            }
+        };
+        write(updateFolderData);
+
+        QueryProfiler.ActionProfile profile = getProfile(updateFolderData);
+        profile.assertNoRepeatedQueries();
+        //the icon reference (insert and count), the node and the generation (update and read)
+        profile.assertMaxStatementCount(5);
+    }
+
+    public void testUpdateOrdersIsBatched() {
+        createLaunches(-1, HOT_ACTION_ENTRY_COUNT);
+        final List<IEntry> entries = new ArrayList<>();
+        read(new ITransactionAction() {
+            @Override
+            public void execute(ITransactionContext transactionContext) {
+                entries.addAll(transactionContext.loadRootContent());
+            }
+        });
+        Collections.reverse(entries);
+        QueryProfiler.getInstance().setStrict(true);
+
+        ITransactionAction updateOrders = new ITransactionAction() {
+            @Override
+            public void execute(ITransactionContext transactionContext) {
+                transactionContext.updateOrders(-1, entries);
+            }
+        };
+        write(updateOrders);
+
+        QueryProfiler.ActionProfile profile = getProfile(updateOrders);
+        profile.assertNoRepeatedQueries();
+        QueryProfiler.StatementProfile statement = profile.getStatement(QueryProfiler.toShape(NodesAccess.UPDATE_ORDERKEY_SQL));
+        assertTrue(statement.isBatched());
+        assertEquals(HOT_ACTION_ENTRY_COUNT, statement.getCount());
+    }
+
+    public void testCreateLaunchesIsBatched() {
+        QueryProfiler.getInstance().setStrict(true);
+
+        ITransactionAction createLaunches = new ITransactionAction() {
+            @Override
+            public void execute(ITransactionContext transactionContext) {
+                transactionContext.createLaunches(-1, createIntents(HOT_ACTION_ENTRY_COUNT));
+            }
+        };
+        write(createLaunches);
+
+        QueryProfiler.ActionProfile profile = getProfile(createLaunches);
+        profile.assertNoRepeatedQueries();
+        QueryProfiler.StatementProfile statement = profile.getStatement(QueryProfiler.toShape(NodesAccess.INSERT_LAUNCH_SQL));
+        assertTrue(statement.isBatched());
+        assertEquals(HOT_ACTION_ENTRY_COUNT, statement.getCount());
+    }
+
+    public void testDeferredUpdateWritesTheDataItHasBeenGiven() {
+        final long folderId = createFolder(-1, 0);
+        Folder folder = EntriesRepository.getInstance().loadFolder(getIsolatedContext(), folderId);
+
+        folder.getDto().setName("deferred");
+        EntriesDataSource.getInstance().updateFolderDataDeferred(getIsolatedContext(), folder.getDto());
+        folder.getDto().setName("modified afterwards");
+        //any writing action writes the deferred updates first
+        write(new ITransactionAction() {
+            @Override
+            public void execute(ITransactionContext transactionContext) {
+            }
+        });
+
+        final Folder[] result = new Folder[1];
+        read(new ITransactionAction() {
+            @Override
+            public void execute(ITransactionContext transactionContext) {
+                result[0] = transactionContext.loadFolder(folderId);
+            }
+        });
+        assertEquals("deferred", result[0].getDto().getName());
+    }
+
+    public void testDeferredFolderIconIsWrittenNextToTheFolderData() {
+        final long folderId = createFolder(-1, 0);
+        Folder folder = EntriesRepository.getInstance().loadFolder(getIsolatedContext(), folderId);
+        IconStore iconStore = new IconStore(getIsolatedContext());
+        byte[] iconData = iconStore.encode(createIcon(48, Color.GREEN));
+
+        EntriesDataSource.getInstance().updateFolderIconDeferred(getIsolatedContext(), folderId, iconData);
+        folder.getDto().setName("renamed");
+        EntriesDataSource.getInstance().updateFolderDataDeferred(getIsolatedContext(), folder.getDto());
+        //the folder data doesn't carry the icon
+        assertFalse(folder.getDto().isIconChanged());
+        write(new ITransactionAction() {
+            @Override
+            public void execute(ITransactionContext transactionContext) {
+            }
+        });
+
+        final Folder[] result = new Folder[1];
+        read(new ITransactionAction() {
+            @Override
+            public void execute(ITransactionContext transactionContext) {
+                result[0] = transactionContext.loadFolder(folderId);
+            }
+        });
+        assertEquals("renamed", result[0].getDto().getName());
+        String iconHash = IconStore.computeHash(iconData);
+        assertEquals(iconHash, result[0].getDto().getIconHash());
+        assertTrue(iconStore.contains(iconHash));
+    }
+
+    public void testIconIsKeptWhenTheDeletionIsRolledBack() {
+        final long launchId = createLaunches(-1, 1).get(0);
+        String iconHash = setIcon(launchId, Color.RED);
+        IconStore iconStore = new IconStore(getIsolatedContext());
+        assertTrue(iconStore.contains(iconHash));
+
+        try {
+            write(new ITransactionAction() {
+                @Override
+                public void execute(ITransactionContext transactionContext) {
+                    transactionContext.startTransaction();
+                    transactionContext.deleteEntry(launchId);
+                    throw new IllegalStateException("rollback");
+                }
+            });
+            fail();
+        } catch (IllegalStateException e) {
+            //expected
+        }
+        assertTrue(iconStore.contains(iconHash));
+
+        write(new ITransactionAction() {
+            @Override
+            public void execute(ITransactionContext transactionContext) {
+                transactionContext.deleteEntry(launchId);
+            }
+        });
+        assertFalse(iconStore.contains(iconHash));
+    }
+
+    public void testMaintenanceSkipsDeletedNormalizedIcons() {
+        final long folderId = createFolder(-1, 0);
+        IconStore iconStore = new IconStore(getIsolatedContext());
+        final byte[] oversizedIcon = BitmapUtils.getBytes(createIcon(4 * iconStore.getIconSize(), Color.RED));
+        String oversizedHash = IconStore.computeHash(oversizedIcon);
+        write(new ITransactionAction() {
+            @Override
+            public void execute(ITransactionContext transactionContext) {
+                transactionContext.updateFolderIcon(folderId, oversizedIcon);
+            }
+        });
+
+        final Map<String, String> normalizedIcons = new HashMap<>();
+        read(new ITransactionAction() {
+            @Override
+            public void execute(ITransactionContext transactionContext) {
+                normalizedIcons.putAll(transactionContext.normalizeIcons());
+            }
+        });
+        String normalizedHash = normalizedIcons.get(oversizedHash);
+        assertNotNull(normalizedHash);
+        //a compaction between normalizing and the maintenance only keeps the referenced icons
+        iconStore.retainAll(Collections.singleton(oversizedHash));
+        assertFalse(iconStore.contains(normalizedHash));
+
+        final MaintenanceReport[] report = new MaintenanceReport[1];
+        write(new ITransactionAction() {
+            @Override
+            public void execute(ITransactionContext transactionContext) {
+                report[0] = transactionContext.runMaintenance(normalizedIcons);
+            }
+        });
+
+        assertEquals(0, report[0].getNormalizedIcons());
+        //the folder keeps the oversized icon until the next maintenance
+        Folder folder = EntriesRepository.getInstance().loadFolder(getIsolatedContext(), folderId);
+        assertEquals(oversizedHash, folder.getDto().getIconHash());
+        assertTrue(iconStore.contains(oversizedHash));
+
+        write(new ITransactionAction() {
+            @Override
+            public void execute(ITransactionContext transactionContext) {
+                report[0] = transactionContext.runMaintenance();
+            }
+        });
+        assertEquals(1, report[0].getNormalizedIcons());
+        folder = EntriesRepository.getInstance().loadFolder(getIsolatedContext(), folderId);
+        assertEquals(normalizedHash, folder.getDto().getIconHash());
+    }
+
+    /**
+     * Creates HOT_ACTION_ENTRY_COUNT launches in the root folder and a folder with as many launches,
+     * more than the repeat threshold of the QueryProfiler, so a query per entry gets flagged.
+     *
+     * @return the id of the folder
+     */
+    private long createHotActionEntries() {
+        createLaunches(-1, HOT_ACTION_ENTRY_COUNT);
+        long folderId = createFolder(-1, 0);
+        createLaunches(folderId, HOT_ACTION_ENTRY_COUNT);
+        return folderId;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2015 Devmil Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.devmil.paperlaunch.storage;
+
+import android.content.Intent;
+
+import java.util.List;
+
+import de.devmil.paperlaunch.model.Folder;
+import de.devmil.paperlaunch.model.IEntry;
+import de.devmil.paperlaunch.model.ISubEntriesLoader;
+import de.devmil.paperlaunch.model.Launch;
+import rx.Observable;
+
+public class EntriesRepositoryTest extends StorageTestCase {
+
+    public void testLoadedTreesDontShareData() {
+        createLaunches(-1, 1);
+        long folderId = createFolder(-1, 0);
+        EntriesRepository repository = EntriesRepository.getInstance();
+
+        Folder folder = repository.loadFolder(getIsolatedContext(), folderId);
+        folder.getDto().setName("modified");
+        Launch launch = findLaunch(repository.loadRootContent(getIsolatedContext()));
+        Intent intent = launch.getLaunchIntent();
+        intent.setFlags(intent.getFlags() | Intent.FLAG_ACTIVITY_NEW_TASK);
+
+        assertNull(repository.loadFolder(getIsolatedContext(), folderId).getDto().getName());
+        Intent reloadedIntent = findLaunch(repository.loadRootContent(getIsolatedContext())).getLaunchIntent();
+        assertEquals(0, reloadedIntent.getFlags() & Intent.FLAG_ACTIVITY_NEW_TASK);
+    }
+
+    public void testSnapshotFileIsValidForItsGeneration() {
+        createLaunches(-1, 3);
+        EntriesRepository repository = EntriesRepository.getInstance();
+        repository.loadRootContent(getIsolatedContext());
+        long generation = repository.getGeneration();
+        EntriesSnapshotFile snapshotFile = new EntriesSnapshotFile(getIsolatedContext());
+
+        EntriesTreeBuilder snapshot = snapshotFile.read(generation);
+        assertNotNull(snapshot);
+        assertEquals(3, snapshot.getChildEntryIds(-1).size());
+
+        createLaunches(-1, 1);
+        assertNull(snapshotFile.read(generation + 1));
+    }
+
+    public void testConcurrentLoadsReadTheTablesOnce() throws InterruptedException {
+        createLaunches(-1, 100);
+        final EntriesRepository repository = EntriesRepository.getInstance();
+        repository.invalidate();
+        int tableLoadCount = repository.getTableLoadCount();
+
+        Thread[] threads = new Thread[4];
+        for(int i=0; i<threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    repository.loadRootContent(getIsolatedContext());
+                }
+            });
+            threads[i].start();
+        }
+        for(Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(tableLoadCount + 1, repository.getTableLoadCount());
+    }
+
+    public void testLoadContentOnlyReadsTheFolder() {
+        createLaunches(-1, 3);
+        long folderId = createFolder(-1, 0);
+        createLaunches(folderId, 50);
+        final EntriesRepository repository = EntriesRepository.getInstance();
+        repository.invalidate();
+        int tableLoadCount = repository.getTableLoadCount();
+        int folderLoadCount = repository.getFolderLoadCount();
+
+        ISubEntriesLoader subEntriesLoader = new ISubEntriesLoader() {
+            @Override
+            public List<IEntry> loadSubEntries(Folder folder) {
+                return repository.loadContent(getIsolatedContext(), folder.getId(), this).getEntries();
+            }
+
+            @Override
+            public Observable<List<IEntry>> loadSubEntriesAsync(Folder folder) {
+                return Observable.just(loadSubEntries(folder));
+            }
+        };
+        EntriesContent content = repository.loadContent(getIsolatedContext(), -1, subEntriesLoader);
+
+        assertEquals(4, content.getEntries().size());
+        assertTrue(content.getGeneration() >= 0);
+        assertEquals(folderLoadCount + 1, repository.getFolderLoadCount());
+        //created with order index -1
+        Folder folder = (Folder)content.getEntries().get(0);
+        assertEquals(folderId, folder.getId());
+        assertFalse(folder.isSubEntriesLoaded());
+
+        assertEquals(50, folder.getSubEntries().size());
+        assertEquals(folderLoadCount + 2, repository.getFolderLoadCount());
+        //the tree hasn't been read
+        assertEquals(tableLoadCount, repository.getTableLoadCount());
+        assertEquals(-1, repository.getGeneration());
+    }
+
+    private static Launch findLaunch(List<IEntry> entries) {
+        for(IEntry entry : entries) {
+            if(entry instanceof Launch) {
+                return (Launch)entry;
+            }
+        }
+        fail("no launch found");
+        return null;
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2015 Devmil Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.devmil.paperlaunch.storage;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+public class EntriesSQLiteOpenHelperTest extends StorageTestCase {
+    private static final String INDEX_NODES_PARENT_ORDER = "nodes_parent_order";
+
+    private SQLiteDatabase mDatabase;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDatabase = SQLiteDatabase.create(null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDatabase.close();
+        super.tearDown();
+    }
+
+    public void testChildrenQueryUsesIndex() {
+        new EntriesSQLiteOpenHelper(getIsolatedContext()).onCreate(mDatabase);
+
+        String plan = explain(NodesAccess.buildNodesQuery(NodesAccess.CHILDREN_SELECTION), "5");
+
+        assertTrue(plan, plan.contains(INDEX_NODES_PARENT_ORDER));
+        //the index delivers the order as well
+        assertFalse(plan, plan.contains("TEMP B-TREE"));
+    }
+
+    public void testNextOrderKeyQueryUsesIndex() {
+        new EntriesSQLiteOpenHelper(getIsolatedContext()).onCreate(mDatabase);
+
+        String plan = explain(NodesAccess.NEXT_ORDERKEY_SQL, "5");
+
+        assertTrue(plan, plan.contains(INDEX_NODES_PARENT_ORDER));
+    }
+
+    public void testSubtreeQueryUsesIndex() {
+        new EntriesSQLiteOpenHelper(getIsolatedContext()).onCreate(mDatabase);
+
+        String plan = explain(NodesAccess.buildNodesQuery(NodesAccess.SUBTREE_SELECTION), "5");
+
+        //the recursion walks the index, the collected nodes are read by their primary key
+        assertTrue(plan, plan.contains(INDEX_NODES_PARENT_ORDER));
+        assertTrue(plan, plan.contains("PRIMARY KEY"));
+        //ORDER BY only sorts the rows of the subtree, but nodes must never be scanned as a whole
+        assertFalse(plan, scansNodes(plan));
+    }
+
+    public void testMigrationKeepsFolderDepth() {
+        createVersion1Schema();
+        //a folder in the root, one below it, one below that and a launch in the root
+        insertFolderEntry(1, 1, -1);
+        insertFolderEntry(2, 2, 1);
+        insertFolderEntry(3, 3, 2);
+        mDatabase.execSQL("INSERT INTO launches (_id, name) VALUES (1, 'launch')");
+        mDatabase.execSQL("INSERT INTO entries (_id, orderindex, launchid, folderid, parentfolderid) VALUES (4, 1, 1, -1, -1)");
+
+        upgrade(1);
+
+        assertEquals(0, queryDepth(1));
+        assertEquals(1, queryDepth(2));
+        assertEquals(2, queryDepth(3));
+    }
+
+    public void testMigrationDropsEntriesWithoutParent() {
+        createVersion1Schema();
+        insertFolderEntry(1, 1, -1);
+        insertFolderEntry(2, 2, 1);
+        //the parent folder 9 has no entry
+        insertFolderEntry(3, 3, 9);
+        mDatabase.execSQL("INSERT INTO launches (_id, name) VALUES (1, 'launch')");
+        mDatabase.execSQL("INSERT INTO entries (_id, orderindex, launchid, folderid, parentfolderid) VALUES (4, 1, 1, -1, 9)");
+
+        upgrade(1);
+
+        assertEquals(2, queryLong("SELECT count(*) FROM " + EntriesSQLiteOpenHelper.TABLE_NODES));
+        assertEquals(0, queryLong("SELECT count(*) FROM " + EntriesSQLiteOpenHelper.TABLE_NODES
+                + " WHERE " + EntriesSQLiteOpenHelper.COLUMN_NODES_PARENTID + " IS NULL"));
+        assertEquals(1, queryLong("SELECT " + EntriesSQLiteOpenHelper.COLUMN_NODES_PARENTID
+                + " FROM " + EntriesSQLiteOpenHelper.TABLE_NODES
+                + " WHERE " + EntriesSQLiteOpenHelper.COLUMN_ID + " = 2"));
+    }
+
+    /**
+     * the layout of the first version
+     */
+    private void createVersion1Schema() {
+        mDatabase.execSQL("CREATE TABLE entries (_id integer primary key autoincrement, orderindex integer, launchid integer, folderid integer, parentfolderid integer)");
+        mDatabase.execSQL("CREATE TABLE launches (_id integer primary key autoincrement, name text, launchintent text, icon blob)");
+        mDatabase.execSQL("CREATE TABLE folders (_id integer primary key autoincrement, name text, icon blob)");
+    }
+
+    private void insertFolderEntry(long id, long folderId, long parentFolderId) {
+        mDatabase.execSQL("INSERT INTO folders (_id, name) VALUES (" + folderId + ", 'folder " + folderId + "')");
+        mDatabase.execSQL("INSERT INTO entries (_id, orderindex, launchid, folderid, parentfolderid)"
+                + " VALUES (" + id + ", 0, -1, " + folderId + ", " + parentFolderId + ")");
+    }
+
+    /**
+     * runs the migrations inside of a transaction, like SQLiteOpenHelper does
+     */
+    private void upgrade(int oldVersion) {
+        EntriesSQLiteOpenHelper helper = new EntriesSQLiteOpenHelper(getIsolatedContext());
+        mDatabase.beginTransaction();
+        try {
+            helper.onUpgrade(mDatabase, oldVersion, EntriesSQLiteOpenHelper.DATABASE_VERSION);
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
+    private int queryDepth(long nodeId) {
+        Cursor c = mDatabase.rawQuery("SELECT " + EntriesSQLiteOpenHelper.COLUMN_NODES_DEPTH
+                + " FROM " + EntriesSQLiteOpenHelper.TABLE_NODES
+                + " WHERE " + EntriesSQLiteOpenHelper.COLUMN_ID + " = " + nodeId, null);
+        try {
+            assertTrue("node " + nodeId + " is missing", c.moveToFirst());
+            return c.getInt(0);
+        } finally {
+            c.close();
+        }
+    }
+
+    private long queryLong(String sql) {
+        return DatabaseUtils.longForQuery(mDatabase, sql, null);
+    }
+
+    /**
+     * @return true if the given query plan reads the whole nodes table (newer SQLite versions omit "TABLE")
+     */
+    private static boolean scansNodes(String plan) {
+        for(String step : plan.split("\n")) {
+            if(step.startsWith("SCAN TABLE " + EntriesSQLiteOpenHelper.TABLE_NODES)
+                    || step.equals("SCAN " + EntriesSQLiteOpenHelper.TABLE_NODES)
+                    || step.startsWith("SCAN " + EntriesSQLiteOpenHelper.TABLE_NODES + " ")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the details of the query plan of the given statement, one step per line
+     */
+    private String explain(String sql, String... selectionArgs) {
+        StringBuilder result = new StringBuilder();
+        Cursor c = mDatabase.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+        try {
+            int detailIndex = c.getColumnIndexOrThrow("detail");
+            while(c.moveToNext()) {
+                result.append(c.getString(detailIndex)).append('\n');
+            }
+        } finally {
+            c.close();
+        }
+        return result.toString();
+    }
+}
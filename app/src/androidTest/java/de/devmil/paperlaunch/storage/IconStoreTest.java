@@ -0,0 +1,48 @@
+/*
+ * Copyright 2015 Devmil Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.devmil.paperlaunch.storage;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+
+import de.devmil.paperlaunch.utils.BitmapUtils;
+
+public class IconStoreTest extends StorageTestCase {
+    //larger than any icon size the store uses
+    private static final int SOURCE_SIZE = 512;
+
+    public void testIconsAreDecodedAtDisplaySize() {
+        IconStore iconStore = new IconStore(getIsolatedContext());
+        Bitmap source = Bitmap.createBitmap(SOURCE_SIZE, SOURCE_SIZE, Bitmap.Config.ARGB_8888);
+        source.eraseColor(Color.MAGENTA);
+        //stored as it is, like an icon of an older version or of an archive
+        byte[] data = BitmapUtils.getBytes(source);
+        source.recycle();
+        String hash = IconStore.computeHash(data);
+        iconStore.store(hash, data);
+
+        Drawable icon = iconStore.loadIcon(hash);
+        assertTrue(icon instanceof BitmapDrawable);
+        Bitmap bitmap = ((BitmapDrawable) icon).getBitmap();
+        int iconSize = iconStore.getIconSize();
+        assertTrue(bitmap.getWidth() + "px", bitmap.getWidth() <= iconSize);
+        assertTrue(bitmap.getHeight() + "px", bitmap.getHeight() <= iconSize);
+        //ARGB_8888, the full size image is never held in memory
+        assertTrue(bitmap.getAllocationByteCount() + " bytes", bitmap.getAllocationByteCount() <= iconSize * iconSize * 4);
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2015 Devmil Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.devmil.paperlaunch.storage;
+
+import android.content.Intent;
+import android.database.sqlite.SQLiteDatabase;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.devmil.paperlaunch.IsolatedContext;
+import de.devmil.paperlaunch.model.Launch;
+
+/**
+ * Base of the tests that work on the entries database.
+ * Each test starts with an empty database of its own and the QueryProfiler recording.
+ */
+public abstract class StorageTestCase extends AndroidTestCase {
+    private IsolatedContext mIsolatedContext;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mIsolatedContext = new IsolatedContext(getContext());
+        reset();
+        QueryProfiler profiler = QueryProfiler.getInstance();
+        profiler.setEnabled(true);
+        profiler.reset();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        QueryProfiler.getInstance().setStrict(false);
+        reset();
+        super.tearDown();
+    }
+
+    private void reset() {
+        EntriesDataSource.getInstance().closeIfIdle();
+        EntriesRepository.getInstance().invalidate();
+        SQLiteDatabase.deleteDatabase(EntriesSQLiteOpenHelper.getDatabaseFile(mIsolatedContext));
+        mIsolatedContext.deleteFiles();
+    }
+
+    protected IsolatedContext getIsolatedContext() {
+        return mIsolatedContext;
+    }
+
+    protected void write(ITransactionAction action) {
+        EntriesDataSource.getInstance().accessData(mIsolatedContext, action);
+    }
+
+    protected void read(ITransactionAction action) {
+        EntriesDataSource.getInstance().readData(mIsolatedContext, action);
+    }
+
+    /**
+     * @return the profile of the last executions of the given action
+     */
+    protected static QueryProfiler.ActionProfile getProfile(Object action) {
+        QueryProfiler.ActionProfile result = QueryProfiler.getInstance().getProfile(QueryProfiler.getActionName(action));
+        assertNotNull("the action has not been recorded", result);
+        return result;
+    }
+
+    protected static List<Intent> createIntents(int count) {
+        List<Intent> result = new ArrayList<>(count);
+        for(int i=0; i<count; i++) {
+            result.add(new Intent(Intent.ACTION_VIEW, Uri.parse("http://example.com/" + i)));
+        }
+        return result;
+    }
+
+    /**
+     * creates a folder in the given one and returns its id
+     */
+    protected long createFolder(final long parentFolderId, final int parentFolderDepth) {
+        final long[] result = new long[1];
+        write(new ITransactionAction() {
+            @Override
+            public void execute(ITransactionContext transactionContext) {
+                result[0] = transactionContext.createFolder(parentFolderId, -1, parentFolderDepth).getId();
+            }
+        });
+        return result[0];
+    }
+
+    /**
+     * creates launches in the given folder and returns their ids
+     */
+    protected List<Long> createLaunches(final long parentFolderId, final int count) {
+        final List<Long> result = new ArrayList<>(count);
+        write(new ITransactionAction() {
+            @Override
+            public void execute(ITransactionContext transactionContext) {
+                for(Launch launch : transactionContext.createLaunches(parentFolderId, createIntents(count))) {
+                    result.add(launch.getId());
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * gives the launch a new icon of the given color and returns its hash
+     */
+    protected String setIcon(final long launchId, final int color) {
+        final String[] result = new String[1];
+        write(new ITransactionAction() {
+            @Override
+            public void execute(ITransactionContext transactionContext) {
+                Launch launch = transactionContext.loadLaunch(launchId);
+                launch.getDto().setIcon(createIcon(48, color));
+                transactionContext.updateLaunchData(launch);
+                result[0] = launch.getDto().getIconHash();
+            }
+        });
+        return result[0];
+    }
+
+    protected Drawable createIcon(int size, int color) {
+        Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(color);
+        return new BitmapDrawable(getContext().getResources(), bitmap);
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2015 Devmil Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.devmil.paperlaunch.storage;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import de.devmil.paperlaunch.model.IEntry;
+
+/**
+ * Compares writing the order of a folder with updateOrders (one transaction, precompiled statements
+ * that only touch the order key) to the former way (a SELECT and a full row update per entry, each committed on its own).
+ * The timings only get logged, they depend too much on the device to be asserted.
+ */
+public class UpdateOrdersBenchmarkTest extends StorageTestCase {
+    private static final String TAG = UpdateOrdersBenchmarkTest.class.getSimpleName();
+
+    private static final int ENTRY_COUNT = 100;
+    private static final int ROUNDS = 10;
+
+    public void testUpdateOrdersOnlyWritesTheOrderKeys() {
+        createLaunches(-1, ENTRY_COUNT);
+        final List<IEntry> entries = loadRootContent();
+        Collections.reverse(entries);
+
+        ITransactionAction updateOrders = new ITransactionAction() {
+            @Override
+            public void execute(ITransactionContext transactionContext) {
+                transactionContext.updateOrders(-1, entries);
+            }
+        };
+        write(updateOrders);
+
+        //one update per entry and the generation
+        getProfile(updateOrders).assertMaxStatementCount(ENTRY_COUNT + 2);
+        List<IEntry> result = loadRootContent();
+        for(int i=0; i<ENTRY_COUNT; i++) {
+            assertEquals(entries.get(i).getEntryId(), result.get(i).getEntryId());
+        }
+    }
+
+    public void testUpdateOrdersComparedToSingleUpdates() {
+        createLaunches(-1, ENTRY_COUNT);
+        final List<IEntry> entries = loadRootContent();
+
+        ITransactionAction updateOrders = new ITransactionAction() {
+            @Override
+            public void execute(ITransactionContext transactionContext) {
+                transactionContext.updateOrders(-1, entries);
+            }
+        };
+        long batchedNanos = 0;
+        for(int round=0; round<ROUNDS; round++) {
+            Collections.reverse(entries);
+            long start = SystemClock.elapsedRealtimeNanos();
+            write(updateOrders);
+            batchedNanos += SystemClock.elapsedRealtimeNanos() - start;
+        }
+
+        long singleNanos = 0;
+        SQLiteDatabase database = SQLiteDatabase.openDatabase(
+                EntriesSQLiteOpenHelper.getDatabaseFile(getIsolatedContext()).getPath(),
+                null,
+                SQLiteDatabase.OPEN_READWRITE);
+        try {
+            for(int round=0; round<ROUNDS; round++) {
+                Collections.reverse(entries);
+                long start = SystemClock.elapsedRealtimeNanos();
+                for(int i=0; i<entries.size(); i++) {
+                    updateOrderSingle(database, entries.get(i).getEntryId(), i);
+                }
+                singleNanos += SystemClock.elapsedRealtimeNanos() - start;
+            }
+        } finally {
+            database.close();
+        }
+
+        Log.i(TAG, "ordering " + ENTRY_COUNT + " entries: "
+                + (batchedNanos / ROUNDS / 1000) + "us batched, "
+                + (singleNanos / ROUNDS / 1000) + "us with single updates");
+        QueryProfiler.ActionProfile profile = getProfile(updateOrders);
+        assertEquals(ROUNDS, profile.getExecutionCount());
+        //one update per entry and the generation in every round
+        profile.assertMaxStatementCount(ENTRY_COUNT + 2);
+    }
+
+    /**
+     * the way a single order index used to be written: read the row, then write all of its columns
+     */
+    private static void updateOrderSingle(SQLiteDatabase database, long entryId, int orderIndex) {
+        Cursor c = database.query(EntriesSQLiteOpenHelper.TABLE_NODES, null,
+                EntriesSQLiteOpenHelper.COLUMN_ID + " = " + entryId, null, null, null, null);
+        ContentValues values = new ContentValues();
+        if(c.moveToFirst()) {
+            values.put(EntriesSQLiteOpenHelper.COLUMN_NODES_PARENTID, c.getLong(c.getColumnIndex(EntriesSQLiteOpenHelper.COLUMN_NODES_PARENTID)));
+            values.put(EntriesSQLiteOpenHelper.COLUMN_NODES_KIND, c.getInt(c.getColumnIndex(EntriesSQLiteOpenHelper.COLUMN_NODES_KIND)));
+            values.put(EntriesSQLiteOpenHelper.COLUMN_NODES_NAME, c.getString(c.getColumnIndex(EntriesSQLiteOpenHelper.COLUMN_NODES_NAME)));
+            values.put(EntriesSQLiteOpenHelper.COLUMN_NODES_PAYLOAD, c.getBlob(c.getColumnIndex(EntriesSQLiteOpenHelper.COLUMN_NODES_PAYLOAD)));
+        }
+        c.close();
+        values.put(EntriesSQLiteOpenHelper.COLUMN_NODES_ORDERKEY, orderIndex);
+        database.update(EntriesSQLiteOpenHelper.TABLE_NODES, values,
+                EntriesSQLiteOpenHelper.COLUMN_ID + " = " + entryId, null);
+    }
+
+    private List<IEntry> loadRootContent() {
+        final List<IEntry> result = new ArrayList<>();
+        read(new ITransactionAction() {
+            @Override
+            public void execute(ITransactionContext transactionContext) {
+                result.addAll(transactionContext.loadRootContent());
+            }
+        });
+        return result;
+    }
+}
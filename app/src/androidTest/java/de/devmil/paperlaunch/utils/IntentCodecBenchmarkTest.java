@@ -0,0 +1,74 @@
+/*
+ * Copyright 2015 Devmil Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.devmil.paperlaunch.utils;
+
+import android.content.Intent;
+import android.os.SystemClock;
+import android.util.Log;
+
+import junit.framework.TestCase;
+
+/**
+ * Compares IntentCodec to the legacy format of IntentSerializer (Java serialization + Base64).
+ * The timings only get logged, they depend too much on the device to be asserted.
+ */
+public class IntentCodecBenchmarkTest extends TestCase {
+    private static final String TAG = IntentCodecBenchmarkTest.class.getSimpleName();
+
+    private static final int WARMUP_ITERATIONS = 200;
+    private static final int ITERATIONS = 2000;
+
+    public void testCodecIsSmallerThanSerializer() {
+        Intent intent = IntentCodecTest.createLaunchIntent();
+        intent.putExtra("shortcut", "value");
+        intent.putExtra("id", 42);
+
+        for(int i=0; i<WARMUP_ITERATIONS; i++) {
+            IntentCodec.decode(IntentCodec.encode(intent));
+            IntentSerializer.deserialize(IntentSerializer.serialize(intent));
+        }
+
+        byte[] encoded = null;
+        long start = SystemClock.elapsedRealtimeNanos();
+        for(int i=0; i<ITERATIONS; i++) {
+            encoded = IntentCodec.encode(intent);
+        }
+        long codecEncodeNanos = SystemClock.elapsedRealtimeNanos() - start;
+        start = SystemClock.elapsedRealtimeNanos();
+        for(int i=0; i<ITERATIONS; i++) {
+            IntentCodec.decode(encoded);
+        }
+        long codecDecodeNanos = SystemClock.elapsedRealtimeNanos() - start;
+
+        String serialized = null;
+        start = SystemClock.elapsedRealtimeNanos();
+        for(int i=0; i<ITERATIONS; i++) {
+            serialized = IntentSerializer.serialize(intent);
+        }
+        long serializerEncodeNanos = SystemClock.elapsedRealtimeNanos() - start;
+        start = SystemClock.elapsedRealtimeNanos();
+        for(int i=0; i<ITERATIONS; i++) {
+            IntentSerializer.deserialize(serialized);
+        }
+        long serializerDecodeNanos = SystemClock.elapsedRealtimeNanos() - start;
+
+        Log.i(TAG, "IntentCodec: " + (codecEncodeNanos / ITERATIONS) + "ns encode, "
+                + (codecDecodeNanos / ITERATIONS) + "ns decode, " + encoded.length + " bytes");
+        Log.i(TAG, "IntentSerializer: " + (serializerEncodeNanos / ITERATIONS) + "ns encode, "
+                + (serializerDecodeNanos / ITERATIONS) + "ns decode, " + serialized.length() + " bytes");
+        assertTrue(encoded.length < serialized.length());
+    }
+}
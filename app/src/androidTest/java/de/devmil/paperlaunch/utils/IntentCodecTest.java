@@ -0,0 +1,103 @@
+/*
+ * Copyright 2015 Devmil Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.devmil.paperlaunch.utils;
+
+import android.content.ComponentName;
+import android.content.Intent;
+import android.graphics.Rect;
+import android.net.Uri;
+import android.os.Bundle;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class IntentCodecTest extends TestCase {
+
+    static Intent createLaunchIntent() {
+        Intent result = new Intent(Intent.ACTION_MAIN);
+        result.addCategory(Intent.CATEGORY_LAUNCHER);
+        result.setComponent(new ComponentName("com.example.app", "com.example.app.MainActivity"));
+        result.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_RESET_TASK_IF_NEEDED);
+        return result;
+    }
+
+    public void testRoundTrip() {
+        Intent intent = createLaunchIntent();
+        intent.setData(Uri.parse("content://com.example.app/items/1"));
+        intent.putExtra("string", "value");
+        intent.putExtra("int", 42);
+        intent.putExtra("long", 42L);
+        intent.putExtra("boolean", true);
+        intent.putExtra("strings", new String[] { "a", "b" });
+        intent.putExtra("ints", new int[] { 1, 2, 3 });
+        Bundle bundle = new Bundle();
+        bundle.putString("nested", "value");
+        intent.putExtra("bundle", bundle);
+        intent.putExtra("intent", new Intent(Intent.ACTION_VIEW, Uri.parse("http://example.com")));
+
+        Intent result = IntentCodec.decode(IntentCodec.encode(intent));
+
+        assertTrue(intent.filterEquals(result));
+        assertEquals(intent.getFlags(), result.getFlags());
+        assertEquals("value", result.getStringExtra("string"));
+        assertEquals(42, result.getIntExtra("int", 0));
+        assertEquals(42L, result.getLongExtra("long", 0));
+        assertTrue(result.getBooleanExtra("boolean", false));
+        assertTrue(Arrays.equals(new String[] { "a", "b" }, result.getStringArrayExtra("strings")));
+        assertTrue(Arrays.equals(new int[] { 1, 2, 3 }, result.getIntArrayExtra("ints")));
+        assertEquals("value", result.getBundleExtra("bundle").getString("nested"));
+        assertEquals(Uri.parse("http://example.com"), ((Intent)result.getParcelableExtra("intent")).getData());
+    }
+
+    /**
+     * extras without a type of their own are stored with Java serialization
+     */
+    public void testSerializableExtraRoundTrip() {
+        ArrayList<String> list = new ArrayList<>(Arrays.asList("a", "b"));
+        Intent intent = createLaunchIntent();
+        intent.putExtra("list", list);
+        intent.putExtra("string", "value");
+
+        Intent result = IntentCodec.decode(IntentCodec.encode(intent));
+
+        assertEquals(list, result.getSerializableExtra("list"));
+        assertEquals("value", result.getStringExtra("string"));
+    }
+
+    /**
+     * extras that can neither be encoded nor serialized are dropped, the rest of the intent stays intact
+     */
+    public void testUnsupportedExtraIsSkipped() {
+        Intent intent = createLaunchIntent();
+        intent.putExtra("rect", new Rect(1, 2, 3, 4));
+        intent.putExtra("string", "value");
+
+        Intent result = IntentCodec.decode(IntentCodec.encode(intent));
+
+        assertTrue(intent.filterEquals(result));
+        assertFalse(result.hasExtra("rect"));
+        assertEquals("value", result.getStringExtra("string"));
+    }
+
+    public void testLegacyFormatIsNotDecoded() {
+        String legacy = IntentSerializer.serialize(createLaunchIntent());
+
+        assertNull(IntentCodec.decode(legacy.getBytes()));
+        assertTrue(createLaunchIntent().filterEquals(IntentSerializer.deserialize(legacy)));
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2015 Devmil Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.devmil.paperlaunch.view;
+
+import android.content.Intent;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.graphics.drawable.BitmapDrawable;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.test.AndroidTestCase;
+import android.view.MotionEvent;
+import android.view.View;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import de.devmil.paperlaunch.IsolatedContext;
+import de.devmil.paperlaunch.config.LaunchConfig;
+import de.devmil.paperlaunch.config.UserSettings;
+import de.devmil.paperlaunch.model.IEntry;
+import de.devmil.paperlaunch.model.Launch;
+import de.devmil.paperlaunch.storage.EntryDTO;
+import de.devmil.paperlaunch.storage.IconStore;
+import de.devmil.paperlaunch.storage.LaunchDTO;
+import de.devmil.paperlaunch.utils.IconCache;
+
+public class LauncherViewTest extends AndroidTestCase {
+    private static final int ENTRY_COUNT = 8;
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+    //distance between the touch positions of the gesture
+    private static final int STEP = 40;
+
+    private IsolatedContext mIsolatedContext;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mIsolatedContext = new IsolatedContext(getContext());
+        mIsolatedContext.deleteFiles();
+        //every icon has to be loaded
+        IconCache.getInstance().clear();
+        IconCache.getInstance().setStrict(true);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        IconCache.getInstance().setStrict(false);
+        IconCache.getInstance().clear();
+        mIsolatedContext.deleteFiles();
+        super.tearDown();
+    }
+
+    public void testTouchHandlingDoesntComputeAccentColors() throws Throwable {
+        final LaunchConfig config = new LaunchConfig(new UserSettings(mIsolatedContext));
+        config.setEntries(createEntries());
+
+        //the strict IconCache throws if Palette gets used on the main thread
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                LauncherView launcherView = new LauncherView(mIsolatedContext);
+                launcherView.doInitialize(config);
+                launcherView.measure(
+                        View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                        View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY));
+                launcherView.layout(0, 0, WIDTH, HEIGHT);
+                launcherView.start();
+
+                launcherView.handleTouchEvent(MotionEvent.ACTION_DOWN, 0, HEIGHT / 2);
+                //no ACTION_UP, that would launch the selected entry
+                for(int x = 0; x < WIDTH; x += STEP) {
+                    for(int y = 0; y < HEIGHT; y += STEP) {
+                        launcherView.handleTouchEvent(MotionEvent.ACTION_MOVE, x, y);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * launches with icons of the IconStore, so the icons get loaded through the IconCache
+     */
+    private List<IEntry> createEntries() {
+        IconStore iconStore = new IconStore(mIsolatedContext);
+        List<IEntry> result = new ArrayList<>();
+        for(int i=0; i<ENTRY_COUNT; i++) {
+            Bitmap bitmap = Bitmap.createBitmap(iconStore.getIconSize(), iconStore.getIconSize(), Bitmap.Config.ARGB_8888);
+            bitmap.eraseColor(Color.rgb(i * 30, 255 - i * 30, 128));
+            byte[] iconData = iconStore.encode(new BitmapDrawable(mIsolatedContext.getResources(), bitmap));
+            String hash = IconStore.computeHash(iconData);
+            iconStore.store(hash, iconData);
+
+            Intent launchIntent = new Intent(Intent.ACTION_VIEW, Uri.parse("http://example.com/" + i));
+            LaunchDTO launch = new LaunchDTO(i + 1, "launch " + i, launchIntent, hash, iconStore);
+            result.add(new Launch(launch, new EntryDTO(i + 1, i, i + 1, -1, -1)));
+        }
+        return result;
+    }
+
+    private static void runOnMainThread(final Runnable runnable) throws Throwable {
+        final Throwable[] error = new Throwable[1];
+        final CountDownLatch done = new CountDownLatch(1);
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    runnable.run();
+                } catch (Throwable e) {
+                    error[0] = e;
+                } finally {
+                    done.countDown();
+                }
+            }
+        });
+        assertTrue("the main thread didn't run the test", done.await(30, TimeUnit.SECONDS));
+        if(error[0] != null) {
+            throw error[0];
+        }
+    }
+}
@@ -16,16 +16,34 @@
 package de.devmil.paperlaunch;
 
 import android.app.Activity;
+import android.app.AlertDialog;
+import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
+import android.net.Uri;
 import android.os.Bundle;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
+import android.widget.Toast;
 import android.widget.Toolbar;
 
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
 import de.devmil.paperlaunch.service.LauncherOverlayService;
+import de.devmil.paperlaunch.storage.EntriesDataSource;
 import de.devmil.paperlaunch.view.fragments.EditFolderFragment;
+import rx.functions.Action1;
 
 public class MainActivity extends Activity {
+    private static final String TAG = MainActivity.class.getSimpleName();
+
+    private static final int REQUEST_EXPORT = 3000;
+    private static final int REQUEST_IMPORT = 3001;
+    private static final String EXPORT_MIME_TYPE = "application/octet-stream";
+    private static final String EXPORT_FILE_NAME = "paperlaunch.export";
 
     private Toolbar mToolbar;
     private EditFolderFragment mFragment;
@@ -56,6 +74,31 @@ public class MainActivity extends Activity {
             }
         });
 
+        MenuItem itemExport = menu.add(R.string.activity_main_export);
+        itemExport.setOnMenuItemClickListener(new MenuItem.OnMenuItemClickListener() {
+            @Override
+            public boolean onMenuItemClick(MenuItem item) {
+                Intent exportIntent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+                exportIntent.addCategory(Intent.CATEGORY_OPENABLE);
+                exportIntent.setType(EXPORT_MIME_TYPE);
+                exportIntent.putExtra(Intent.EXTRA_TITLE, EXPORT_FILE_NAME);
+                startActivityForResult(exportIntent, REQUEST_EXPORT);
+                return true;
+            }
+        });
+
+        MenuItem itemImport = menu.add(R.string.activity_main_import);
+        itemImport.setOnMenuItemClickListener(new MenuItem.OnMenuItemClickListener() {
+            @Override
+            public boolean onMenuItemClick(MenuItem item) {
+                Intent importIntent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+                importIntent.addCategory(Intent.CATEGORY_OPENABLE);
+                importIntent.setType("*/*");
+                startActivityForResult(importIntent, REQUEST_IMPORT);
+                return true;
+            }
+        });
+
         MenuItem itemAbout = menu.add(R.string.title_activity_about);
         itemAbout.setOnMenuItemClickListener(new MenuItem.OnMenuItemClickListener() {
             @Override
@@ -68,4 +111,93 @@ public class MainActivity extends Activity {
 
         return result;
     }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if(resultCode != RESULT_OK || data == null || data.getData() == null) {
+            return;
+        }
+        if(REQUEST_EXPORT == requestCode) {
+            exportEntries(data.getData());
+        } else if(REQUEST_IMPORT == requestCode) {
+            askForImportMode(data.getData());
+        }
+    }
+
+    private void exportEntries(Uri target) {
+        final Context appContext = getApplicationContext();
+        OutputStream out;
+        try {
+            out = getContentResolver().openOutputStream(target);
+        } catch (FileNotFoundException e) {
+            Log.e(TAG, "Unable to open export target", e);
+            Toast.makeText(appContext, R.string.activity_main_export_failed, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        EntriesDataSource.getInstance().exportEntriesAsync(appContext, out).subscribe(new Action1<Integer>() {
+            @Override
+            public void call(Integer count) {
+                Toast.makeText(appContext, appContext.getString(R.string.activity_main_export_done, count), Toast.LENGTH_SHORT).show();
+            }
+        }, new Action1<Throwable>() {
+            @Override
+            public void call(Throwable throwable) {
+                Log.e(TAG, "Error exporting entries", throwable);
+                Toast.makeText(appContext, R.string.activity_main_export_failed, Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+
+    private void askForImportMode(final Uri source) {
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.activity_main_import_mode_title)
+                .setMessage(R.string.activity_main_import_mode_message)
+                .setPositiveButton(R.string.activity_main_import_mode_replace, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        importEntries(source, true);
+                    }
+                })
+                .setNegativeButton(R.string.activity_main_import_mode_add, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        importEntries(source, false);
+                    }
+                })
+                .show();
+    }
+
+    private void importEntries(Uri source, boolean replace) {
+        final Context appContext = getApplicationContext();
+        InputStream in;
+        try {
+            in = getContentResolver().openInputStream(source);
+        } catch (FileNotFoundException e) {
+            Log.e(TAG, "Unable to open import source", e);
+            Toast.makeText(appContext, R.string.activity_main_import_failed, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        EntriesDataSource.getInstance().importEntriesAsync(appContext, in, replace).subscribe(new Action1<Integer>() {
+            @Override
+            public void call(Integer count) {
+                Toast.makeText(appContext, appContext.getString(R.string.activity_main_import_done, count), Toast.LENGTH_SHORT).show();
+                onEntriesImported();
+            }
+        }, new Action1<Throwable>() {
+            @Override
+            public void call(Throwable throwable) {
+                Log.e(TAG, "Error importing entries", throwable);
+                Toast.makeText(appContext, R.string.activity_main_import_failed, Toast.LENGTH_SHORT).show();
+                //parts of the import may have been written
+                onEntriesImported();
+            }
+        });
+    }
+
+    private void onEntriesImported() {
+        if(!isDestroyed() && mFragment != null) {
+            mFragment.invalidate();
+        }
+    }
 }
@@ -18,17 +18,24 @@ package de.devmil.paperlaunch.model;
 import android.content.Context;
 import android.content.res.Resources;
 import android.graphics.drawable.Drawable;
+import android.util.Log;
 
 import java.util.List;
 
 import de.devmil.paperlaunch.R;
 import de.devmil.paperlaunch.storage.EntryDTO;
 import de.devmil.paperlaunch.storage.FolderDTO;
+import de.devmil.paperlaunch.utils.IconCache;
+import rx.Subscription;
+import rx.functions.Action1;
 
 public class Folder implements IFolder {
+    private static final String TAG = Folder.class.getSimpleName();
+
     private FolderDTO mDto;
     private EntryDTO mEntryDto;
     private List<IEntry> mSubEntries;
+    private ISubEntriesLoader mSubEntriesLoader;
 
     public Folder(FolderDTO folderDTO, EntryDTO entryDto, List<IEntry> subEntries) {
         mDto = folderDTO;
@@ -36,6 +43,15 @@ public class Folder implements IFolder {
         mSubEntries = subEntries;
     }
 
+    /**
+     * creates a folder whose content gets loaded by the given loader on first access
+     */
+    public Folder(FolderDTO folderDTO, EntryDTO entryDto, ISubEntriesLoader subEntriesLoader) {
+        mDto = folderDTO;
+        mEntryDto = entryDto;
+        mSubEntriesLoader = subEntriesLoader;
+    }
+
     @Override
     public long getId() {
         return mDto.getId();
@@ -70,7 +86,8 @@ public class Folder implements IFolder {
     public Drawable getIcon(Context context) {
         Drawable result = mDto.getIcon();
         if(result == null) {
-            result = context.getDrawable(R.mipmap.folder_frame);
+            //through the IconCache for the accent color
+            result = IconCache.getInstance().getResourceIcon(context, R.mipmap.folder_frame);
         }
         return result;
     }
@@ -81,9 +98,55 @@ public class Folder implements IFolder {
     }
 
     public List<IEntry> getSubEntries() {
+        if(mSubEntries == null && mSubEntriesLoader != null) {
+            mSubEntries = mSubEntriesLoader.loadSubEntries(this);
+        }
         return mSubEntries;
     }
 
+    /**
+     * Loads the content in the background if it hasn't been loaded yet, so a following getSubEntries doesn't block.
+     * Has to be called on the main thread.
+     *
+     * @return the running load or null if there is nothing to load
+     */
+    public Subscription prefetchSubEntries() {
+        if(mSubEntries != null || mSubEntriesLoader == null) {
+            return null;
+        }
+        return mSubEntriesLoader.loadSubEntriesAsync(this).subscribe(new Action1<List<IEntry>>() {
+            @Override
+            public void call(List<IEntry> entries) {
+                //getSubEntries may have loaded it in the meantime
+                if(mSubEntries == null) {
+                    mSubEntries = entries;
+                }
+            }
+        }, new Action1<Throwable>() {
+            @Override
+            public void call(Throwable throwable) {
+                Log.w(TAG, "Error prefetching the folder content", throwable);
+            }
+        });
+    }
+
+    public boolean isSubEntriesLoaded() {
+        return mSubEntries != null;
+    }
+
+    /**
+     * Drops the content of a lazily loaded folder, it gets loaded again on the next access.
+     *
+     * @return true if the content has been dropped
+     */
+    public boolean releaseSubEntries() {
+        if(mSubEntriesLoader == null || mSubEntries == null) {
+            return false;
+        }
+        mSubEntries = null;
+        return true;
+    }
+
     public void setSubEntries(List<IEntry> entries) {
         mSubEntries = entries;
     }
@@ -91,4 +154,8 @@ public class Folder implements IFolder {
     public FolderDTO getDto() {
         return mDto;
     }
+
+    public void setDto(FolderDTO folderDto) {
+        mDto = folderDto;
+    }
 }
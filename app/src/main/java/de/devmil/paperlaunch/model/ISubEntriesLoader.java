@@ -0,0 +1,34 @@
+/*
+ * Copyright 2015 Devmil Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.devmil.paperlaunch.model;
+
+import java.util.List;
+
+import rx.Observable;
+
+/**
+ * Loads the content of a folder when it gets accessed for the first time
+ */
+public interface ISubEntriesLoader {
+    List<IEntry> loadSubEntries(Folder folder);
+
+    /**
+     * Loads the content without blocking, see Folder.prefetchSubEntries
+     *
+     * @return delivers the content on the main thread
+     */
+    Observable<List<IEntry>> loadSubEntriesAsync(Folder folder);
+}
@@ -29,7 +29,6 @@ public class Launch implements IEntry {
     private EntryDTO mEntryDto;
 
     private String mDefaultAppName = null;
-    private Drawable mDefaultAppIcon = null;
 
     public Launch(LaunchDTO launchDTO, EntryDTO entryDTO)
     {
@@ -71,16 +70,16 @@ public class Launch implements IEntry {
     @Override
     public Drawable getIcon(Context context)
     {
-        if(mDto.getIcon() != null) {
-            return mDto.getIcon();
+        Drawable result = mDto.getIcon();
+        if(result != null) {
+            return result;
         }
-        if(mDefaultAppIcon == null) {
-            Intent launchIntent = getLaunchIntent();
-            if(launchIntent != null) {
-                mDefaultAppIcon = AppMetadataUtils.getAppIcon(context, launchIntent);
-            }
+        //not kept here, the IconCache outlives the loaded entries
+        Intent launchIntent = getLaunchIntent();
+        if(launchIntent == null) {
+            return null;
         }
-        return mDefaultAppIcon;
+        return AppMetadataUtils.getAppIcon(context, launchIntent);
     }
 
     @Override
@@ -106,4 +105,10 @@ public class Launch implements IEntry {
     public LaunchDTO getDto() {
         return mDto;
     }
+
+    public void setDto(LaunchDTO launchDto) {
+        mDto = launchDto;
+        //the intent may have changed
+        mDefaultAppName = null;
+    }
 }
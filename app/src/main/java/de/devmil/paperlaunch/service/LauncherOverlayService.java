@@ -28,6 +28,7 @@ import android.graphics.Color;
 import android.graphics.PixelFormat;
 import android.graphics.Rect;
 import android.os.IBinder;
+import android.os.SystemClock;
 import android.os.Vibrator;
 import android.util.DisplayMetrics;
 import android.util.Log;
@@ -38,28 +39,44 @@ import android.view.WindowManager;
 import android.widget.LinearLayout;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import de.devmil.paperlaunch.R;
 import de.devmil.paperlaunch.MainActivity;
+import de.devmil.paperlaunch.model.Folder;
 import de.devmil.paperlaunch.model.IEntry;
 import de.devmil.paperlaunch.model.IFolder;
+import de.devmil.paperlaunch.model.ISubEntriesLoader;
 import de.devmil.paperlaunch.config.LaunchConfig;
+import de.devmil.paperlaunch.model.Launch;
 import de.devmil.paperlaunch.model.VirtualFolder;
-import de.devmil.paperlaunch.storage.EntriesDataSource;
-import de.devmil.paperlaunch.storage.ITransactionAction;
-import de.devmil.paperlaunch.storage.ITransactionContext;
+import de.devmil.paperlaunch.storage.EntriesChangeSet;
+import de.devmil.paperlaunch.storage.EntriesContent;
+import de.devmil.paperlaunch.storage.EntriesRepository;
+import de.devmil.paperlaunch.storage.EntryChange;
+import de.devmil.paperlaunch.storage.IEntriesObserver;
 import de.devmil.paperlaunch.config.UserSettings;
 import de.devmil.paperlaunch.utils.ActivationIndicatorHelper;
+import de.devmil.paperlaunch.utils.IconCache;
 import de.devmil.paperlaunch.view.utils.ViewUtils;
 import de.devmil.paperlaunch.view.LauncherView;
+import rx.Observable;
+import rx.Scheduler;
+import rx.Subscription;
+import rx.functions.Action0;
+import rx.functions.Action1;
+import rx.functions.Func1;
+import rx.schedulers.Schedulers;
 
 public class LauncherOverlayService extends Service {
 
     private static final String TAG = LauncherOverlayService.class.getSimpleName();
 
     private static final String ACTION_LAUNCH = "ACTION_LAUNCH";
-    private static final String ACTION_NOTIFYDATACHANGED = "ACTION_NOTIFYDATACHANGED";
     private static final String ACTION_NOTIFYCONFIGCHANGED = "ACTION_NOTIFYCONFIGCHANGED";
     private static final String ACTION_ENSUREACTIVATIONTAPPABLE = "ACTION_ENSUREACTIVATIONTAPPABLE";
     private static final String ACTION_PAUSE = "ACTION_PAUSE";
@@ -74,6 +91,61 @@ public class LauncherOverlayService extends Service {
     private boolean mIsLauncherActive = false;
     private LaunchConfig mCurrentConfig;
     private boolean mEntriesLoaded = false;
+    private Subscription mEntriesLoading = null;
+    //generation of the loaded entries, see EntriesRepository.getGeneration
+    private long mLoadedGeneration = -1;
+    private int mAvoidedReloadCount = 0;
+    //used to log how long it takes until the entries are available after the service start
+    private long mCreateTimestamp;
+    //the loaded (real) entries, folders and launches by id, used to apply changes
+    private Map<Long, IEntry> mEntriesById = new HashMap<>();
+    private Map<Long, Folder> mFoldersById = new HashMap<>();
+    private Map<Long, Launch> mLaunchesById = new HashMap<>();
+    //folders load their content when they get opened, so the cost of loading doesn't depend on the tree size
+    private ISubEntriesLoader mSubEntriesLoader = new ISubEntriesLoader() {
+        @Override
+        public List<IEntry> loadSubEntries(Folder folder) {
+            List<IEntry> content = splitEntries(
+                    EntriesRepository.getInstance().loadContent(LauncherOverlayService.this, folder.getId(), this).getEntries());
+            indexEntries(content);
+            return content;
+        }
+
+        @Override
+        public Observable<List<IEntry>> loadSubEntriesAsync(final Folder folder) {
+            return EntriesRepository.getInstance().loadContentAsync(LauncherOverlayService.this, folder.getId(), this)
+                    .map(new Func1<EntriesContent, List<IEntry>>() {
+                        @Override
+                        public List<IEntry> call(EntriesContent entries) {
+                            List<IEntry> content = splitEntries(entries.getEntries());
+                            //the entries may have been reloaded in the meantime
+                            if(mFoldersById.get(folder.getId()) == folder) {
+                                indexEntries(content);
+                            }
+                            return content;
+                        }
+                    });
+        }
+    };
+    private IEntriesObserver mEntriesObserver = new IEntriesObserver() {
+        @Override
+        public void onEntriesChanged(EntriesChangeSet changes) {
+            //the entries have been loaded after the modifications (reloads don't know their generation)
+            if(mEntriesLoaded && changes.getGeneration() >= 0 && changes.getGeneration() <= mLoadedGeneration) {
+                mAvoidedReloadCount++;
+                Log.d(TAG, "Entries are up to date, skipping changes (" + mAvoidedReloadCount + " reloads avoided)");
+                return;
+            }
+            //a launcher that is showing keeps its entries, so patching them isn't possible
+            if(mEntriesLoaded && !mIsLauncherActive && !changes.isReloadRequired()) {
+                applyChanges(changes);
+                return;
+            }
+            mEntriesLoaded = false;
+            cancelEntriesLoading();
+            ensureData(false);
+        }
+    };
 
     //receivers
     private ScreenOnOffReceiver mScreenOnOffReceiver;
@@ -125,20 +197,52 @@ public class LauncherOverlayService extends Service {
     @Override
     public void onCreate() {
         super.onCreate();
+        mCreateTimestamp = SystemClock.elapsedRealtime();
 
         mState = new ServiceState(this);
 
         registerScreenOnReceiver();
         registerOrientationChangeReceiver();
+        EntriesRepository.getInstance().addObserver(mEntriesObserver);
+        MaintenanceJobService.schedule(this);
+        preloadIcons();
+    }
+
+    /**
+     * Loads the icons every activation uses into the IconCache, so their accent colors
+     * don't get computed on the main thread
+     */
+    private void preloadIcons() {
+        final Context appContext = getApplicationContext();
+        final Scheduler.Worker worker = Schedulers.computation().createWorker();
+        worker.schedule(new Action0() {
+            @Override
+            public void call() {
+                worker.unsubscribe();
+                IconCache.getInstance().getResourceIcon(appContext, R.mipmap.ic_launcher);
+                IconCache.getInstance().getResourceIcon(appContext, R.mipmap.folder_frame);
+            }
+        });
     }
 
     @Override
     public void onDestroy() {
+        EntriesRepository.getInstance().removeObserver(mEntriesObserver);
+        cancelEntriesLoading();
         unregisterScreenOnOffReceiver();
         unregisterOrientationChangeReceiver();
         super.onDestroy();
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        //a launcher that is showing keeps its entries
+        if(level >= TRIM_MEMORY_RUNNING_LOW && mEntriesLoaded && !mIsLauncherActive) {
+            releaseFolderContents();
+        }
+    }
+
     @Override
     public IBinder onBind(Intent intent) {
         throw new UnsupportedOperationException("Not yet implemented");
@@ -149,9 +253,6 @@ public class LauncherOverlayService extends Service {
         if(intent != null && ACTION_LAUNCH.equals(intent.getAction())) {
             adaptState(false);
         }
-        else if(intent != null && ACTION_NOTIFYDATACHANGED.equals(intent.getAction())) {
-            adaptState(true);
-        }
         else if (intent != null && ACTION_NOTIFYCONFIGCHANGED.equals(intent.getAction())) {
             reloadConfigMetadata();
             reloadTouchReceiver();
@@ -216,12 +317,6 @@ public class LauncherOverlayService extends Service {
         context.startService(launchServiceIntent);
     }
 
-    public static void notifyDataChanged(Context context) {
-        Intent launchServiceIntent = new Intent(context, LauncherOverlayService.class);
-        launchServiceIntent.setAction(ACTION_NOTIFYDATACHANGED);
-        context.startService(launchServiceIntent);
-    }
-
     public static void notifyConfigChanged(Context context) {
         Intent launchServiceIntent = new Intent(context, LauncherOverlayService.class);
         launchServiceIntent.setAction(ACTION_NOTIFYCONFIGCHANGED);
@@ -270,42 +365,228 @@ public class LauncherOverlayService extends Service {
         mCurrentConfig.setEntries(entries);
     }
 
+    /**
+     * Starts loading the entries in the background if they aren't loaded yet.
+     * A forced reload is served from memory if the EntriesRepository keeps the entries, otherwise only the root folder gets read.
+     */
     private void ensureData(boolean forceReload) {
         ensureConfig(forceReload);
         if(forceReload) {
             mEntriesLoaded = false;
+            cancelEntriesLoading();
         }
-        if(!mEntriesLoaded) {
-            class Local {
-                List<IEntry> entries = null;
-            }
-            final Local local = new Local();
-            EntriesDataSource.getInstance().accessData(this, new ITransactionAction() {
+        if(!mEntriesLoaded && mEntriesLoading == null) {
+            Subscription loading = EntriesRepository.getInstance().loadContentAsync(this, -1, mSubEntriesLoader).subscribe(new Action1<EntriesContent>() {
                 @Override
-                public void execute(ITransactionContext transactionContext) {
-                    local.entries = transactionContext.loadRootContent();
+                public void call(EntriesContent entries) {
+                    mEntriesLoading = null;
+                    setEntries(entries);
+                }
+            }, new Action1<Throwable>() {
+                @Override
+                public void call(Throwable throwable) {
+                    mEntriesLoading = null;
+                    Log.e(TAG, "Error loading the entries", throwable);
                 }
             });
+            //entries that are in memory already are delivered right away
+            if(!loading.isUnsubscribed()) {
+                mEntriesLoading = loading;
+            }
+        }
+    }
 
-            mCurrentConfig.setEntries(prepareEntries(local.entries));
-            mEntriesLoaded = true;
+    /**
+     * Makes sure the entries are available right now.
+     * Loads them synchronously if the background loading hasn't finished yet.
+     */
+    private void ensureDataLoaded() {
+        ensureData(false);
+        if(mEntriesLoaded) {
+            return;
         }
+        cancelEntriesLoading();
+        setEntries(EntriesRepository.getInstance().loadContent(this, -1, mSubEntriesLoader));
     }
 
-    private List<IEntry> prepareEntries(List<IEntry> entries) {
+    private void cancelEntriesLoading() {
+        if(mEntriesLoading != null) {
+            mEntriesLoading.unsubscribe();
+            mEntriesLoading = null;
+        }
+    }
 
-        final WindowManager wm = (WindowManager) getSystemService(WINDOW_SERVICE);
+    private void setEntries(EntriesContent entries) {
+        ensureConfig(false);
+        List<IEntry> preparedEntries = prepareEntries(entries.getEntries());
+        mCurrentConfig.setEntries(preparedEntries);
+        mEntriesById.clear();
+        mFoldersById.clear();
+        mLaunchesById.clear();
+        indexEntries(preparedEntries);
+        mLoadedGeneration = entries.getGeneration();
+        if(mCreateTimestamp > 0) {
+            Log.i(TAG, "Entries available " + (SystemClock.elapsedRealtime() - mCreateTimestamp) + "ms after service start");
+            mCreateTimestamp = 0;
+        }
+        mEntriesLoaded = true;
+    }
+
+    /**
+     * Applies the changes to the loaded entries.
+     * Updated launches and folders get their new data, only the folders whose content has changed
+     * get rebuilt (including their virtual folders). Entries that already have been loaded are reused.
+     */
+    private void applyChanges(EntriesChangeSet changes) {
+        Set<Long> changedFolderIds = new LinkedHashSet<>();
+        for(EntryChange change : changes.getChanges()) {
+            switch(change.getType()) {
+                case UPDATED:
+                    if(change.getLaunch() != null) {
+                        Launch launch = mLaunchesById.get(change.getLaunch().getId());
+                        if(launch != null) {
+                            launch.setDto(change.getLaunch());
+                        }
+                    }
+                    if(change.getFolder() != null) {
+                        Folder folder = mFoldersById.get(change.getFolder().getId());
+                        if(folder != null) {
+                            folder.setDto(change.getFolder());
+                        }
+                    }
+                    break;
+                case REMOVED:
+                    IEntry removedEntry = mEntriesById.get(change.getEntryId());
+                    if(removedEntry != null) {
+                        unindexEntry(removedEntry);
+                    }
+                    changedFolderIds.add(change.getParentFolderId());
+                    break;
+                case INSERTED:
+                case MOVED:
+                    changedFolderIds.add(change.getParentFolderId());
+                    break;
+            }
+        }
+        for(long folderId : changedFolderIds) {
+            rebuildFolderContent(folderId);
+        }
+        mLoadedGeneration = changes.getGeneration();
+    }
 
-        DisplayMetrics metrics = new DisplayMetrics();
-        wm.getDefaultDisplay().getMetrics(metrics);
+    private void rebuildFolderContent(long folderId) {
+        Folder folder = null;
+        if(folderId != -1) {
+            folder = mFoldersById.get(folderId);
+            if(folder == null || !folder.isSubEntriesLoaded()) {
+                //not loaded (e.g. it has been removed) or loaded on access, nothing to do
+                return;
+            }
+        }
+        List<IEntry> content = new ArrayList<>();
+        //one read for the folder, entries that are loaded already are reused
+        for(IEntry loadedEntry : EntriesRepository.getInstance().loadContent(this, folderId, mSubEntriesLoader).getEntries()) {
+            IEntry entry = mEntriesById.get(loadedEntry.getEntryId());
+            if(entry == null) {
+                entry = loadedEntry;
+                indexEntry(entry);
+            }
+            content.add(entry);
+        }
+        content = splitEntries(content);
+        if(folder == null) {
+            mCurrentConfig.setEntries(content);
+        } else {
+            folder.setSubEntries(content);
+        }
+    }
 
-        float entryHeightDip = mCurrentConfig.getImageWidthDip()
-                + 2 * mCurrentConfig.getImageMarginDip()
-                + 2 * mCurrentConfig.getEntriesMarginDip();
+    private void indexEntries(List<IEntry> entries) {
+        for(IEntry entry : entries) {
+            indexEntry(entry);
+        }
+    }
 
-        int entryHeightPx = (int)ViewUtils.getPxFromDip(this, entryHeightDip);
+    private void indexEntry(IEntry entry) {
+        if(entry instanceof VirtualFolder) {
+            indexEntries(((VirtualFolder) entry).getSubEntries());
+            return;
+        }
+        mEntriesById.put(entry.getEntryId(), entry);
+        if(entry instanceof Folder) {
+            Folder folder = (Folder)entry;
+            mFoldersById.put(folder.getId(), folder);
+            if(folder.isSubEntriesLoaded()) {
+                indexEntries(folder.getSubEntries());
+            }
+        } else if(entry instanceof Launch) {
+            mLaunchesById.put(entry.getId(), (Launch)entry);
+        }
+    }
+
+    private void unindexEntry(IEntry entry) {
+        if(entry instanceof VirtualFolder) {
+            for(IEntry subEntry : ((VirtualFolder) entry).getSubEntries()) {
+                unindexEntry(subEntry);
+            }
+            return;
+        }
+        mEntriesById.remove(entry.getEntryId());
+        if(entry instanceof Folder) {
+            Folder folder = (Folder)entry;
+            mFoldersById.remove(folder.getId());
+            if(folder.isSubEntriesLoaded()) {
+                for(IEntry subEntry : folder.getSubEntries()) {
+                    unindexEntry(subEntry);
+                }
+            }
+        } else if(entry instanceof Launch) {
+            mLaunchesById.remove(entry.getId());
+        }
+    }
+
+    private List<IEntry> prepareEntries(List<IEntry> entries) {
+        for(IEntry entry : entries) {
+            //lazily loaded folders get prepared by the loader
+            if(entry instanceof Folder && !((Folder) entry).isSubEntriesLoaded()) {
+                continue;
+            }
+            if(entry.isFolder()) {
+                IFolder folder = (IFolder)entry;
+                folder.setSubEntries(prepareEntries(folder.getSubEntries()));
+            }
+        }
 
-        int numberOfEntriesPossible = metrics.heightPixels / entryHeightPx;
+        return splitEntries(entries);
+    }
+
+    /**
+     * Drops the content of the opened folders, it gets loaded again when the folder gets opened.
+     * The root entries are kept, so the launcher stays available.
+     */
+    private void releaseFolderContents() {
+        int releasedCount = 0;
+        for(Folder folder : new ArrayList<>(mFoldersById.values())) {
+            if(!folder.isSubEntriesLoaded()) {
+                continue;
+            }
+            List<IEntry> subEntries = folder.getSubEntries();
+            if(folder.releaseSubEntries()) {
+                for(IEntry subEntry : subEntries) {
+                    unindexEntry(subEntry);
+                }
+                releasedCount++;
+            }
+        }
+        Log.d(TAG, "Released the content of " + releasedCount + " folders");
+    }
+
+    /**
+     * Moves the entries that don't fit on the screen into a virtual folder (recursively).
+     * Doesn't touch the content of the real folders.
+     */
+    private List<IEntry> splitEntries(List<IEntry> entries) {
+        int numberOfEntriesPossible = getNumberOfEntriesPossible();
 
         if(entries.size() > numberOfEntriesPossible) {
             List<IEntry> virtualFolderContent = new ArrayList<>();
@@ -316,23 +597,31 @@ public class LauncherOverlayService extends Service {
             VirtualFolder vf = new VirtualFolder(
                     getString(R.string.launcher_virtual_folder_name),
                     getDrawable(R.mipmap.ic_auto_folder_grey),
-                    virtualFolderContent);
+                    splitEntries(virtualFolderContent));
             entries.add(vf);
         }
 
-        for(IEntry entry : entries) {
-            if(entry.isFolder()) {
-                IFolder folder = (IFolder)entry;
-                folder.setSubEntries(prepareEntries(folder.getSubEntries()));
-            }
-        }
-
         return entries;
     }
 
+    private int getNumberOfEntriesPossible() {
+        final WindowManager wm = (WindowManager) getSystemService(WINDOW_SERVICE);
+
+        DisplayMetrics metrics = new DisplayMetrics();
+        wm.getDefaultDisplay().getMetrics(metrics);
+
+        float entryHeightDip = mCurrentConfig.getImageWidthDip()
+                + 2 * mCurrentConfig.getImageMarginDip()
+                + 2 * mCurrentConfig.getEntriesMarginDip();
+
+        int entryHeightPx = (int)ViewUtils.getPxFromDip(this, entryHeightDip);
+
+        return metrics.heightPixels / entryHeightPx;
+    }
+
     private LauncherView createLauncherView(MotionEvent event) {
         LauncherView result = new LauncherView(this);
-        ensureData(false);
+        ensureDataLoaded();
         result.doInitialize(mCurrentConfig);
         result.doAutoStart(event);
 
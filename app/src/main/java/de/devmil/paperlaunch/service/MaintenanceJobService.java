@@ -0,0 +1,108 @@
+/*
+ * Copyright 2015 Devmil Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.devmil.paperlaunch.service;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.util.Log;
+
+import java.util.concurrent.TimeUnit;
+
+import de.devmil.paperlaunch.storage.EntriesDataSource;
+import de.devmil.paperlaunch.storage.MaintenanceReport;
+import de.devmil.paperlaunch.utils.AppMetadataCache;
+import rx.Subscription;
+import rx.android.schedulers.AndroidSchedulers;
+import rx.functions.Action1;
+import rx.schedulers.Schedulers;
+
+/**
+ * Runs the maintenance of the stored entries once a day while the device is idle and charging.
+ */
+public class MaintenanceJobService extends JobService {
+    private static final String TAG = MaintenanceJobService.class.getSimpleName();
+
+    private static final int JOB_ID = 1000;
+    private static final long INTERVAL_MS = TimeUnit.DAYS.toMillis(1);
+
+    private Subscription mMaintenanceSubscription;
+
+    /**
+     * Schedules the job unless it is already scheduled (scheduling it again would restart its interval)
+     */
+    public static void schedule(Context context) {
+        JobScheduler jobScheduler = (JobScheduler)context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        for(JobInfo job : jobScheduler.getAllPendingJobs()) {
+            if(job.getId() == JOB_ID) {
+                return;
+            }
+        }
+        JobInfo job = new JobInfo.Builder(JOB_ID, new ComponentName(context, MaintenanceJobService.class))
+                .setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .setPeriodic(INTERVAL_MS)
+                .setPersisted(true)
+                .build();
+        jobScheduler.schedule(job);
+    }
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        final Context appContext = getApplicationContext();
+        mMaintenanceSubscription = EntriesDataSource.getInstance().runMaintenanceAsync(this)
+                //catches up on package changes the app metadata cache hasn't been notified of
+                .observeOn(Schedulers.io())
+                .doOnNext(new Action1<MaintenanceReport>() {
+                    @Override
+                    public void call(MaintenanceReport report) {
+                        int removed = AppMetadataCache.getInstance().removeOutdated(appContext);
+                        Log.i(TAG, "Removed " + removed + " outdated app metadata entries");
+                    }
+                })
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(new Action1<MaintenanceReport>() {
+                    @Override
+                    public void call(MaintenanceReport report) {
+                        Log.i(TAG, "Maintenance done, " + report);
+                        mMaintenanceSubscription = null;
+                        jobFinished(params, false);
+                    }
+                }, new Action1<Throwable>() {
+                    @Override
+                    public void call(Throwable throwable) {
+                        Log.e(TAG, "Error running the maintenance", throwable);
+                        mMaintenanceSubscription = null;
+                        jobFinished(params, false);
+                    }
+                });
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        //a running maintenance can't be interrupted, its result just doesn't get reported any more
+        if(mMaintenanceSubscription != null) {
+            mMaintenanceSubscription.unsubscribe();
+            mMaintenanceSubscription = null;
+        }
+        //the next interval is soon enough
+        return false;
+    }
+}
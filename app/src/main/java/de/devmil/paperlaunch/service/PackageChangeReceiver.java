@@ -0,0 +1,45 @@
+/*
+ * Copyright 2015 Devmil Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.devmil.paperlaunch.service;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+
+import de.devmil.paperlaunch.utils.AppMetadataCache;
+
+/**
+ * Drops the cached labels and icons of apps that have been installed, updated or removed,
+ * and the cached labels after the locale has changed.
+ */
+public class PackageChangeReceiver extends BroadcastReceiver {
+    public PackageChangeReceiver() {
+    }
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if(Intent.ACTION_LOCALE_CHANGED.equals(intent.getAction())) {
+            AppMetadataCache.getInstance().invalidateLabels(context);
+            return;
+        }
+        Uri data = intent.getData();
+        if(data == null) {
+            return;
+        }
+        AppMetadataCache.getInstance().invalidatePackage(context, data.getSchemeSpecificPart());
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2015 Devmil Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.devmil.paperlaunch.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import de.devmil.paperlaunch.utils.IntentCodec;
+
+/**
+ * Streaming export and import of the whole entries tree.
+ * The tree gets written depth first as a sequence of records, so neither writing nor reading
+ * needs more than the current folder path in memory. Each icon is written once, before the
+ * first record that uses it.
+ *
+ * Format: MAGIC, VERSION, records until RECORD_EOF
+ * RECORD_ICON:   hash, data
+ * RECORD_FOLDER: name, icon hash; the records up to the matching RECORD_END are its content
+ * RECORD_LAUNCH: name, launch intent (IntentCodec), icon hash
+ * Strings and byte arrays are written as length (-1 = null) followed by the (UTF-8) bytes.
+ */
+class EntriesArchive {
+    private static final int MAGIC = 0x504C4158;
+    private static final int VERSION = 1;
+
+    private static final byte RECORD_EOF = 0;
+    private static final byte RECORD_ICON = 1;
+    private static final byte RECORD_FOLDER = 2;
+    private static final byte RECORD_LAUNCH = 3;
+    private static final byte RECORD_END = 4;
+
+    //number of records that get imported in one transaction
+    private static final int IMPORT_BATCH_SIZE = 1000;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private NodesAccess mNodesAccess;
+    private IconsAccess mIconsAccess;
+
+    EntriesArchive(NodesAccess nodesAccess, IconsAccess iconsAccess) {
+        mNodesAccess = nodesAccess;
+        mIconsAccess = iconsAccess;
+    }
+
+    /**
+     * @return the number of exported entries
+     */
+    int write(OutputStream outputStream) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(outputStream));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        int result = writeContent(out, -1, new HashSet<String>());
+        out.writeByte(RECORD_EOF);
+        out.flush();
+        return result;
+    }
+
+    private int writeContent(DataOutputStream out, long parentFolderId, Set<String> writtenIcons) throws IOException {
+        int result = 0;
+        EntriesTreeBuilder children = mNodesAccess.queryChildren(parentFolderId);
+        for(EntryDTO entry : children.getEntries()) {
+            if(entry.getFolderId() > 0) {
+                FolderDTO folder = children.getFolder(entry.getFolderId());
+                if(folder == null) {
+                    continue;
+                }
+                writeIcon(out, folder.getIconHash(), writtenIcons);
+                out.writeByte(RECORD_FOLDER);
+                writeString(out, folder.getName());
+                writeString(out, folder.getIconHash());
+                result += 1 + writeContent(out, folder.getId(), writtenIcons);
+                out.writeByte(RECORD_END);
+            } else if(entry.getLaunchId() > 0) {
+                LaunchDTO launch = children.getLaunch(entry.getLaunchId());
+                if(launch == null) {
+                    continue;
+                }
+                writeIcon(out, launch.getIconHash(), writtenIcons);
+                out.writeByte(RECORD_LAUNCH);
+                writeString(out, launch.getName());
+                writeBytes(out, IntentCodec.encode(launch.getLaunchIntent()));
+                writeString(out, launch.getIconHash());
+                result++;
+            }
+        }
+        return result;
+    }
+
+    private void writeIcon(DataOutputStream out, String hash, Set<String> writtenIcons) throws IOException {
+        if(hash == null || writtenIcons.contains(hash)) {
+            return;
+        }
+        byte[] data = mIconsAccess.getIconStore().read(hash);
+        if(data == null) {
+            return;
+        }
+        out.writeByte(RECORD_ICON);
+        writeString(out, hash);
+        writeBytes(out, data);
+        writtenIcons.add(hash);
+    }
+
+    /**
+     * Adds the entries of the archive to the root folder.
+     * Commits a transaction each IMPORT_BATCH_SIZE records.
+     *
+     * @return the number of imported entries
+     */
+    int read(InputStream inputStream, ITransactionContext transactionContext) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(inputStream));
+        if(in.readInt() != MAGIC) {
+            throw new IOException("Not a PaperLaunch export");
+        }
+        int version = in.readInt();
+        if(version > VERSION) {
+            throw new IOException("Unsupported export version " + version);
+        }
+        //the hashes in the archive are not trusted, they get computed again
+        Map<String, String> iconHashes = new HashMap<>();
+        Deque<ImportFolder> folderPath = new ArrayDeque<>();
+        ImportFolder currentFolder = new ImportFolder(-1, 0, mNodesAccess.queryNextOrderKey(-1));
+        int result = 0;
+        int batchCount = 0;
+        transactionContext.startTransaction();
+        while(true) {
+            byte record = in.readByte();
+            if(record == RECORD_EOF) {
+                break;
+            }
+            switch(record) {
+                case RECORD_ICON: {
+                    String archiveHash = readString(in);
+                    byte[] data = readBytes(in);
+                    if(data != null) {
+                        String hash = IconStore.computeHash(data);
+                        mIconsAccess.getIconStore().store(hash, data);
+                        iconHashes.put(archiveHash, hash);
+                    }
+                    break;
+                }
+                case RECORD_FOLDER: {
+                    String name = readString(in);
+                    String iconHash = addIconReference(iconHashes, readString(in));
+                    int depth = currentFolder.depth + 1;
+                    long folderId = mNodesAccess.insertFolder(currentFolder.id, currentFolder.nextOrderIndex++, name, iconHash, depth);
+                    folderPath.push(currentFolder);
+                    currentFolder = new ImportFolder(folderId, depth, 0);
+                    result++;
+                    break;
+                }
+                case RECORD_LAUNCH: {
+                    String name = readString(in);
+                    byte[] launchIntent = readBytes(in);
+                    String iconHash = addIconReference(iconHashes, readString(in));
+                    mNodesAccess.insertLaunch(currentFolder.id, currentFolder.nextOrderIndex++, name, launchIntent, iconHash);
+                    result++;
+                    break;
+                }
+                case RECORD_END:
+                    if(folderPath.isEmpty()) {
+                        throw new IOException("Unbalanced folder end");
+                    }
+                    currentFolder = folderPath.pop();
+                    break;
+                default:
+                    throw new IOException("Unknown record type " + record);
+            }
+            if(++batchCount >= IMPORT_BATCH_SIZE) {
+                transactionContext.commitTransaction();
+                transactionContext.startTransaction();
+                batchCount = 0;
+            }
+        }
+        transactionContext.commitTransaction();
+        return result;
+    }
+
+    private String addIconReference(Map<String, String> iconHashes, String archiveHash) {
+        String hash = archiveHash == null ? null : iconHashes.get(archiveHash);
+        if(hash != null) {
+            mIconsAccess.addReference(hash);
+        }
+        return hash;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        writeBytes(out, value == null ? null : value.getBytes(UTF8));
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+        if(value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(value.length);
+        out.write(value);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = readBytes(in);
+        return bytes == null ? null : new String(bytes, UTF8);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if(length < 0) {
+            return null;
+        }
+        byte[] result = new byte[length];
+        in.readFully(result);
+        return result;
+    }
+
+    /**
+     * the folder records get added to while importing
+     */
+    private static class ImportFolder {
+        long id;
+        int depth;
+        long nextOrderIndex;
+
+        ImportFolder(long id, int depth, long nextOrderIndex) {
+            this.id = id;
+            this.depth = depth;
+            this.nextOrderIndex = nextOrderIndex;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2015 Devmil Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.devmil.paperlaunch.storage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The modifications done by one writing action, in the order they have been done.
+ * If the modifications can't be described (e.g. a transaction got rolled back) a complete
+ * reload is required instead.
+ */
+public class EntriesChangeSet {
+    private List<EntryChange> mChanges = new ArrayList<>();
+    private boolean mReloadRequired = false;
+    private long mGeneration = -1;
+
+    public static EntriesChangeSet createReload() {
+        EntriesChangeSet result = new EntriesChangeSet();
+        result.setReloadRequired();
+        return result;
+    }
+
+    void add(EntryChange change) {
+        if(!mReloadRequired) {
+            mChanges.add(change);
+        }
+    }
+
+    void setReloadRequired() {
+        mReloadRequired = true;
+        mChanges.clear();
+    }
+
+    void setGeneration(long generation) {
+        mGeneration = generation;
+    }
+
+    /**
+     * @return the generation of the data after the modifications or -1 if unknown
+     */
+    public long getGeneration() {
+        return mGeneration;
+    }
+
+    public boolean isReloadRequired() {
+        return mReloadRequired;
+    }
+
+    public boolean isEmpty() {
+        return !mReloadRequired && mChanges.isEmpty();
+    }
+
+    public List<EntryChange> getChanges() {
+        return Collections.unmodifiableList(mChanges);
+    }
+}
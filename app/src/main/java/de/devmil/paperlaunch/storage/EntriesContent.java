@@ -0,0 +1,44 @@
+/*
+ * Copyright 2015 Devmil Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.devmil.paperlaunch.storage;
+
+import java.util.List;
+
+import de.devmil.paperlaunch.model.IEntry;
+
+/**
+ * The entries of one folder together with the generation of the data they have been read at
+ */
+public class EntriesContent {
+    private List<IEntry> mEntries;
+    private long mGeneration;
+
+    public EntriesContent(List<IEntry> entries, long generation) {
+        mEntries = entries;
+        mGeneration = generation;
+    }
+
+    public List<IEntry> getEntries() {
+        return mEntries;
+    }
+
+    /**
+     * @return the generation of the data the entries have been read at or -1 if unknown
+     */
+    public long getGeneration() {
+        return mGeneration;
+    }
+}
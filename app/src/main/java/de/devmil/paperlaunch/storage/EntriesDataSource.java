@@ -15,23 +15,105 @@
  */
 package de.devmil.paperlaunch.storage;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.Intent;
+import android.content.res.Configuration;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
+import android.util.Log;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import de.devmil.paperlaunch.model.Folder;
 import de.devmil.paperlaunch.model.IEntry;
 import de.devmil.paperlaunch.model.Launch;
+import de.devmil.paperlaunch.utils.IntentCodec;
+import rx.Observable;
+import rx.Scheduler;
+import rx.Subscriber;
+import rx.android.schedulers.AndroidSchedulers;
+import rx.exceptions.Exceptions;
+import rx.functions.Action0;
+import rx.functions.Func1;
+import rx.schedulers.Schedulers;
 
 public class EntriesDataSource {
+    private static final String TAG = EntriesDataSource.class.getSimpleName();
+    //deferred writes are done when there haven't been further ones for this time
+    private static final long PENDING_WRITES_DELAY_MS = 500;
+    //executing any writing action writes the deferred modifications
+    private static final ITransactionAction WRITE_PENDING_ACTION = new ITransactionAction() {
+        @Override
+        public void execute(ITransactionContext transactionContext) {
+        }
+    };
+
+    public interface IWriteListener {
+        /**
+         * gets called on the writing thread after a writing action has finished,
+         * before the next writing action starts, so the changes arrive in the order they have been written
+         *
+         * @param changes the modifications done by the action, never empty
+         */
+        void onDataWritten(EntriesChangeSet changes);
+    }
+
     private EntriesSQLiteOpenHelper mHelper;
     private SQLiteDatabase mDatabase;
-    private EntriesAccess mEntriesAccess;
-    private FoldersAccess mFoldersAccess;
-    private LaunchesAccess mLaunchesAccess;
+    private NodesAccess mNodesAccess;
+    private IconsAccess mIconsAccess;
+    private GenerationAccess mGenerationAccess;
+    private Context mAppContext;
+    private IWriteListener mWriteListener;
+    //collects the modifications of the currently running writing action (including nested ones)
+    private EntriesChangeSet mPendingChanges;
+    private final PendingWrites mPendingWrites = new PendingWrites();
+
+    //held shared while an action runs, held exclusively while the connection gets opened or closed
+    private final ReentrantReadWriteLock mConnectionLock = new ReentrantReadWriteLock();
+    //only one writing action at a time, readers don't need it
+    private final ReentrantLock mWriteLock = new ReentrantLock();
+    //executes the asynchronous actions one after the other, so they are applied in the order they got subscribed
+    private final ExecutorService mIOExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            return new Thread(r, "EntriesDataSource-IO");
+        }
+    });
+    private final Scheduler mIOScheduler = Schedulers.from(mIOExecutor);
+    private final ComponentCallbacks2 mTrimMemoryCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            //the process may get killed from now on
+            flushPendingWritesAsync(mAppContext);
+            if(level >= TRIM_MEMORY_RUNNING_LOW) {
+                closeIfIdle();
+            }
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+        }
+
+        @Override
+        public void onLowMemory() {
+            flushPendingWritesAsync(mAppContext);
+            closeIfIdle();
+        }
+    };
 
     private EntriesDataSource() {
     }
@@ -47,44 +129,459 @@ public class EntriesDataSource {
         }
     }
 
-    public synchronized void accessData(Context context, ITransactionAction action) {
-        boolean opened = mDatabase == null;
-        if (opened) {
-            open(context);
+    /**
+     * Executes an action that may modify data.
+     * Writing actions are executed one at a time, reading actions (see readData) can run concurrently.
+     * This blocks the calling thread, use accessDataAsync from the main thread.
+     */
+    public void accessData(Context context, ITransactionAction action) {
+        mWriteLock.lock();
+        try {
+            executeWriting(context, action);
+        } finally {
+            mWriteLock.unlock();
         }
-        TransactionContext transactionContext = new TransactionContext();
-        action.execute(transactionContext);
-        if (opened) {
-            close(transactionContext);
+    }
+
+    /**
+     * executes a writing action and notifies the write listener, the write lock has to be held
+     */
+    private void executeWriting(Context context, ITransactionAction action) {
+        //nested actions only notify once, when the outermost one is done
+        boolean outermost = mWriteLock.getHoldCount() == 1;
+        if(outermost) {
+            mPendingChanges = new EntriesChangeSet();
+        }
+        boolean succeeded = false;
+        try {
+            execute(context, action, false, mPendingChanges);
+            succeeded = true;
+        } finally {
+            if(!succeeded) {
+                mPendingChanges.setReloadRequired();
+            }
+            if(outermost) {
+                EntriesChangeSet changes = mPendingChanges;
+                mPendingChanges = null;
+                //still holding the lock, so no later write can be delivered first
+                if(!changes.isEmpty() && mWriteListener != null) {
+                    mWriteListener.onDataWritten(changes);
+                }
+            }
+        }
+    }
+
+    public void setWriteListener(IWriteListener listener) {
+        mWriteListener = listener;
+    }
+
+    /**
+     * Executes an action that only reads data.
+     * Thanks to write-ahead logging this can run concurrently with other readers and one writer.
+     * Calling a modifying method of the transaction context throws an IllegalStateException.
+     */
+    public void readData(Context context, ITransactionAction action) {
+        execute(context, action, true, null);
+        migrateLegacyData(context);
+    }
+
+    /**
+     * Asynchronous version of accessData.
+     * The action gets executed on the I/O thread once the returned Observable is subscribed,
+     * the result is delivered on the main thread.
+     */
+    public <T> Observable<T> accessDataAsync(Context context, ITransactionFunction<T> function) {
+        return createAsync(context, function, false);
+    }
+
+    public Observable<Void> accessDataAsync(Context context, ITransactionAction action) {
+        return createAsync(context, toFunction(action), false);
+    }
+
+    /**
+     * Asynchronous version of readData.
+     * The action gets executed on the I/O thread once the returned Observable is subscribed,
+     * the result is delivered on the main thread.
+     */
+    public <T> Observable<T> readDataAsync(Context context, ITransactionFunction<T> function) {
+        return createAsync(context, function, true);
+    }
+
+    /**
+     * Updates the folder data deferred, repeated updates of the same folder are written once.
+     * The data gets written when there haven't been further deferred updates for a short time,
+     * before the next writing action or when flushPendingWritesAsync gets called.
+     * The folder data gets copied, later modifications have to be passed in again.
+     */
+    public void updateFolderDataDeferred(Context context, FolderDTO folderDto) {
+        schedulePendingWrites(context, mPendingWrites.addFolderUpdate(folderDto));
+    }
+
+    /**
+     * Deferred version of ITransactionContext.updateFolderIcon, see updateFolderDataDeferred.
+     * Only the latest icon of a folder gets written.
+     *
+     * @param iconData the encoded icon (see IconStore.encode), must not be modified afterwards
+     */
+    public void updateFolderIconDeferred(Context context, long folderId, byte[] iconData) {
+        schedulePendingWrites(context, mPendingWrites.addFolderIconUpdate(folderId, iconData));
+    }
+
+    /**
+     * Deferred version of ITransactionContext.updateOrders, see updateFolderDataDeferred.
+     * Only the latest order of a folder gets written.
+     *
+     * @param parentFolderId the folder that contains the entries (-1 = root)
+     */
+    public void updateOrdersDeferred(Context context, long parentFolderId, List<IEntry> entries) {
+        if(entries.isEmpty()) {
+            return;
+        }
+        schedulePendingWrites(context, mPendingWrites.addOrderUpdate(parentFolderId, entries));
+    }
+
+    /**
+     * Writes the deferred modifications on the I/O thread right away.
+     * Should be called when the modifying component goes to the background.
+     */
+    public void flushPendingWritesAsync(Context context) {
+        if(context == null || mPendingWrites.isEmpty()) {
+            return;
+        }
+        accessDataAsync(context, WRITE_PENDING_ACTION).subscribe();
+    }
+
+    private void schedulePendingWrites(Context context, final long modificationCount) {
+        final Context appContext = context.getApplicationContext();
+        registerTrimMemoryCallbacks(appContext);
+        final Scheduler.Worker worker = mIOScheduler.createWorker();
+        worker.schedule(new Action0() {
+            @Override
+            public void call() {
+                worker.unsubscribe();
+                //a later update has scheduled its own write
+                if(mPendingWrites.getModificationCount() != modificationCount || mPendingWrites.isEmpty()) {
+                    return;
+                }
+                try {
+                    accessData(appContext, WRITE_PENDING_ACTION);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Error writing deferred modifications", e);
+                }
+            }
+        }, PENDING_WRITES_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Writes all entries to the given stream on the I/O thread, see EntriesArchive.
+     * The stream gets closed afterwards.
+     *
+     * @return emits the number of exported entries
+     */
+    public Observable<Integer> exportEntriesAsync(Context context, final OutputStream out) {
+        return readDataAsync(context, new ITransactionFunction<Integer>() {
+            @Override
+            public Integer execute(ITransactionContext transactionContext) {
+                try {
+                    return transactionContext.exportEntries(out);
+                } catch (IOException e) {
+                    throw Exceptions.propagate(e);
+                } finally {
+                    closeQuietly(out);
+                }
+            }
+        });
+    }
+
+    /**
+     * Imports the entries of the given stream on the I/O thread, see exportEntriesAsync.
+     * The stream gets closed afterwards.
+     *
+     * @param replace true to delete the current entries, false to add the imported ones to the root folder
+     * @return emits the number of imported entries
+     */
+    public Observable<Integer> importEntriesAsync(Context context, final InputStream in, final boolean replace) {
+        return accessDataAsync(context, new ITransactionFunction<Integer>() {
+            @Override
+            public Integer execute(ITransactionContext transactionContext) {
+                try {
+                    return transactionContext.importEntries(in, replace);
+                } catch (IOException e) {
+                    throw Exceptions.propagate(e);
+                } finally {
+                    closeQuietly(in);
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs the maintenance (see ITransactionContext.runMaintenance) on the I/O thread.
+     * The icons get normalized by a reading action first, so writers aren't blocked by the file work.
+     * The copies aren't referenced until the maintenance writes, so a compaction or icon cleanup in between
+     * may delete them. Those icons are skipped and stay oversized until the next maintenance.
+     */
+    public Observable<MaintenanceReport> runMaintenanceAsync(Context context) {
+        final Context appContext = context.getApplicationContext();
+        return readDataAsync(appContext, new ITransactionFunction<Map<String, String>>() {
+            @Override
+            public Map<String, String> execute(ITransactionContext transactionContext) {
+                return transactionContext.normalizeIcons();
+            }
+        }).flatMap(new Func1<Map<String, String>, Observable<MaintenanceReport>>() {
+            @Override
+            public Observable<MaintenanceReport> call(final Map<String, String> normalizedIcons) {
+                return accessDataAsync(appContext, new ITransactionFunction<MaintenanceReport>() {
+                    @Override
+                    public MaintenanceReport execute(ITransactionContext transactionContext) {
+                        return transactionContext.runMaintenance(normalizedIcons);
+                    }
+                });
+            }
+        });
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Error closing stream", e);
+        }
+    }
+
+    /**
+     * the thread all asynchronous actions are executed on
+     */
+    Scheduler getIOScheduler() {
+        return mIOScheduler;
+    }
+
+    private <T> Observable<T> createAsync(Context context, final ITransactionFunction<T> function, final boolean readOnly) {
+        //don't keep an Activity alive until the action has been executed
+        final Context appContext = context.getApplicationContext();
+        return Observable.create(new Observable.OnSubscribe<T>() {
+            @Override
+            public void call(Subscriber<? super T> subscriber) {
+                class Local {
+                    T result;
+                }
+                final Local local = new Local();
+                ITransactionAction action = new ITransactionAction() {
+                    @Override
+                    public void execute(ITransactionContext transactionContext) {
+                        local.result = function.execute(transactionContext);
+                    }
+                };
+                QueryProfiler profiler = QueryProfiler.getInstance();
+                try {
+                    //the statements get grouped by the function instead of the wrapping action
+                    profiler.beginAction(function);
+                    boolean succeeded = false;
+                    try {
+                        if(readOnly) {
+                            readData(appContext, action);
+                        } else {
+                            accessData(appContext, action);
+                        }
+                        succeeded = true;
+                    } finally {
+                        profiler.endAction(succeeded);
+                    }
+                } catch (Throwable e) {
+                    subscriber.onError(e);
+                    return;
+                }
+                subscriber.onNext(local.result);
+                subscriber.onCompleted();
+            }
+        })
+        .subscribeOn(mIOScheduler)
+        .observeOn(AndroidSchedulers.mainThread());
+    }
+
+    private static ITransactionFunction<Void> toFunction(final ITransactionAction action) {
+        return new ITransactionFunction<Void>() {
+            @Override
+            public Void execute(ITransactionContext transactionContext) {
+                action.execute(transactionContext);
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Rewrites launch intents that readers found in the legacy format.
+     * Skipped if a writer is busy, the next writing action takes care of it then.
+     */
+    private void migrateLegacyData(Context context) {
+        NodesAccess nodesAccess = mNodesAccess;
+        if(nodesAccess == null || !nodesAccess.hasLegacyIntents() || !mWriteLock.tryLock()) {
+            return;
+        }
+        try {
+            //the intents stay the same, but pending writes may get executed as well
+            executeWriting(context, WRITE_PENDING_ACTION);
+        } finally {
+            mWriteLock.unlock();
+        }
+    }
+
+    /**
+     * Closes the database connection if no action is currently running.
+     * It gets opened again with the next access.
+     */
+    public void closeIfIdle() {
+        if(!mConnectionLock.writeLock().tryLock()) {
+            return;
+        }
+        try {
+            if(mDatabase != null) {
+                Log.d(TAG, "closing idle database connection");
+                close();
+            }
+        } finally {
+            mConnectionLock.writeLock().unlock();
+        }
+    }
+
+    private void execute(Context context, ITransactionAction action, boolean readOnly, EntriesChangeSet changes) {
+        acquireConnection(context);
+        QueryProfiler profiler = QueryProfiler.getInstance();
+        profiler.beginAction(action);
+        boolean succeeded = false;
+        try {
+            TransactionContext transactionContext = new TransactionContext(readOnly, changes);
+            try {
+                //deferred modifications are written first, so the writes keep their order.
+                //Not by nested actions, as the transaction they run in may still get rolled back
+                if(!readOnly && !mDatabase.inTransaction()) {
+                    mPendingWrites.execute(transactionContext);
+                }
+                action.execute(transactionContext);
+            } finally {
+                transactionContext.rollbackOpenTransactions();
+            }
+            if(!readOnly) {
+                mNodesAccess.migrateLegacyIntents();
+            }
+            succeeded = true;
+        } finally {
+            if(!readOnly) {
+                if(!succeeded) {
+                    mIconsAccess.onRolledBack();
+                }
+                //releases by modifications outside of transactions
+                mIconsAccess.deleteReleasedIcons();
+            }
+            mConnectionLock.readLock().unlock();
+            profiler.endAction(succeeded);
+        }
+    }
+
+    /**
+     * acquires the connection lock shared and makes sure the database is open
+     */
+    private void acquireConnection(Context context) {
+        mConnectionLock.readLock().lock();
+        if(mDatabase != null) {
+            return;
+        }
+        mConnectionLock.readLock().unlock();
+        mConnectionLock.writeLock().lock();
+        try {
+            if(mDatabase == null) {
+                open(context);
+            }
+            //downgrade
+            mConnectionLock.readLock().lock();
+        } finally {
+            mConnectionLock.writeLock().unlock();
         }
     }
 
     private class TransactionContext implements ITransactionContext {
+        private boolean mReadOnly;
+        private EntriesChangeSet mChanges;
+        private int mOpenTransactions = 0;
+
+        public TransactionContext(boolean readOnly, EntriesChangeSet changes) {
+            mReadOnly = readOnly;
+            mChanges = changes;
+        }
+
         @Override
         public void startTransaction() {
+            //transactions always use the primary (writing) connection, so readers don't open one
+            if(mReadOnly) {
+                return;
+            }
             mDatabase.beginTransaction();
+            mOpenTransactions++;
         }
 
         @Override
         public void commitTransaction() {
-            if (mDatabase != null && mDatabase.inTransaction()) {
+            if (mOpenTransactions > 0 && mDatabase.inTransaction()) {
                 mDatabase.setTransactionSuccessful();
                 mDatabase.endTransaction();
+                mOpenTransactions--;
+                mIconsAccess.deleteReleasedIcons();
             }
         }
 
         @Override
         public void rollbackTransaction() {
-            if (mDatabase != null && mDatabase.inTransaction()) {
+            if (mOpenTransactions > 0 && mDatabase.inTransaction()) {
                 mDatabase.endTransaction();
+                mOpenTransactions--;
+                mIconsAccess.onRolledBack();
+                mIconsAccess.deleteReleasedIcons();
+                //it's unknown which of the recorded changes got undone
+                if(mChanges != null) {
+                    mChanges.setReloadRequired();
+                }
+            }
+        }
+
+        void rollbackOpenTransactions() {
+            while(mOpenTransactions > 0) {
+                rollbackTransaction();
+            }
+        }
+
+        private void ensureWritable() {
+            if(mReadOnly) {
+                throw new IllegalStateException("Modifying data is not allowed inside of readData");
+            }
+        }
+
+        private void record(EntryChange change) {
+            if(mChanges != null) {
+                mChanges.add(change);
+            }
+        }
+
+        /**
+         * has to be called by every modification, inside of its transaction if it uses one
+         */
+        private void incrementGeneration() {
+            long generation = mGenerationAccess.increment();
+            if(mChanges != null) {
+                mChanges.setGeneration(generation);
             }
         }
 
         @Override
         public void clear() {
+            ensureWritable();
             startTransaction();
+            mIconsAccess.releaseAll();
             mHelper.clear(mDatabase);
+            incrementGeneration();
             commitTransaction();
+            if(mChanges != null) {
+                mChanges.setReloadRequired();
+            }
         }
 
         @Override
@@ -94,54 +591,68 @@ public class EntriesDataSource {
 
         @Override
         public Launch createLaunch(long parentFolderId, int orderIndex) {
-            //create Entry
-            EntryDTO entry = mEntriesAccess.createNew(orderIndex);
-            entry.setParentFolderId(parentFolderId);
-            //create Launch
-            LaunchDTO launch = mLaunchesAccess.createNew();
-            //relate them
-            entry.setLaunchId(launch.getId());
+            ensureWritable();
+            startTransaction();
+            long launchId = mNodesAccess.insertLaunch(parentFolderId, orderIndex, null, null, null);
+            incrementGeneration();
+            commitTransaction();
 
-            mEntriesAccess.update(entry);
+            LaunchDTO launch = new LaunchDTO(launchId, null, null, null, mIconsAccess.getIconStore());
+            EntryDTO entry = new EntryDTO(launchId, orderIndex, launchId, -1, parentFolderId);
+            record(EntryChange.inserted(entry, launch, null));
+            return createLaunchFromDTO(launch, entry);
+        }
 
-            return loadLaunch(launch.getId());
+        /**
+         * Creates a launch for each of the given intents behind the existing entries of the folder.
+         * All rows get inserted in one transaction without reading them back.
+         */
+        @Override
+        public List<Launch> createLaunches(long parentFolderId, List<Intent> launchIntents) {
+            ensureWritable();
+            List<Launch> result = new ArrayList<>(launchIntents.size());
+            if(launchIntents.isEmpty()) {
+                return result;
+            }
+            startTransaction();
+            long orderIndex = mNodesAccess.queryNextOrderKey(parentFolderId);
+            for(Intent launchIntent : launchIntents) {
+                long launchId = mNodesAccess.insertLaunch(parentFolderId, orderIndex, null, IntentCodec.encode(launchIntent), null);
+                LaunchDTO launch = new LaunchDTO(launchId, null, launchIntent, null, mIconsAccess.getIconStore());
+                EntryDTO entry = new EntryDTO(launchId, orderIndex, launchId, -1, parentFolderId);
+                result.add(createLaunchFromDTO(launch, entry));
+                record(EntryChange.inserted(entry, launch, null));
+                orderIndex++;
+            }
+            incrementGeneration();
+            commitTransaction();
+            return result;
         }
 
         @Override
         public Folder createFolder(long parentFolderId, int orderIndex, int parentFolderDepth) {
-            //create Entry
-            EntryDTO entry = mEntriesAccess.createNew(orderIndex);
-            entry.setParentFolderId(parentFolderId);
-            //create folder
-            FolderDTO folder = mFoldersAccess.createNew();
-            folder.setDepth(parentFolderDepth + 1);
-            mFoldersAccess.update(folder);
-            //relate them
-            entry.setFolderId(folder.getId());
-
-            mEntriesAccess.update(entry);
+            ensureWritable();
+            int depth = parentFolderDepth + 1;
+            startTransaction();
+            long folderId = mNodesAccess.insertFolder(parentFolderId, orderIndex, null, null, depth);
+            incrementGeneration();
+            commitTransaction();
 
-            return loadFolder(folder.getId());
+            FolderDTO folder = new FolderDTO(folderId, null, null, mIconsAccess.getIconStore(), depth);
+            EntryDTO entry = new EntryDTO(folderId, orderIndex, -1, folderId, parentFolderId);
+            record(EntryChange.inserted(entry, null, folder));
+            return new Folder(folder, entry, new ArrayList<IEntry>());
         }
 
         @Override
         public Launch loadLaunch(long launchId) {
-            LaunchDTO launch = mLaunchesAccess.queryLaunch(launchId);
-            EntryDTO entry = mEntriesAccess.queryEntryForLaunch(launchId);
-
-            return createLaunchFromDTO(launch, entry);
+            IEntry result = mNodesAccess.queryNode(launchId).buildEntry(launchId);
+            return result instanceof Launch ? (Launch)result : null;
         }
 
         @Override
         public List<IEntry> loadRootContent() {
-            List<EntryDTO> entryDTOs =  mEntriesAccess.queryAllEntries(-1);
-
-            List<IEntry> entries = new ArrayList<>();
-            for(EntryDTO entryDto : entryDTOs) {
-                entries.add(loadEntry(entryDto));
-            }
-
-            return entries;
+            return createTreeBuilder().buildContent(-1);
         }
 
         private Launch createLaunchFromDTO(LaunchDTO dto, EntryDTO entryDto) {
@@ -150,59 +661,143 @@ public class EntriesDataSource {
 
         @Override
         public Folder loadFolder(long folderId) {
-            FolderDTO folder = mFoldersAccess.queryFolder(folderId);
-            EntryDTO entry = mEntriesAccess.queryEntryForFolder(folderId);
+            //only the folder itself, the icons get decoded when they are displayed
+            return mNodesAccess.querySubtree(folderId).buildFolder(folderId);
+        }
 
-            List<EntryDTO> subEntryDTOs = mEntriesAccess.queryAllEntries(folder.getId());
+        @Override
+        public EntriesTreeBuilder loadTree() {
+            return createTreeBuilder();
+        }
 
-            return createFolderFromDTO(folder, entry, subEntryDTOs);
+        /**
+         * Reads only the entries of the given folder (-1 = root), the icons get decoded when they are displayed
+         */
+        @Override
+        public EntriesTreeBuilder loadChildren(long parentFolderId) {
+            //queried first, see createTreeBuilder
+            long generation = getGeneration();
+            EntriesTreeBuilder result = mNodesAccess.queryChildren(parentFolderId);
+            result.setGeneration(generation);
+            return result;
         }
 
         @Override
-        public void deleteEntry(long entryId) {
-            EntryDTO entryDto = mEntriesAccess.queryEntry(entryId);
-            if(entryDto != null) {
-                if(entryDto.getFolderId() > 0) {
-                    deleteFolderContent(entryDto.getFolderId());
-                    mFoldersAccess.delete(entryDto.getFolderId());
-                }
-                else if(entryDto.getLaunchId() > 0) {
-                    mLaunchesAccess.delete(entryDto.getLaunchId());
+        public int exportEntries(OutputStream out) throws IOException {
+            return createArchive().write(out);
+        }
+
+        /**
+         * @param replace true to delete the current entries, false to add the imported ones to the root folder
+         */
+        @Override
+        public int importEntries(InputStream in, boolean replace) throws IOException {
+            ensureWritable();
+            if(replace) {
+                clear();
+            }
+            try {
+                return createArchive().read(in, this);
+            } finally {
+                //also after a failure, as some batches may have been committed
+                incrementGeneration();
+                if(mChanges != null) {
+                    mChanges.setReloadRequired();
                 }
-                mEntriesAccess.delete(entryDto);
             }
         }
 
-        private void deleteFolderContent(long folderId) {
-            Folder folder = loadFolder(folderId);
-            for(IEntry entry : folder.getSubEntries()) {
-                deleteEntry(entry.getEntryId());
-            }
+        /**
+         * Stores scaled down copies of the oversized icons, see runMaintenance(Map).
+         * Only does file work, so it can be called by a reading action.
+         *
+         * @return hash of the oversized icon => hash of its scaled down copy
+         */
+        @Override
+        public Map<String, String> normalizeIcons() {
+            return new EntriesMaintenance(mDatabase, mNodesAccess, mIconsAccess).normalizeIcons();
         }
 
-        private Folder createFolderFromDTO(FolderDTO dto, EntryDTO entryDto, List<EntryDTO> subEntryDTOs) {
-            List<IEntry> subEntries = new ArrayList<>();
-            for(EntryDTO subEntryDto : subEntryDTOs) {
-                subEntries.add(loadEntry(subEntryDto));
+        /**
+         * Same as runMaintenance(normalizeIcons()), use runMaintenanceAsync to normalize the icons without holding the write lock.
+         */
+        @Override
+        public MaintenanceReport runMaintenance() {
+            return runMaintenance(normalizeIcons());
+        }
+
+        /**
+         * Removes orphaned rows, renumbers the entries, replaces the normalized icons and compacts the database if worth it.
+         * The database only gets compacted when this isn't called inside of a transaction.
+         *
+         * @param normalizedIcons the result of normalizeIcons
+         */
+        @Override
+        public MaintenanceReport runMaintenance(Map<String, String> normalizedIcons) {
+            ensureWritable();
+            MaintenanceReport report = new MaintenanceReport();
+            EntriesMaintenance maintenance = new EntriesMaintenance(mDatabase, mNodesAccess, mIconsAccess);
+            startTransaction();
+            maintenance.sweep(report, normalizedIcons);
+            if(report.isEntriesModified()) {
+                incrementGeneration();
+                if(mChanges != null) {
+                    mChanges.setReloadRequired();
+                }
             }
+            commitTransaction();
+            maintenance.compact(report);
+            return report;
+        }
 
-            return new Folder(dto, entryDto, subEntries);
+        private EntriesArchive createArchive() {
+            return new EntriesArchive(mNodesAccess, mIconsAccess);
+        }
+
+        @Override
+        public long getGeneration() {
+            return mGenerationAccess.queryGeneration();
         }
 
-        private IEntry loadEntry(EntryDTO entryDto) {
-            if(entryDto.getFolderId() > 0) {
-                return loadFolder(entryDto.getFolderId());
-            } else if(entryDto.getLaunchId() > 0) {
-                return loadLaunch(entryDto.getLaunchId());
+        private EntriesTreeBuilder createTreeBuilder() {
+            //queried first: a modification in between makes the tree look older than it is, never newer
+            long generation = getGeneration();
+            EntriesTreeBuilder result = mNodesAccess.queryTree();
+            result.setGeneration(generation);
+            return result;
+        }
+
+        /**
+         * Deletes the entry and everything below it without loading any of it.
+         *
+         * @return the number of deleted entries
+         */
+        @Override
+        public int deleteEntry(long entryId) {
+            ensureWritable();
+            EntryDTO entry = mNodesAccess.queryEntry(entryId);
+            if(entry == null) {
+                return 0;
             }
-            return null;
+            //rolled back by rollbackOpenTransactions if this fails
+            startTransaction();
+            int count = mNodesAccess.deleteSubtree(entryId);
+            incrementGeneration();
+            commitTransaction();
+            record(EntryChange.removed(entryId, entry.getParentFolderId()));
+            return count;
         }
 
         @Override
         public void updateLaunchData(Launch launch) {
+            ensureWritable();
             LaunchDTO launchDto = launch.getDto();
 
-            mLaunchesAccess.update(launchDto);
+            startTransaction();
+            mNodesAccess.update(launchDto);
+            incrementGeneration();
+            commitTransaction();
+            record(EntryChange.updated(launchDto));
         }
 
         @Override
@@ -212,45 +807,111 @@ public class EntriesDataSource {
 
         @Override
         public void updateFolderData(FolderDTO folderDto) {
-            mFoldersAccess.update(folderDto);
+            ensureWritable();
+            startTransaction();
+            mNodesAccess.update(folderDto);
+            incrementGeneration();
+            commitTransaction();
+            record(EntryChange.updated(folderDto));
+        }
+
+        /**
+         * @param iconData the encoded icon (see IconStore.encode) or null to remove the icon
+         */
+        @Override
+        public void updateFolderIcon(long folderId, byte[] iconData) {
+            ensureWritable();
+            FolderDTO folderDto = mNodesAccess.queryNode(folderId).getFolder(folderId);
+            if(folderDto == null) {
+                return;
+            }
+            startTransaction();
+            String iconHash = mIconsAccess.replaceReference(folderDto.getIconHash(), iconData);
+            if(iconHash == null ? folderDto.getIconHash() == null : iconHash.equals(folderDto.getIconHash())) {
+                commitTransaction();
+                return;
+            }
+            mNodesAccess.updateIconHash(folderId, iconHash);
+            incrementGeneration();
+            commitTransaction();
+            folderDto.setIconHash(iconHash);
+            record(EntryChange.updated(folderDto));
         }
 
         @Override
         public void updateOrders(Folder folder) {
-            updateOrders(folder.getSubEntries());
+            updateOrders(folder.getId(), folder.getSubEntries());
         }
 
+        /**
+         * @param parentFolderId the folder that contains all of the entries (-1 = root)
+         */
         @Override
-        public void updateOrders(List<IEntry> entries) {
+        public void updateOrders(long parentFolderId, List<IEntry> entries) {
+            ensureWritable();
+            if(entries.isEmpty()) {
+                return;
+            }
+            long[] entryIds = new long[entries.size()];
             for(int i=0; i<entries.size(); i++) {
-                updateOrder(entries.get(i), i);
+                entryIds[i] = entries.get(i).getEntryId();
+            }
+            startTransaction();
+            mNodesAccess.updateOrderKeys(entryIds);
+            incrementGeneration();
+            commitTransaction();
+            for(int i=0; i<entryIds.length; i++) {
+                record(EntryChange.moved(entryIds[i], parentFolderId, i));
             }
         }
 
         @Override
         public void updateOrder(IEntry entry, int orderIndex) {
-            EntryDTO entryDTO = mEntriesAccess.queryEntry(entry.getEntryId());
-            entryDTO.setOrderIndex(orderIndex);
+            ensureWritable();
+            startTransaction();
+            mNodesAccess.updateOrderKey(entry.getEntryId(), orderIndex);
+            incrementGeneration();
+            commitTransaction();
+            record(EntryChange.moved(entry.getEntryId(), queryParentFolderId(entry.getEntryId()), orderIndex));
+        }
 
-            mEntriesAccess.update(entryDTO);
+        private long queryParentFolderId(long entryId) {
+            EntryDTO entry = mNodesAccess.queryEntry(entryId);
+            return entry == null ? -1 : entry.getParentFolderId();
         }
     }
 
     private void open(Context context) throws SQLiteException {
-        mHelper = new EntriesSQLiteOpenHelper(context);
+        Context appContext = context.getApplicationContext();
+        mHelper = new EntriesSQLiteOpenHelper(appContext);
+        mHelper.setWriteAheadLoggingEnabled(true);
         mDatabase = mHelper.getWritableDatabase();
-        mEntriesAccess = new EntriesAccess(mDatabase);
-        mFoldersAccess = new FoldersAccess(context, mDatabase);
-        mLaunchesAccess = new LaunchesAccess(context, mDatabase);
+        mIconsAccess = new IconsAccess(mDatabase, new IconStore(appContext));
+        mNodesAccess = new NodesAccess(mDatabase, mIconsAccess);
+        mGenerationAccess = new GenerationAccess(mDatabase);
+        if(mHelper.consumeIconSweepRequired()) {
+            //the upgrade has been committed, the icons it released can be deleted now
+            int deletedIcons = mIconsAccess.getIconStore().retainAll(mIconsAccess.queryHashes());
+            Log.i(TAG, "Deleted " + deletedIcons + " icon files after the database upgrade");
+        }
+        registerTrimMemoryCallbacks(appContext);
+    }
+
+    private synchronized void registerTrimMemoryCallbacks(Context appContext) {
+        if(mAppContext == null) {
+            mAppContext = appContext;
+            mAppContext.registerComponentCallbacks(mTrimMemoryCallbacks);
+        }
     }
 
-    private void close(ITransactionContext context) {
-        context.rollbackTransaction();
+    private void close() {
+        mNodesAccess.close();
         mDatabase.close();
         mDatabase = null;
-        mEntriesAccess = null;
-        mFoldersAccess = null;
-        mLaunchesAccess = null;
+        mNodesAccess = null;
+        mIconsAccess = null;
+        mGenerationAccess = null;
         mHelper.close();
+        mHelper = null;
     }
 }
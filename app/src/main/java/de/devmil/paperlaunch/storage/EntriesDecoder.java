@@ -0,0 +1,123 @@
+/*
+ * Copyright 2015 Devmil Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.devmil.paperlaunch.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decode stage of loading the entries.
+ * The rows get fetched first, leaving the launch intents encoded and the icons unloaded.
+ * The collected decodes then run concurrently on a pool with one thread per core and
+ * decodeAll returns when all of them are done.
+ * An instance is meant to be used by one thread.
+ */
+class EntriesDecoder {
+    //below this number of decodes the pool costs more than it saves
+    private static final int MIN_PARALLEL_COUNT = 16;
+    //more tasks than threads, so threads that finish early can take over work
+    private static final int TASKS_PER_THREAD = 4;
+    private static final int THREAD_COUNT = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+    private static final ExecutorService sExecutor = Executors.newFixedThreadPool(THREAD_COUNT, new ThreadFactory() {
+        private final AtomicInteger mThreadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            return new Thread(r, "EntriesDecoder-" + mThreadCount.incrementAndGet());
+        }
+    });
+
+    private List<Runnable> mDecodes = new ArrayList<>();
+
+    void add(Runnable decode) {
+        mDecodes.add(decode);
+    }
+
+    void addIcon(final LaunchDTO launch) {
+        if(launch.getIconHash() == null) {
+            return;
+        }
+        add(new Runnable() {
+            @Override
+            public void run() {
+                launch.getIcon();
+            }
+        });
+    }
+
+    void addIcon(final FolderDTO folder) {
+        if(folder.getIconHash() == null) {
+            return;
+        }
+        add(new Runnable() {
+            @Override
+            public void run() {
+                folder.getIcon();
+            }
+        });
+    }
+
+    /**
+     * Runs all added decodes and waits for them to finish.
+     * The results are visible to the calling thread afterwards.
+     */
+    void decodeAll() {
+        List<Runnable> decodes = mDecodes;
+        mDecodes = new ArrayList<>();
+        if(decodes.size() < MIN_PARALLEL_COUNT || THREAD_COUNT == 1) {
+            for(Runnable decode : decodes) {
+                decode.run();
+            }
+            return;
+        }
+        int taskCount = Math.min(decodes.size(), THREAD_COUNT * TASKS_PER_THREAD);
+        List<Callable<Void>> tasks = new ArrayList<>(taskCount);
+        for(int i=0; i<taskCount; i++) {
+            //every taskCount-th decode, so expensive decodes that are next to each other get spread
+            final List<Runnable> taskDecodes = new ArrayList<>();
+            for(int d=i; d<decodes.size(); d+=taskCount) {
+                taskDecodes.add(decodes.get(d));
+            }
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    for(Runnable decode : taskDecodes) {
+                        decode.run();
+                    }
+                    return null;
+                }
+            });
+        }
+        try {
+            for(Future<Void> result : sExecutor.invokeAll(tasks)) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while decoding the entries", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Error decoding the entries", e.getCause());
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2015 Devmil Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.devmil.paperlaunch.storage;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Repairs and compacts the stored entries.
+ * Removes rows that can't be reached any more (e.g. left behind by interrupted modifications),
+ * renumbers the nodes of each folder, scales down icons that are larger than they are displayed
+ * and vacuums the database when a large part of it is unused.
+ * All cleanups are done with one statement per table instead of walking the entries.
+ * The scaled down icons are written by normalizeIcons before the sweep, so no file work is done inside of its transaction.
+ */
+class EntriesMaintenance {
+    private static final String TAG = EntriesMaintenance.class.getSimpleName();
+
+    //the database gets vacuumed when at least this percentage of its pages is unused...
+    private static final int VACUUM_MIN_FREE_PERCENT = 25;
+    //...and it is worth it
+    private static final int VACUUM_MIN_FREE_PAGES = 32;
+
+    //nodes whose parent folder doesn't exist (any more) and nodes of an unknown kind.
+    //Parents that have never been set are null
+    private static final String ORPHANED_NODES_SELECT = "SELECT " + EntriesSQLiteOpenHelper.COLUMN_ID
+            + " FROM " + EntriesSQLiteOpenHelper.TABLE_NODES
+            + " WHERE coalesce(" + EntriesSQLiteOpenHelper.COLUMN_NODES_PARENTID + ", 0) <> -1"
+            + " AND coalesce(" + EntriesSQLiteOpenHelper.COLUMN_NODES_PARENTID + ", 0) NOT IN ("
+            + "SELECT " + EntriesSQLiteOpenHelper.COLUMN_ID + " FROM " + EntriesSQLiteOpenHelper.TABLE_NODES
+            + " WHERE " + EntriesSQLiteOpenHelper.COLUMN_NODES_KIND + " = " + NodesAccess.KIND_FOLDER + ")"
+            + " OR coalesce(" + EntriesSQLiteOpenHelper.COLUMN_NODES_KIND + ", 0)"
+            + " NOT IN (" + NodesAccess.KIND_LAUNCH + ", " + NodesAccess.KIND_FOLDER + ")";
+
+    //temporary table that holds all nodes in their new order, seq is assigned in insertion order
+    private static final String TABLE_ORDER_SEQUENCE = "temp.nodes_order_sequence";
+
+    private static final String ORDER_SEQUENCE_CREATE = "CREATE TEMP TABLE IF NOT EXISTS nodes_order_sequence ("
+            + "seq integer primary key, "
+            + EntriesSQLiteOpenHelper.COLUMN_ID + " integer, "
+            + EntriesSQLiteOpenHelper.COLUMN_NODES_PARENTID + " integer"
+            + " )";
+
+    //one ordered pass over the nodes, nodes with the same order key keep the order of their ids
+    private static final String ORDER_SEQUENCE_COLLECT = "INSERT INTO " + TABLE_ORDER_SEQUENCE
+            + " (" + EntriesSQLiteOpenHelper.COLUMN_ID + ", " + EntriesSQLiteOpenHelper.COLUMN_NODES_PARENTID + ")\n"
+            + "SELECT " + EntriesSQLiteOpenHelper.COLUMN_ID + ", " + EntriesSQLiteOpenHelper.COLUMN_NODES_PARENTID
+            + " FROM " + EntriesSQLiteOpenHelper.TABLE_NODES + "\n"
+            + "ORDER BY " + EntriesSQLiteOpenHelper.COLUMN_NODES_PARENTID
+            + ", coalesce(" + EntriesSQLiteOpenHelper.COLUMN_NODES_ORDERKEY + ", -1)"
+            + ", " + EntriesSQLiteOpenHelper.COLUMN_ID;
+
+    //temporary table that holds the new order key of each node
+    private static final String TABLE_ORDER = "temp.nodes_order";
+
+    private static final String ORDER_CREATE = "CREATE TEMP TABLE IF NOT EXISTS nodes_order ("
+            + EntriesSQLiteOpenHelper.COLUMN_ID + " integer primary key, "
+            + EntriesSQLiteOpenHelper.COLUMN_NODES_ORDERKEY + " integer"
+            + " )";
+
+    //the position of each node inside of its folder: the nodes of a folder have consecutive sequence numbers,
+    //so it is the distance to the first node of the folder
+    private static final String ORDER_COLLECT = "INSERT INTO " + TABLE_ORDER + "\n"
+            + "SELECT q." + EntriesSQLiteOpenHelper.COLUMN_ID + ", q.seq - f.first_seq\n"
+            + "FROM " + TABLE_ORDER_SEQUENCE + " q\n"
+            + "INNER JOIN (\n"
+            + "  SELECT " + EntriesSQLiteOpenHelper.COLUMN_NODES_PARENTID + ", min(seq) AS first_seq FROM " + TABLE_ORDER_SEQUENCE
+            + " GROUP BY " + EntriesSQLiteOpenHelper.COLUMN_NODES_PARENTID + "\n"
+            + ") f ON (f." + EntriesSQLiteOpenHelper.COLUMN_NODES_PARENTID + " = q." + EntriesSQLiteOpenHelper.COLUMN_NODES_PARENTID + ")";
+
+    //only touches the nodes whose order key changes
+    private static final String ORDER_APPLY = "UPDATE " + EntriesSQLiteOpenHelper.TABLE_NODES + "\n"
+            + "SET " + EntriesSQLiteOpenHelper.COLUMN_NODES_ORDERKEY + " = (SELECT o." + EntriesSQLiteOpenHelper.COLUMN_NODES_ORDERKEY
+            + " FROM " + TABLE_ORDER + " o WHERE o." + EntriesSQLiteOpenHelper.COLUMN_ID + " = " + EntriesSQLiteOpenHelper.TABLE_NODES + "." + EntriesSQLiteOpenHelper.COLUMN_ID + ")\n"
+            + "WHERE " + EntriesSQLiteOpenHelper.COLUMN_ID + " IN (\n"
+            + "  SELECT o." + EntriesSQLiteOpenHelper.COLUMN_ID + " FROM " + TABLE_ORDER + " o\n"
+            + "  INNER JOIN " + EntriesSQLiteOpenHelper.TABLE_NODES + " n ON (n." + EntriesSQLiteOpenHelper.COLUMN_ID + " = o." + EntriesSQLiteOpenHelper.COLUMN_ID + ")\n"
+            + "  WHERE n." + EntriesSQLiteOpenHelper.COLUMN_NODES_ORDERKEY + " IS NOT o." + EntriesSQLiteOpenHelper.COLUMN_NODES_ORDERKEY + "\n"
+            + ")";
+
+    private ProfiledDatabase mDatabase;
+    private NodesAccess mNodesAccess;
+    private IconsAccess mIconsAccess;
+    private long mIconStoreSizeBefore = 0;
+
+    public EntriesMaintenance(SQLiteDatabase database, NodesAccess nodesAccess, IconsAccess iconsAccess) {
+        mDatabase = new ProfiledDatabase(database);
+        mNodesAccess = nodesAccess;
+        mIconsAccess = iconsAccess;
+    }
+
+    /**
+     * Removes the orphaned nodes, renumbers the nodes, points the nodes to the normalized icons and corrects the icon references.
+     * Has to be called inside of a transaction.
+     *
+     * @param normalizedIcons the result of normalizeIcons
+     */
+    public void sweep(MaintenanceReport report, Map<String, String> normalizedIcons) {
+        mIconStoreSizeBefore = mIconsAccess.getIconStore().getSize();
+        //each removed folder orphans its content, so repeat until nothing is left
+        int removedNodes;
+        do {
+            removedNodes = mNodesAccess.deleteAll(ORPHANED_NODES_SELECT);
+            report.addRemovedNodes(removedNodes);
+        }
+        while(removedNodes > 0);
+        report.setReorderedEntries(rebuildOrderIndexes());
+        report.addNormalizedIcons(replaceNormalizedIcons(normalizedIcons));
+        report.addRemovedIcons(mIconsAccess.recountReferences());
+    }
+
+    /**
+     * Deletes the icon files that don't belong to an icon and vacuums the database if enough of it is unused.
+     * Has to be called after the transaction of sweep has been committed.
+     */
+    public void compact(MaintenanceReport report) {
+        IconStore iconStore = mIconsAccess.getIconStore();
+        iconStore.retainAll(mIconsAccess.queryHashes());
+        report.addReclaimedBytes(mIconStoreSizeBefore - iconStore.getSize());
+
+        //VACUUM fails inside of a transaction
+        if(mDatabase.inTransaction()) {
+            Log.w(TAG, "Not compacting the database, there is an open transaction");
+            return;
+        }
+        long pageSize = queryPragma("page_size");
+        long pageCount = queryPragma("page_count");
+        long freePages = queryPragma("freelist_count");
+        if(freePages < VACUUM_MIN_FREE_PAGES || freePages * 100 < pageCount * VACUUM_MIN_FREE_PERCENT) {
+            return;
+        }
+        try {
+            mDatabase.execSQL("VACUUM");
+            mDatabase.execSQL("ANALYZE");
+        } catch (SQLiteException e) {
+            Log.w(TAG, "Error compacting the database", e);
+            return;
+        }
+        report.setVacuumed();
+        report.addReclaimedBytes((pageCount - queryPragma("page_count")) * pageSize);
+    }
+
+    /**
+     * @return the number of nodes whose order key has changed
+     */
+    private int rebuildOrderIndexes() {
+        mDatabase.execSQL(ORDER_SEQUENCE_CREATE);
+        mDatabase.execSQL(ORDER_CREATE);
+        mDatabase.execSQL("DELETE FROM " + TABLE_ORDER_SEQUENCE);
+        mDatabase.execSQL("DELETE FROM " + TABLE_ORDER);
+        mDatabase.execSQL(ORDER_SEQUENCE_COLLECT);
+        mDatabase.execSQL(ORDER_COLLECT);
+        SQLiteStatement statement = mDatabase.compileStatement(ORDER_APPLY);
+        try {
+            return mDatabase.executeUpdateDelete(statement, ORDER_APPLY);
+        } finally {
+            statement.close();
+            mDatabase.execSQL("DELETE FROM " + TABLE_ORDER_SEQUENCE);
+            mDatabase.execSQL("DELETE FROM " + TABLE_ORDER);
+        }
+    }
+
+    /**
+     * Stores scaled down copies of the icons that are larger than IconStore.getIconSize.
+     * Only reads the database, so it doesn't need the write lock or a transaction.
+     * The copies are unreferenced files until sweep uses them, see replaceNormalizedIcons.
+     *
+     * @return hash of the oversized icon => hash of its scaled down copy
+     */
+    public Map<String, String> normalizeIcons() {
+        IconStore iconStore = mIconsAccess.getIconStore();
+        Map<String, String> result = new HashMap<>();
+        for(String hash : mIconsAccess.queryHashes()) {
+            String normalizedHash = iconStore.normalize(hash);
+            if(normalizedHash != null) {
+                result.put(hash, normalizedHash);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Points the nodes to the scaled down copies of their icons.
+     * The oversized icons lose their references and get released by recountReferences.
+     *
+     * @return the number of replaced icons
+     */
+    private int replaceNormalizedIcons(Map<String, String> normalizedIcons) {
+        IconStore iconStore = mIconsAccess.getIconStore();
+        int result = 0;
+        for(Map.Entry<String, String> normalizedIcon : normalizedIcons.entrySet()) {
+            //the copy may have been deleted as unreferenced file in the meantime (by compact or deleteReleasedIcons),
+            //the icon stays as it is then and gets normalized by the next maintenance
+            if(iconStore.contains(normalizedIcon.getValue())) {
+                mNodesAccess.replaceIconReferences(normalizedIcon.getKey(), normalizedIcon.getValue());
+                result++;
+            }
+        }
+        return result;
+    }
+
+    private long queryPragma(String name) {
+        return mDatabase.longForQuery("PRAGMA " + name, null);
+    }
+}
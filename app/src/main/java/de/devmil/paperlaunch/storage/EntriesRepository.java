@@ -0,0 +1,391 @@
+/*
+ * Copyright 2015 Devmil Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.devmil.paperlaunch.storage;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import de.devmil.paperlaunch.model.Folder;
+import de.devmil.paperlaunch.model.IEntry;
+import de.devmil.paperlaunch.model.ISubEntriesLoader;
+import rx.Observable;
+import rx.Subscriber;
+import rx.android.schedulers.AndroidSchedulers;
+import rx.functions.Func1;
+
+/**
+ * Process wide owner of the loaded entries.
+ * The tables get read once and are kept in memory, modifications are applied to this snapshot
+ * as they get written. Every read builds its own Folder / Launch objects from copies of the snapshot data
+ * (see EntriesTreeBuilder), so callers are free to modify the returned tree. Modifications only reach
+ * the snapshot by being written through the EntriesDataSource.
+ * Observers get notified on the main thread after each modification.
+ * To speed up the first load after a process start the tables are also kept in an
+ * EntriesSnapshotFile that is used as long as the generation of the database hasn't changed.
+ * Lazily loaded content (see loadContent) doesn't need the snapshot, it only reads the requested folder
+ * unless the snapshot is in memory already.
+ */
+public class EntriesRepository {
+    private static final String TAG = EntriesRepository.class.getSimpleName();
+
+    private final Object mLockObject = new Object();
+    //only one load at a time, so the tables aren't read twice and the snapshot file isn't written concurrently
+    private final Object mLoadLockObject = new Object();
+    private EntriesTreeBuilder mSnapshot = null;
+    //incremented with each invalidation, so a load that has been overtaken by a write doesn't get cached
+    private long mVersion = 0;
+    private final List<IEntriesObserver> mObservers = new CopyOnWriteArrayList<>();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    //statistics: loads served from memory vs. loads that had to read the tables
+    private int mMemoryLoadCount = 0;
+    private int mTableLoadCount = 0;
+    //statistics: loads that have read a single folder
+    private int mFolderLoadCount = 0;
+
+    private EntriesRepository() {
+        EntriesDataSource.getInstance().setWriteListener(new EntriesDataSource.IWriteListener() {
+            @Override
+            public void onDataWritten(EntriesChangeSet changes) {
+                applyChanges(changes);
+            }
+        });
+    }
+
+    private static final Object sInstanceLockObject = new Object();
+    private static EntriesRepository sInstance = null;
+    public static EntriesRepository getInstance() {
+        synchronized (sInstanceLockObject) {
+            if (sInstance == null) {
+                sInstance = new EntriesRepository();
+            }
+            return sInstance;
+        }
+    }
+
+    public void addObserver(IEntriesObserver observer) {
+        mObservers.add(observer);
+    }
+
+    public void removeObserver(IEntriesObserver observer) {
+        mObservers.remove(observer);
+    }
+
+    /**
+     * Loads the root entries, from memory if possible.
+     * This blocks when the entries have to be read from the database, see loadRootContentAsync.
+     */
+    public List<IEntry> loadRootContent(Context context) {
+        EntriesTreeBuilder snapshot = getSnapshot(context);
+        synchronized (mLockObject) {
+            return snapshot.buildContent(-1);
+        }
+    }
+
+    public Folder loadFolder(Context context, long folderId) {
+        EntriesTreeBuilder snapshot = getSnapshot(context);
+        synchronized (mLockObject) {
+            return snapshot.buildFolder(folderId);
+        }
+    }
+
+    /**
+     * @return the entry (including everything below it) or null if it doesn't exist
+     */
+    public IEntry loadEntry(Context context, long entryId) {
+        EntriesTreeBuilder snapshot = getSnapshot(context);
+        synchronized (mLockObject) {
+            return snapshot.buildEntry(entryId);
+        }
+    }
+
+    /**
+     * Loads only the entries of the given folder (-1 = root), the content of sub folders gets
+     * loaded by the given loader when it gets accessed.
+     * Served from memory if the snapshot is loaded, otherwise only the folder gets read from the database.
+     * This blocks in the latter case, see loadContentAsync.
+     */
+    public EntriesContent loadContent(Context context, final long parentFolderId, ISubEntriesLoader subEntriesLoader) {
+        EntriesTreeBuilder tree = getCachedSnapshot();
+        if(tree == null) {
+            countFolderLoad();
+            final EntriesTreeBuilder[] result = new EntriesTreeBuilder[1];
+            EntriesDataSource.getInstance().readData(context, new ITransactionAction() {
+                @Override
+                public void execute(ITransactionContext transactionContext) {
+                    result[0] = transactionContext.loadChildren(parentFolderId);
+                }
+            });
+            tree = result[0];
+        }
+        return buildContent(tree, parentFolderId, subEntriesLoader);
+    }
+
+    /**
+     * Delivers the root entries on the main thread. Reads the database on the I/O thread if
+     * they aren't in memory.
+     */
+    public Observable<List<IEntry>> loadRootContentAsync(Context context) {
+        return getSnapshotAsync(context).map(new Func1<EntriesTreeBuilder, List<IEntry>>() {
+            @Override
+            public List<IEntry> call(EntriesTreeBuilder snapshot) {
+                synchronized (mLockObject) {
+                    return snapshot.buildContent(-1);
+                }
+            }
+        });
+    }
+
+    /**
+     * Asynchronous version of loadContent, content that is in memory gets delivered right away
+     */
+    public Observable<EntriesContent> loadContentAsync(Context context, final long parentFolderId, final ISubEntriesLoader subEntriesLoader) {
+        EntriesTreeBuilder snapshot = getCachedSnapshot();
+        if(snapshot != null) {
+            return Observable.just(buildContent(snapshot, parentFolderId, subEntriesLoader));
+        }
+        countFolderLoad();
+        return EntriesDataSource.getInstance().readDataAsync(context, new ITransactionFunction<EntriesContent>() {
+            @Override
+            public EntriesContent execute(ITransactionContext transactionContext) {
+                return buildContent(transactionContext.loadChildren(parentFolderId), parentFolderId, subEntriesLoader);
+            }
+        });
+    }
+
+    private EntriesContent buildContent(EntriesTreeBuilder tree, long parentFolderId, ISubEntriesLoader subEntriesLoader) {
+        //the snapshot gets modified by applyChanges
+        synchronized (mLockObject) {
+            return new EntriesContent(tree.buildContent(parentFolderId, subEntriesLoader), tree.getGeneration());
+        }
+    }
+
+    public Observable<Folder> loadFolderAsync(Context context, final long folderId) {
+        return getSnapshotAsync(context).map(new Func1<EntriesTreeBuilder, Folder>() {
+            @Override
+            public Folder call(EntriesTreeBuilder snapshot) {
+                synchronized (mLockObject) {
+                    return snapshot.buildFolder(folderId);
+                }
+            }
+        });
+    }
+
+    /**
+     * Drops the entries kept in memory and notifies the observers.
+     */
+    public void invalidate() {
+        synchronized (mLockObject) {
+            mSnapshot = null;
+            mVersion++;
+        }
+        notifyObservers(EntriesChangeSet.createReload());
+    }
+
+    /**
+     * Applies the modifications of a writing action to the entries kept in memory and notifies the observers.
+     * Gets called automatically after each writing action of the EntriesDataSource.
+     */
+    private void applyChanges(EntriesChangeSet changes) {
+        synchronized (mLockObject) {
+            if(mSnapshot != null && !changes.isReloadRequired()) {
+                mSnapshot.apply(changes);
+                //a load that is still running has read the old state
+                mVersion++;
+            } else {
+                mSnapshot = null;
+                mVersion++;
+                //observers may hold entries of an older snapshot that the changes can't be applied to
+                changes = EntriesChangeSet.createReload();
+            }
+        }
+        notifyObservers(changes);
+    }
+
+    private void notifyObservers(final EntriesChangeSet changes) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for(IEntriesObserver observer : mObservers) {
+                    observer.onEntriesChanged(changes);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the generation of the entries kept in memory or -1 if they aren't loaded.
+     * Entries that have been loaded with this generation are up to date.
+     */
+    public long getGeneration() {
+        synchronized (mLockObject) {
+            return mSnapshot == null ? -1 : mSnapshot.getGeneration();
+        }
+    }
+
+    /**
+     * @return the number of loads that have been served from memory instead of reading the tables
+     */
+    public int getMemoryLoadCount() {
+        synchronized (mLockObject) {
+            return mMemoryLoadCount;
+        }
+    }
+
+    public int getTableLoadCount() {
+        synchronized (mLockObject) {
+            return mTableLoadCount;
+        }
+    }
+
+    /**
+     * @return the number of loads that have only read a single folder, see loadContent
+     */
+    public int getFolderLoadCount() {
+        synchronized (mLockObject) {
+            return mFolderLoadCount;
+        }
+    }
+
+    private void countFolderLoad() {
+        synchronized (mLockObject) {
+            mFolderLoadCount++;
+        }
+    }
+
+    private EntriesTreeBuilder getCachedSnapshot() {
+        synchronized (mLockObject) {
+            if(mSnapshot != null) {
+                mMemoryLoadCount++;
+            }
+            return mSnapshot;
+        }
+    }
+
+    private EntriesTreeBuilder getSnapshot(Context context) {
+        EntriesTreeBuilder snapshot = getCachedSnapshot();
+        if(snapshot != null) {
+            return snapshot;
+        }
+        return loadSnapshot(context);
+    }
+
+    /**
+     * Loads the snapshot unless a concurrent load has done so while this one was waiting
+     */
+    private EntriesTreeBuilder loadSnapshot(Context context) {
+        synchronized (mLoadLockObject) {
+            EntriesTreeBuilder snapshot = getCachedSnapshot();
+            if(snapshot != null) {
+                return snapshot;
+            }
+            long version = getVersion();
+            return storeSnapshot(loadTree(context), version);
+        }
+    }
+
+    private Observable<EntriesTreeBuilder> getSnapshotAsync(Context context) {
+        EntriesTreeBuilder snapshot = getCachedSnapshot();
+        if(snapshot != null) {
+            return Observable.just(snapshot);
+        }
+        final Context appContext = context.getApplicationContext();
+        return Observable.create(new Observable.OnSubscribe<EntriesTreeBuilder>() {
+            @Override
+            public void call(Subscriber<? super EntriesTreeBuilder> subscriber) {
+                EntriesTreeBuilder loadedSnapshot;
+                try {
+                    loadedSnapshot = loadSnapshot(appContext);
+                } catch (Throwable e) {
+                    subscriber.onError(e);
+                    return;
+                }
+                subscriber.onNext(loadedSnapshot);
+                subscriber.onCompleted();
+            }
+        })
+        .subscribeOn(EntriesDataSource.getInstance().getIOScheduler())
+        .observeOn(AndroidSchedulers.mainThread());
+    }
+
+    /**
+     * Reads the tables from the snapshot file, or from the database if the snapshot file doesn't
+     * match the database. In the latter case the snapshot file gets rewritten.
+     */
+    private EntriesTreeBuilder loadTree(Context context) {
+        synchronized (mLockObject) {
+            mTableLoadCount++;
+            Log.d(TAG, "Loading entries, " + mMemoryLoadCount + " loads served from memory, " + mTableLoadCount + " from the tables");
+        }
+        long start = SystemClock.elapsedRealtime();
+        class Local {
+            long generation;
+            EntriesTreeBuilder tree;
+        }
+        final Local local = new Local();
+        EntriesDataSource dataSource = EntriesDataSource.getInstance();
+        dataSource.readData(context, new ITransactionAction() {
+            @Override
+            public void execute(ITransactionContext transactionContext) {
+                local.generation = transactionContext.getGeneration();
+            }
+        });
+        EntriesSnapshotFile snapshotFile = new EntriesSnapshotFile(context);
+        EntriesTreeBuilder result = snapshotFile.read(local.generation);
+        if(result != null) {
+            Log.i(TAG, "Entries loaded from snapshot file in " + (SystemClock.elapsedRealtime() - start) + "ms");
+            return result;
+        }
+        dataSource.readData(context, new ITransactionAction() {
+            @Override
+            public void execute(ITransactionContext transactionContext) {
+                local.tree = transactionContext.loadTree();
+            }
+        });
+        Log.i(TAG, "Entries loaded from database in " + (SystemClock.elapsedRealtime() - start) + "ms");
+        //the tree knows the generation it has been read with
+        snapshotFile.write(local.tree);
+        return local.tree;
+    }
+
+    private long getVersion() {
+        synchronized (mLockObject) {
+            return mVersion;
+        }
+    }
+
+    /**
+     * keeps the loaded snapshot unless data has been modified since the load started
+     *
+     * @return the snapshot to use
+     */
+    private EntriesTreeBuilder storeSnapshot(EntriesTreeBuilder snapshot, long version) {
+        synchronized (mLockObject) {
+            if(mVersion == version) {
+                if(mSnapshot == null) {
+                    mSnapshot = snapshot;
+                }
+                return mSnapshot;
+            }
+            return snapshot;
+        }
+    }
+}
@@ -15,24 +15,43 @@
  */
 package de.devmil.paperlaunch.storage;
 
+import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.util.Log;
 
-import java.util.HashMap;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 public class EntriesSQLiteOpenHelper extends SQLiteOpenHelper {
 
     private static final String TAG = EntriesSQLiteOpenHelper.class.getName();
 
+    public static final String TABLE_NODES = "nodes";
+    //the tables below are only used by databases before version 6, see TABLE_NODES
     public static final String TABLE_ENTRIES = "entries";
     public static final String TABLE_LAUNCHES = "launches";
     public static final String TABLE_FOLDERS = "folders";
+    public static final String TABLE_ICONS = "icons";
+    public static final String TABLE_GENERATION = "generation";
 
     public static final String COLUMN_ID = "_id";
 
+    //-1 = root
+    public static final String COLUMN_NODES_PARENTID = "parent_id";
+    //see NodesAccess.KIND_LAUNCH / KIND_FOLDER
+    public static final String COLUMN_NODES_KIND = "kind";
+    public static final String COLUMN_NODES_ORDERKEY = "order_key";
+    public static final String COLUMN_NODES_NAME = "name";
+    //the launch intent (IntentCodec) of a launch
+    public static final String COLUMN_NODES_PAYLOAD = "payload";
+    public static final String COLUMN_NODES_ICONREF = "icon_ref";
+    //the depth of a folder
+    public static final String COLUMN_NODES_DEPTH = "depth";
+
     public static final String COLUMN_ENTRIES_LAUNCHID = "launchid";
     public static final String COLUMN_ENTRIES_FOLDERID = "folderid";
     public static final String COLUMN_ENTRIES_PARENTFOLDERID = "parentfolderid";
@@ -40,15 +59,42 @@ public class EntriesSQLiteOpenHelper extends SQLiteOpenHelper {
 
     public static final String COLUMN_LAUNCHES_NAME = "name";
     public static final String COLUMN_LAUNCHES_LAUNCHINTENT = "launchintent";
+    //only used by databases before version 4, see COLUMN_LAUNCHES_ICONHASH
     public static final String COLUMN_LAUNCHES_ICON = "icon";
+    public static final String COLUMN_LAUNCHES_ICONHASH = "iconhash";
     public static final String COLUMN_FOLDERS_DEPTH = "depth";
 
     public static final String COLUMN_FOLDERS_NAME = "name";
+    //only used by databases before version 4, see COLUMN_FOLDERS_ICONHASH
     public static final String COLUMN_FOLDERS_ICON = "icon";
+    public static final String COLUMN_FOLDERS_ICONHASH = "iconhash";
+
+    public static final String COLUMN_ICONS_HASH = "hash";
+    public static final String COLUMN_ICONS_REFCOUNT = "refcount";
+
+    public static final String COLUMN_GENERATION_VALUE = "value";
 
     private static final String DATABASE_NAME = "entries.db";
-    private static final int DATABASE_VERSION = 2;
+    static final int DATABASE_VERSION = 6;
+
+    private static final String INDEX_NODES_PARENT_ORDER = "nodes_parent_order";
+    private static final String INDEX_ENTRIES_PARENTFOLDER_ORDER = "entries_parentfolder_order";
+    private static final String INDEX_ENTRIES_FOLDER = "entries_folder";
+    private static final String INDEX_ENTRIES_LAUNCH = "entries_launch";
 
+    //autoincrement, so the id of a deleted node never refers to another one
+    private static final String TABLE_NODES_CREATE = "create table "
+            + TABLE_NODES
+            + " ( "
+            + COLUMN_ID                     + " integer primary key autoincrement, "
+            + COLUMN_NODES_PARENTID         + " integer, "
+            + COLUMN_NODES_KIND             + " integer, "
+            + COLUMN_NODES_ORDERKEY         + " integer, "
+            + COLUMN_NODES_NAME             + " text, "
+            + COLUMN_NODES_PAYLOAD          + " blob, "
+            + COLUMN_NODES_ICONREF          + " text, "
+            + COLUMN_NODES_DEPTH            + " integer "
+            + " ); ";
     private static final String TABLE_ENTRIES_CREATE = "create table "
             + TABLE_ENTRIES
             + " ( "
@@ -64,100 +110,297 @@ public class EntriesSQLiteOpenHelper extends SQLiteOpenHelper {
             + COLUMN_ID                     + " integer primary key autoincrement, "
             + COLUMN_LAUNCHES_NAME          + " text, "
             + COLUMN_LAUNCHES_LAUNCHINTENT  + " text, "
-            + COLUMN_LAUNCHES_ICON          + " blob "
+            + COLUMN_LAUNCHES_ICONHASH      + " text "
             + " ); ";
     private static final String TABLE_FOLDERS_CREATE =  " create table "
             + TABLE_FOLDERS
             + " ( "
             + COLUMN_ID                     + " integer primary key autoincrement, "
             + COLUMN_FOLDERS_NAME           + " text, "
-            + COLUMN_FOLDERS_ICON           + " blob, "
+            + COLUMN_FOLDERS_ICONHASH       + " text, "
             + COLUMN_FOLDERS_DEPTH          + " integer "
             + " );";
+    private static final String TABLE_ICONS_CREATE =  " create table "
+            + TABLE_ICONS
+            + " ( "
+            + COLUMN_ICONS_HASH             + " text primary key, "
+            + COLUMN_ICONS_REFCOUNT         + " integer "
+            + " );";
+    //a single row, survives clear() so the generation never goes back
+    private static final String TABLE_GENERATION_CREATE =  " create table if not exists "
+            + TABLE_GENERATION
+            + " ( "
+            + COLUMN_ID                     + " integer primary key, "
+            + COLUMN_GENERATION_VALUE       + " integer "
+            + " );";
+    private static final String TABLE_GENERATION_INIT = "insert or ignore into "
+            + TABLE_GENERATION
+            + " ( " + COLUMN_ID + ", " + COLUMN_GENERATION_VALUE + " ) values ( 1, 0 );";
+
+    //covers reading the nodes of a folder including their ordering
+    private static final String INDEX_NODES_PARENT_ORDER_CREATE = "create index if not exists "
+            + INDEX_NODES_PARENT_ORDER
+            + " on " + TABLE_NODES
+            + " ( "
+            + COLUMN_NODES_PARENTID         + ", "
+            + COLUMN_NODES_ORDERKEY
+            + " );";
+    //covers queryAllEntries(parentFolderId) of databases before version 6
+    private static final String INDEX_ENTRIES_PARENTFOLDER_ORDER_CREATE = "create index if not exists "
+            + INDEX_ENTRIES_PARENTFOLDER_ORDER
+            + " on " + TABLE_ENTRIES
+            + " ( "
+            + COLUMN_ENTRIES_PARENTFOLDERID + ", "
+            + COLUMN_ENTRIES_ORDERINDEX     + ", "
+            + COLUMN_ENTRIES_FOLDERID       + ", "
+            + COLUMN_ENTRIES_LAUNCHID
+            + " );";
+    private static final String INDEX_ENTRIES_FOLDER_CREATE = "create index if not exists "
+            + INDEX_ENTRIES_FOLDER
+            + " on " + TABLE_ENTRIES
+            + " ( " + COLUMN_ENTRIES_FOLDERID + " );";
+    private static final String INDEX_ENTRIES_LAUNCH_CREATE = "create index if not exists "
+            + INDEX_ENTRIES_LAUNCH
+            + " on " + TABLE_ENTRIES
+            + " ( " + COLUMN_ENTRIES_LAUNCHID + " );";
+
+    /**
+     * The upgrade steps, ordered by the version they lead to.
+     * To change the schema increase DATABASE_VERSION, add a step here that brings a database
+     * of the previous version to the new one and adapt createSchema to the new layout.
+     */
+    private static final IDatabaseMigration[] MIGRATIONS = new IDatabaseMigration[] {
+            new IDatabaseMigration() {
+                @Override
+                public int getTargetVersion() {
+                    return 2;
+                }
+
+                @Override
+                public void migrate(Context context, SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + TABLE_FOLDERS + " ADD COLUMN " + COLUMN_FOLDERS_DEPTH + " integer");
+                    updateDepth(db);
+                }
+            },
+            new IDatabaseMigration() {
+                @Override
+                public int getTargetVersion() {
+                    return 3;
+                }
+
+                @Override
+                public void migrate(Context context, SQLiteDatabase db) {
+                    createLegacyIndexes(db);
+                }
+            },
+            new IDatabaseMigration() {
+                @Override
+                public int getTargetVersion() {
+                    return 4;
+                }
+
+                @Override
+                public void migrate(Context context, SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + TABLE_LAUNCHES + " ADD COLUMN " + COLUMN_LAUNCHES_ICONHASH + " text");
+                    db.execSQL("ALTER TABLE " + TABLE_FOLDERS + " ADD COLUMN " + COLUMN_FOLDERS_ICONHASH + " text");
+                    db.execSQL(TABLE_ICONS_CREATE);
+                    //the files get written right away, if the upgrade gets rolled back they are deleted by the icon sweep after the next upgrade
+                    IconsAccess iconsAccess = new IconsAccess(db, new IconStore(context));
+                    moveIconsToIconStore(db, iconsAccess, TABLE_LAUNCHES, COLUMN_LAUNCHES_ICON, COLUMN_LAUNCHES_ICONHASH);
+                    moveIconsToIconStore(db, iconsAccess, TABLE_FOLDERS, COLUMN_FOLDERS_ICON, COLUMN_FOLDERS_ICONHASH);
+                }
+            },
+            new IDatabaseMigration() {
+                @Override
+                public int getTargetVersion() {
+                    return 5;
+                }
 
+                @Override
+                public void migrate(Context context, SQLiteDatabase db) {
+                    createGeneration(db);
+                }
+            },
+            new IDatabaseMigration() {
+                @Override
+                public int getTargetVersion() {
+                    return 6;
+                }
+
+                @Override
+                public void migrate(Context context, SQLiteDatabase db) {
+                    db.execSQL(TABLE_NODES_CREATE);
+                    moveEntriesToNodes(db);
+                    db.execSQL("DROP TABLE IF EXISTS " + TABLE_ENTRIES);
+                    db.execSQL("DROP TABLE IF EXISTS " + TABLE_LAUNCHES);
+                    db.execSQL("DROP TABLE IF EXISTS " + TABLE_FOLDERS);
+                    createIndexes(db);
+                    //entries that couldn't be moved don't hold their icons any more.
+                    //The released icons aren't deleted here, their files get removed by the icon sweep after the upgrade.
+                    new IconsAccess(db, new IconStore(context)).recountReferences();
+                }
+            }
+    };
+
+    private Context mContext;
+    private boolean mIconSweepRequired = false;
 
     public EntriesSQLiteOpenHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        mContext = context;
+    }
+
+    static File getDatabaseFile(Context context) {
+        return context.getDatabasePath(DATABASE_NAME);
     }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
-        db.execSQL(TABLE_ENTRIES_CREATE);
-        db.execSQL(TABLE_LAUNCHES_CREATE);
-        db.execSQL(TABLE_FOLDERS_CREATE);
+        createSchema(db);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
         Log.i(TAG, "Upgrading database. Old version = " + oldVersion + " ==> new version = " + newVersion);
+        //no files get deleted inside of the upgrade transaction
+        mIconSweepRequired = true;
         if(oldVersion < 1) {
-            db.execSQL("DROP TABLE IF EXISTS " + TABLE_ENTRIES);
-            db.execSQL("DROP TABLE IF EXISTS " + TABLE_LAUNCHES);
-            db.execSQL("DROP TABLE IF EXISTS " + TABLE_FOLDERS);
-            db.execSQL(TABLE_ENTRIES_CREATE);
-            db.execSQL(TABLE_LAUNCHES_CREATE);
-            db.execSQL(TABLE_FOLDERS_CREATE);
-        } else if(oldVersion == 1) {
-            db.execSQL("ALTER TABLE " + TABLE_FOLDERS + " ADD COLUMN " + COLUMN_FOLDERS_DEPTH + " integer");
-            updateDepth(db);
+            dropSchema(db);
+            createSchema(db);
+            return;
+        }
+        for(IDatabaseMigration migration : MIGRATIONS) {
+            int targetVersion = migration.getTargetVersion();
+            if(targetVersion > oldVersion && targetVersion <= newVersion) {
+                Log.i(TAG, "Migrating database to version " + targetVersion);
+                migration.migrate(mContext, db);
+            }
         }
     }
 
-    private void updateDepth(SQLiteDatabase db) {
-        String sql = "SELECT f1._id f1ID, f2._id f2ID, f3._id f3ID, f4._id f4ID, f5._id f5ID, f6._id f6ID, f7._id f7ID, f8._id f8ID, f9._id f9ID, f10._id f10ID\n" +
-                "FROM folders f1\n" +
-                "INNER JOIN entries e1 ON (e1.folderid == f1._id)\n" +
-                "LEFT OUTER JOIN folders f2 ON (f2._id == e1.parentfolderid)\n" +
-                "LEFT OUTER JOIN entries e2 ON (e2.folderid == f2._id)\n" +
-                "LEFT OUTER JOIN folders f3 ON (f3._id == e2.parentfolderid)\n" +
-                "LEFT OUTER JOIN entries e3 ON (e3.folderid == f3._id)\n" +
-                "LEFT OUTER JOIN folders f4 ON (f4._id == e3.parentfolderid)\n" +
-                "LEFT OUTER JOIN entries e4 ON (e4.folderid == f4._id)\n" +
-                "LEFT OUTER JOIN folders f5 ON (f5._id == e4.parentfolderid)\n" +
-                "LEFT OUTER JOIN entries e5 ON (e5.folderid == f5._id)\n" +
-                "LEFT OUTER JOIN folders f6 ON (f6._id == e5.parentfolderid)\n" +
-                "LEFT OUTER JOIN entries e6 ON (e6.folderid == f6._id)\n" +
-                "LEFT OUTER JOIN folders f7 ON (f7._id == e6.parentfolderid)\n" +
-                "LEFT OUTER JOIN entries e7 ON (e7.folderid == f7._id)\n" +
-                "LEFT OUTER JOIN folders f8 ON (f8._id == e7.parentfolderid)\n" +
-                "LEFT OUTER JOIN entries e8 ON (e8.folderid == f8._id)\n" +
-                "LEFT OUTER JOIN folders f9 ON (f9._id == e8.parentfolderid)\n" +
-                "LEFT OUTER JOIN entries e9 ON (e9.folderid == f9._id)\n" +
-                "LEFT OUTER JOIN folders f10 ON (f10._id == e9.parentfolderid)\n" +
-                "LEFT OUTER JOIN entries e10 ON (e10.folderid == f10._id)";
-
-        Cursor c = db.rawQuery(sql, null);
-
-        HashMap<Integer, Integer> folderIdDepthMap = new HashMap<>();
+    /**
+     * Returns true once after the database has been upgraded.
+     * The icon files that don't belong to an icon of the icons table have to be deleted then,
+     * which can only be done safely after the upgrade transaction has been committed.
+     */
+    public boolean consumeIconSweepRequired() {
+        boolean result = mIconSweepRequired;
+        mIconSweepRequired = false;
+        return result;
+    }
 
+    private static void createSchema(SQLiteDatabase db) {
+        db.execSQL(TABLE_NODES_CREATE);
+        db.execSQL(TABLE_ICONS_CREATE);
+        createIndexes(db);
+        createGeneration(db);
+    }
+
+    private static void dropSchema(SQLiteDatabase db) {
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_NODES);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_ENTRIES);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_LAUNCHES);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_FOLDERS);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_ICONS);
+    }
+
+    private static void createGeneration(SQLiteDatabase db) {
+        db.execSQL(TABLE_GENERATION_CREATE);
+        db.execSQL(TABLE_GENERATION_INIT);
+    }
+
+    private static void createIndexes(SQLiteDatabase db) {
+        db.execSQL(INDEX_NODES_PARENT_ORDER_CREATE);
+    }
+
+    private static void createLegacyIndexes(SQLiteDatabase db) {
+        db.execSQL(INDEX_ENTRIES_PARENTFOLDER_ORDER_CREATE);
+        db.execSQL(INDEX_ENTRIES_FOLDER_CREATE);
+        db.execSQL(INDEX_ENTRIES_LAUNCH_CREATE);
+    }
+
+    /**
+     * Recalculates the depth of all folders as the number of folders above them (a folder in the root has depth 0),
+     * the same numbering the original version 2 migration used.
+     * Walks the folder hierarchy with a recursive query, so there is no limit on the nesting level.
+     */
+    private static void updateDepth(SQLiteDatabase db) {
+        String sql = "WITH RECURSIVE folder_depth(folderid, depth) AS (\n" +
+                "  SELECT " + COLUMN_ENTRIES_FOLDERID + ", 0 FROM " + TABLE_ENTRIES + "\n" +
+                "  WHERE " + COLUMN_ENTRIES_FOLDERID + " > 0 AND " + COLUMN_ENTRIES_PARENTFOLDERID + " = -1\n" +
+                "  UNION ALL\n" +
+                "  SELECT e." + COLUMN_ENTRIES_FOLDERID + ", fd.depth + 1 FROM " + TABLE_ENTRIES + " e\n" +
+                "  INNER JOIN folder_depth fd ON (e." + COLUMN_ENTRIES_PARENTFOLDERID + " == fd.folderid)\n" +
+                "  WHERE e." + COLUMN_ENTRIES_FOLDERID + " > 0\n" +
+                ")\n" +
+                "UPDATE " + TABLE_FOLDERS + "\n" +
+                "SET " + COLUMN_FOLDERS_DEPTH + " = (SELECT fd.depth FROM folder_depth fd WHERE fd.folderid == " + TABLE_FOLDERS + "." + COLUMN_ID + ")\n" +
+                "WHERE " + COLUMN_ID + " IN (SELECT folderid FROM folder_depth)";
+
+        db.execSQL(sql);
+    }
+
+    /**
+     * Copies each entry together with its launch or folder into the nodes table.
+     * The entry ids become the node ids, the parent of a node is the entry of its parent folder.
+     * Entries without a launch or folder and entries whose parent folder has no entry are dropped,
+     * so no node ends up without a parent.
+     */
+    private static void moveEntriesToNodes(SQLiteDatabase db) {
+        String sql = "INSERT INTO " + TABLE_NODES + " (" + COLUMN_ID + ", " + COLUMN_NODES_PARENTID + ", " + COLUMN_NODES_KIND + ", "
+                + COLUMN_NODES_ORDERKEY + ", " + COLUMN_NODES_NAME + ", " + COLUMN_NODES_PAYLOAD + ", " + COLUMN_NODES_ICONREF + ", " + COLUMN_NODES_DEPTH + ")\n" +
+                "SELECT e." + COLUMN_ID + ",\n" +
+                "  CASE WHEN e." + COLUMN_ENTRIES_PARENTFOLDERID + " = -1 THEN -1\n" +
+                "    ELSE (SELECT p." + COLUMN_ID + " FROM " + TABLE_ENTRIES + " p WHERE p." + COLUMN_ENTRIES_FOLDERID + " = e." + COLUMN_ENTRIES_PARENTFOLDERID + ") END,\n" +
+                "  CASE WHEN l." + COLUMN_ID + " IS NOT NULL THEN " + NodesAccess.KIND_LAUNCH + " ELSE " + NodesAccess.KIND_FOLDER + " END,\n" +
+                "  e." + COLUMN_ENTRIES_ORDERINDEX + ",\n" +
+                "  coalesce(l." + COLUMN_LAUNCHES_NAME + ", f." + COLUMN_FOLDERS_NAME + "),\n" +
+                "  l." + COLUMN_LAUNCHES_LAUNCHINTENT + ",\n" +
+                "  coalesce(l." + COLUMN_LAUNCHES_ICONHASH + ", f." + COLUMN_FOLDERS_ICONHASH + "),\n" +
+                "  f." + COLUMN_FOLDERS_DEPTH + "\n" +
+                "FROM " + TABLE_ENTRIES + " e\n" +
+                "LEFT JOIN " + TABLE_LAUNCHES + " l ON (l." + COLUMN_ID + " = e." + COLUMN_ENTRIES_LAUNCHID + ")\n" +
+                "LEFT JOIN " + TABLE_FOLDERS + " f ON (f." + COLUMN_ID + " = e." + COLUMN_ENTRIES_FOLDERID + ")\n" +
+                "WHERE (l." + COLUMN_ID + " IS NOT NULL OR f." + COLUMN_ID + " IS NOT NULL)\n" +
+                "  AND (e." + COLUMN_ENTRIES_PARENTFOLDERID + " = -1\n" +
+                "    OR (SELECT p." + COLUMN_ID + " FROM " + TABLE_ENTRIES + " p WHERE p." + COLUMN_ENTRIES_FOLDERID + " = e." + COLUMN_ENTRIES_PARENTFOLDERID + ") IS NOT NULL)";
+
+        db.execSQL(sql);
+    }
+
+    /**
+     * Moves the icon blobs of the given table into the icon store and replaces them by the icon hash.
+     */
+    private static void moveIconsToIconStore(SQLiteDatabase db, IconsAccess iconsAccess, String table, String iconColumn, String iconHashColumn) {
+        List<Long> ids = new ArrayList<>();
+        Cursor c = db.query(table, new String[] { COLUMN_ID }, iconColumn + " IS NOT NULL", null, null, null, null);
         if(c.moveToFirst()) {
             do {
-                int depth = getDepthFromCursor(c);
-                folderIdDepthMap.put(c.getInt(0), depth);
+                ids.add(c.getLong(0));
             } while(c.moveToNext());
         }
         c.close();
 
-        for(Integer id : folderIdDepthMap.keySet()) {
-            String updateSql = "UPDATE " + TABLE_FOLDERS + " SET " + COLUMN_FOLDERS_DEPTH + " = " + Integer.toString(folderIdDepthMap.get(id)) + " WHERE " + COLUMN_ID + " = " + id;
-            db.execSQL(updateSql);
+        //one row at a time, so only one icon blob is in memory
+        for(long id : ids) {
+            c = db.query(table, new String[] { iconColumn }, COLUMN_ID + " = " + id, null, null, null, null);
+            byte[] iconData = null;
+            if(c.moveToFirst()) {
+                iconData = c.getBlob(0);
+            }
+            c.close();
+            if(iconData == null) {
+                continue;
+            }
+            ContentValues values = new ContentValues();
+            values.put(iconHashColumn, iconsAccess.addReference(iconData));
+            values.putNull(iconColumn);
+            db.update(table, values, COLUMN_ID + " = " + id, null);
         }
     }
 
-    private int getDepthFromCursor(Cursor c) {
-        for(int i=9; i>0; i--) {
-            if(!c.isNull(i))
-                return i;
-        }
-        return 0;
-    }
-
     public void clear(SQLiteDatabase db) {
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_ENTRIES);
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_LAUNCHES);
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_FOLDERS);
-        db.execSQL(TABLE_ENTRIES_CREATE);
-        db.execSQL(TABLE_LAUNCHES_CREATE);
-        db.execSQL(TABLE_FOLDERS_CREATE);
+        dropSchema(db);
+        createSchema(db);
     }
 }
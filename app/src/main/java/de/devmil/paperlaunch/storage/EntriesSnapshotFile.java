@@ -0,0 +1,234 @@
+/*
+ * Copyright 2015 Devmil Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.devmil.paperlaunch.storage;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import de.devmil.paperlaunch.utils.IntentCodec;
+
+/**
+ * Flat binary copy of the nodes table, split into entries, launches and folders.
+ * It gets written after the tables have been loaded and is used instead of the database on the next
+ * start, as long as the generation of the database (see GenerationAccess) is still the one of the snapshot.
+ * Icons are only referenced by their hash, they stay in the IconStore.
+ */
+public class EntriesSnapshotFile {
+    private static final String TAG = EntriesSnapshotFile.class.getSimpleName();
+
+    private static final String FILE_NAME = "entries.snapshot";
+    private static final String TEMP_FILE_EXTENSION = ".tmp";
+
+    private static final int MAGIC = 0x504C534E;
+    private static final int VERSION = 3;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private File mFile;
+    private IconStore mIconStore;
+
+    public EntriesSnapshotFile(Context context) {
+        mFile = new File(context.getFilesDir(), FILE_NAME);
+        mIconStore = new IconStore(context);
+    }
+
+    /**
+     * @param generation the current generation of the database
+     * @return the stored tables or null if there is no snapshot of the given generation
+     */
+    public EntriesTreeBuilder read(long generation) {
+        if(!mFile.exists()) {
+            return null;
+        }
+        try {
+            RandomAccessFile file = new RandomAccessFile(mFile, "r");
+            try {
+                FileChannel channel = file.getChannel();
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                return readContent(buffer, generation);
+            } finally {
+                file.close();
+            }
+        } catch (IOException | RuntimeException e) {
+            //a broken snapshot only costs the database read
+            Log.w(TAG, "Unable to read entries snapshot", e);
+            return null;
+        }
+    }
+
+    private EntriesTreeBuilder readContent(ByteBuffer buffer, long generation) {
+        if(buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            return null;
+        }
+        if(buffer.getLong() != generation) {
+            return null;
+        }
+
+        int entryCount = buffer.getInt();
+        List<EntryDTO> entries = new ArrayList<>(entryCount);
+        for(int i=0; i<entryCount; i++) {
+            entries.add(new EntryDTO(
+                    buffer.getLong(),
+                    buffer.getLong(),
+                    buffer.getLong(),
+                    buffer.getLong(),
+                    buffer.getLong()));
+        }
+
+        //the intents and icons get decoded in parallel after everything has been read
+        EntriesDecoder decoder = new EntriesDecoder();
+        int launchCount = buffer.getInt();
+        List<LaunchDTO> launches = new ArrayList<>(launchCount);
+        for(int i=0; i<launchCount; i++) {
+            long id = buffer.getLong();
+            String name = readString(buffer);
+            final byte[] launchIntent = readBytes(buffer);
+            String iconHash = readString(buffer);
+            final LaunchDTO launch = new LaunchDTO(id, name, null, iconHash, mIconStore);
+            decoder.add(new Runnable() {
+                @Override
+                public void run() {
+                    launch.setLaunchIntent(IntentCodec.decode(launchIntent));
+                }
+            });
+            decoder.addIcon(launch);
+            launches.add(launch);
+        }
+
+        int folderCount = buffer.getInt();
+        List<FolderDTO> folders = new ArrayList<>(folderCount);
+        for(int i=0; i<folderCount; i++) {
+            long id = buffer.getLong();
+            String name = readString(buffer);
+            String iconHash = readString(buffer);
+            int depth = buffer.getInt();
+            FolderDTO folder = new FolderDTO(id, name, iconHash, mIconStore, depth);
+            decoder.addIcon(folder);
+            folders.add(folder);
+        }
+        decoder.decodeAll();
+
+        EntriesTreeBuilder result = new EntriesTreeBuilder(entries, launches, folders);
+        result.setGeneration(generation);
+        return result;
+    }
+
+    /**
+     * Replaces the snapshot by the given tables.
+     * Must not be called concurrently, the snapshot gets written to a temp file first.
+     *
+     * @param tree the tables including their generation
+     */
+    public void write(EntriesTreeBuilder tree) {
+        File temp = new File(mFile.getPath() + TEMP_FILE_EXTENSION);
+        try {
+            FileOutputStream fileOut = new FileOutputStream(temp);
+            try {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+                writeContent(out, tree);
+                out.flush();
+                fileOut.getFD().sync();
+            } finally {
+                fileOut.close();
+            }
+            if(!temp.renameTo(mFile)) {
+                Log.e(TAG, "Unable to move entries snapshot to " + mFile);
+                temp.delete();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing entries snapshot", e);
+            temp.delete();
+        }
+    }
+
+    public void delete() {
+        mFile.delete();
+    }
+
+    private static void writeContent(DataOutputStream out, EntriesTreeBuilder tree) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(tree.getGeneration());
+
+        List<EntryDTO> entries = tree.getEntries();
+        out.writeInt(entries.size());
+        for(EntryDTO entry : entries) {
+            out.writeLong(entry.getId());
+            out.writeLong(entry.getOrderIndex());
+            out.writeLong(entry.getLaunchId());
+            out.writeLong(entry.getFolderId());
+            out.writeLong(entry.getParentFolderId());
+        }
+
+        List<LaunchDTO> launches = tree.getLaunches();
+        out.writeInt(launches.size());
+        for(LaunchDTO launch : launches) {
+            out.writeLong(launch.getId());
+            writeString(out, launch.getName());
+            writeBytes(out, IntentCodec.encode(launch.getLaunchIntent()));
+            writeString(out, launch.getIconHash());
+        }
+
+        List<FolderDTO> folders = tree.getFolders();
+        out.writeInt(folders.size());
+        for(FolderDTO folder : folders) {
+            out.writeLong(folder.getId());
+            writeString(out, folder.getName());
+            writeString(out, folder.getIconHash());
+            out.writeInt(folder.getDepth());
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        writeBytes(out, value == null ? null : value.getBytes(UTF8));
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+        if(value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(value.length);
+        out.write(value);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = readBytes(buffer);
+        return bytes == null ? null : new String(bytes, UTF8);
+    }
+
+    private static byte[] readBytes(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if(length < 0) {
+            return null;
+        }
+        byte[] result = new byte[length];
+        buffer.get(result);
+        return result;
+    }
+}
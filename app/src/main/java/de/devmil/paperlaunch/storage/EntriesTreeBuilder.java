@@ -0,0 +1,272 @@
+/*
+ * Copyright 2015 Devmil Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.devmil.paperlaunch.storage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import de.devmil.paperlaunch.model.Folder;
+import de.devmil.paperlaunch.model.IEntry;
+import de.devmil.paperlaunch.model.ISubEntriesLoader;
+import de.devmil.paperlaunch.model.Launch;
+
+/**
+ * Builds the Folder / Launch tree in memory from the contents of the nodes table.
+ * This way loading the tree costs a single query instead of a few queries per entry.
+ * Modifications can be applied afterwards (see apply), so the data doesn't have to be read again.
+ * The built trees get copies of the data, so modifying them doesn't affect the builder or other trees.
+ * The instance isn't thread safe.
+ */
+public class EntriesTreeBuilder {
+    private static final Comparator<EntryDTO> ORDER_COMPARATOR = new Comparator<EntryDTO>() {
+        @Override
+        public int compare(EntryDTO lhs, EntryDTO rhs) {
+            long lhsOrderIndex = lhs.getOrderIndex();
+            long rhsOrderIndex = rhs.getOrderIndex();
+            return lhsOrderIndex < rhsOrderIndex ? -1 : (lhsOrderIndex == rhsOrderIndex ? 0 : 1);
+        }
+    };
+
+    private Map<Long, EntryDTO> mEntries = new HashMap<>();
+    private Map<Long, List<EntryDTO>> mEntriesByParent = new HashMap<>();
+    private Map<Long, EntryDTO> mEntriesByFolder = new HashMap<>();
+    private Map<Long, LaunchDTO> mLaunches = new HashMap<>();
+    private Map<Long, FolderDTO> mFolders = new HashMap<>();
+    private long mGeneration = -1;
+
+    /**
+     * @param entries all entries, ordered by parent folder and order index
+     * @param launches all launches
+     * @param folders all folders
+     */
+    public EntriesTreeBuilder(List<EntryDTO> entries, List<LaunchDTO> launches, List<FolderDTO> folders) {
+        for(EntryDTO entry : entries) {
+            putEntry(entry);
+        }
+        for(LaunchDTO launch : launches) {
+            mLaunches.put(launch.getId(), launch);
+        }
+        for(FolderDTO folder : folders) {
+            mFolders.put(folder.getId(), folder);
+        }
+    }
+
+    public List<IEntry> buildContent(long parentFolderId) {
+        return buildContent(parentFolderId, null);
+    }
+
+    /**
+     * Builds only the entries of the given folder, sub folders load their content on first access.
+     *
+     * @param subEntriesLoader the loader for the content of sub folders, null builds the whole tree
+     */
+    public List<IEntry> buildContent(long parentFolderId, ISubEntriesLoader subEntriesLoader) {
+        List<IEntry> result = new ArrayList<>();
+        List<EntryDTO> entryDTOs = mEntriesByParent.get(parentFolderId);
+        if(entryDTOs == null) {
+            return result;
+        }
+        for(EntryDTO entryDto : entryDTOs) {
+            result.add(buildEntry(entryDto, subEntriesLoader));
+        }
+        return result;
+    }
+
+    public Folder buildFolder(long folderId) {
+        FolderDTO folder = mFolders.get(folderId);
+        if(folder == null) {
+            return null;
+        }
+        return new Folder(new FolderDTO(folder), new EntryDTO(mEntriesByFolder.get(folderId)), buildContent(folderId));
+    }
+
+    public Launch buildLaunch(EntryDTO entryDto) {
+        return new Launch(new LaunchDTO(mLaunches.get(entryDto.getLaunchId())), new EntryDTO(entryDto));
+    }
+
+    /**
+     * @return the entry (including everything below it) or null if it doesn't exist
+     */
+    public IEntry buildEntry(long entryId) {
+        return buildEntry(entryId, null);
+    }
+
+    /**
+     * @param subEntriesLoader see buildContent
+     * @return the entry or null if it doesn't exist
+     */
+    public IEntry buildEntry(long entryId, ISubEntriesLoader subEntriesLoader) {
+        EntryDTO entryDto = mEntries.get(entryId);
+        if(entryDto == null) {
+            return null;
+        }
+        return buildEntry(entryDto, subEntriesLoader);
+    }
+
+    /**
+     * @return the ids of the entries in the given folder, in their order
+     */
+    public List<Long> getChildEntryIds(long parentFolderId) {
+        List<Long> result = new ArrayList<>();
+        List<EntryDTO> entryDTOs = mEntriesByParent.get(parentFolderId);
+        if(entryDTOs != null) {
+            for(EntryDTO entryDto : entryDTOs) {
+                result.add(entryDto.getId());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the generation of the data this tree represents or -1 if unknown
+     */
+    public long getGeneration() {
+        return mGeneration;
+    }
+
+    public void setGeneration(long generation) {
+        mGeneration = generation;
+    }
+
+    /**
+     * @return all entries, ordered by parent folder and order index
+     */
+    public List<EntryDTO> getEntries() {
+        List<EntryDTO> result = new ArrayList<>(mEntries.size());
+        for(List<EntryDTO> entryDTOs : mEntriesByParent.values()) {
+            result.addAll(entryDTOs);
+        }
+        return result;
+    }
+
+    LaunchDTO getLaunch(long launchId) {
+        return mLaunches.get(launchId);
+    }
+
+    FolderDTO getFolder(long folderId) {
+        return mFolders.get(folderId);
+    }
+
+    public List<LaunchDTO> getLaunches() {
+        return new ArrayList<>(mLaunches.values());
+    }
+
+    public List<FolderDTO> getFolders() {
+        return new ArrayList<>(mFolders.values());
+    }
+
+    /**
+     * applies the modifications that have been written to the database
+     */
+    public void apply(EntriesChangeSet changes) {
+        Set<Long> unorderedParents = new HashSet<>();
+        for(EntryChange change : changes.getChanges()) {
+            switch(change.getType()) {
+                case INSERTED:
+                    putEntry(new EntryDTO(change.getEntry()));
+                    putData(change);
+                    unorderedParents.add(change.getParentFolderId());
+                    break;
+                case UPDATED:
+                    putData(change);
+                    break;
+                case MOVED:
+                    EntryDTO entry = mEntries.get(change.getEntryId());
+                    if(entry != null) {
+                        entry.setOrderIndex(change.getOrderIndex());
+                        unorderedParents.add(entry.getParentFolderId());
+                    }
+                    break;
+                case REMOVED:
+                    removeEntry(change.getEntryId());
+                    break;
+            }
+        }
+        for(long parentFolderId : unorderedParents) {
+            List<EntryDTO> siblings = mEntriesByParent.get(parentFolderId);
+            if(siblings != null) {
+                Collections.sort(siblings, ORDER_COMPARATOR);
+            }
+        }
+        mGeneration = changes.getGeneration();
+    }
+
+    private void putEntry(EntryDTO entry) {
+        mEntries.put(entry.getId(), entry);
+        List<EntryDTO> siblings = mEntriesByParent.get(entry.getParentFolderId());
+        if(siblings == null) {
+            siblings = new ArrayList<>();
+            mEntriesByParent.put(entry.getParentFolderId(), siblings);
+        }
+        siblings.add(entry);
+        if(entry.getFolderId() > 0) {
+            mEntriesByFolder.put(entry.getFolderId(), entry);
+        }
+    }
+
+    private void putData(EntryChange change) {
+        //the change set gets passed on to the observers as well
+        if(change.getLaunch() != null) {
+            mLaunches.put(change.getLaunch().getId(), new LaunchDTO(change.getLaunch()));
+        }
+        if(change.getFolder() != null) {
+            mFolders.put(change.getFolder().getId(), new FolderDTO(change.getFolder()));
+        }
+    }
+
+    private void removeEntry(long entryId) {
+        EntryDTO entry = mEntries.remove(entryId);
+        if(entry == null) {
+            return;
+        }
+        List<EntryDTO> siblings = mEntriesByParent.get(entry.getParentFolderId());
+        if(siblings != null) {
+            siblings.remove(entry);
+        }
+        if(entry.getLaunchId() > 0) {
+            mLaunches.remove(entry.getLaunchId());
+        }
+        if(entry.getFolderId() > 0) {
+            mFolders.remove(entry.getFolderId());
+            mEntriesByFolder.remove(entry.getFolderId());
+            List<EntryDTO> children = mEntriesByParent.remove(entry.getFolderId());
+            if(children != null) {
+                for(EntryDTO child : children) {
+                    removeEntry(child.getId());
+                }
+            }
+        }
+    }
+
+    private IEntry buildEntry(EntryDTO entryDto, ISubEntriesLoader subEntriesLoader) {
+        if(entryDto.getFolderId() > 0) {
+            if(subEntriesLoader != null) {
+                FolderDTO folder = mFolders.get(entryDto.getFolderId());
+                return folder == null ? null : new Folder(new FolderDTO(folder), new EntryDTO(entryDto), subEntriesLoader);
+            }
+            return buildFolder(entryDto.getFolderId());
+        } else if(entryDto.getLaunchId() > 0) {
+            return buildLaunch(entryDto);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2015 Devmil Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.devmil.paperlaunch.storage;
+
+/**
+ * Describes one modification of an entry, see EntriesChangeSet.
+ * Keeps copies of the given data, so it isn't affected by later modifications of it.
+ */
+public class EntryChange {
+
+    public enum Type {
+        INSERTED,
+        REMOVED,
+        MOVED,
+        UPDATED
+    }
+
+    private Type mType;
+    private long mEntryId;
+    private long mParentFolderId;
+    private long mOrderIndex;
+    private EntryDTO mEntry;
+    private LaunchDTO mLaunch;
+    private FolderDTO mFolder;
+
+    private EntryChange(Type type, long entryId, long parentFolderId) {
+        mType = type;
+        mEntryId = entryId;
+        mParentFolderId = parentFolderId;
+    }
+
+    public static EntryChange inserted(EntryDTO entry, LaunchDTO launch, FolderDTO folder) {
+        EntryChange result = new EntryChange(Type.INSERTED, entry.getId(), entry.getParentFolderId());
+        result.mOrderIndex = entry.getOrderIndex();
+        result.mEntry = new EntryDTO(entry);
+        result.mLaunch = launch == null ? null : new LaunchDTO(launch);
+        result.mFolder = folder == null ? null : new FolderDTO(folder);
+        return result;
+    }
+
+    /**
+     * the entry and everything below it has been removed
+     */
+    public static EntryChange removed(long entryId, long parentFolderId) {
+        return new EntryChange(Type.REMOVED, entryId, parentFolderId);
+    }
+
+    public static EntryChange moved(long entryId, long parentFolderId, long orderIndex) {
+        EntryChange result = new EntryChange(Type.MOVED, entryId, parentFolderId);
+        result.mOrderIndex = orderIndex;
+        return result;
+    }
+
+    /**
+     * the data of a launch has been modified, the entry and parent ids are not known
+     */
+    public static EntryChange updated(LaunchDTO launch) {
+        EntryChange result = new EntryChange(Type.UPDATED, -1, -1);
+        result.mLaunch = new LaunchDTO(launch);
+        return result;
+    }
+
+    /**
+     * the data of a folder has been modified, the entry and parent ids are not known
+     */
+    public static EntryChange updated(FolderDTO folder) {
+        EntryChange result = new EntryChange(Type.UPDATED, -1, -1);
+        result.mFolder = new FolderDTO(folder);
+        return result;
+    }
+
+    public Type getType() {
+        return mType;
+    }
+
+    public long getEntryId() {
+        return mEntryId;
+    }
+
+    public long getParentFolderId() {
+        return mParentFolderId;
+    }
+
+    public long getOrderIndex() {
+        return mOrderIndex;
+    }
+
+    /**
+     * @return the inserted entry (only for INSERTED)
+     */
+    public EntryDTO getEntry() {
+        return mEntry;
+    }
+
+    /**
+     * @return the inserted or updated launch, null if the change doesn't affect a launch
+     */
+    public LaunchDTO getLaunch() {
+        return mLaunch;
+    }
+
+    /**
+     * @return the inserted or updated folder, null if the change doesn't affect a folder
+     */
+    public FolderDTO getFolder() {
+        return mFolder;
+    }
+}
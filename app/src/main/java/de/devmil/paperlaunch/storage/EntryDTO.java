@@ -33,6 +33,10 @@ public class EntryDTO {
         this.mParentFolderId = parentFolderId;
     }
 
+    public EntryDTO(EntryDTO other) {
+        this(other.mId, other.mOrderIndex, other.mLaunchId, other.mFolderId, other.mParentFolderId);
+    }
+
     public long getId() {
         return mId;
     }
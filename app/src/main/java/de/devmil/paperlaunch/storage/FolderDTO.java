@@ -22,14 +22,28 @@ public class FolderDTO {
     private long mId;
     private int mDepth;
     private String mName;
+    private String mIconHash;
+    private IconStore mIconStore;
     private Drawable mIcon;
+    private boolean mIconChanged;
 
-    public FolderDTO(long id, String name, Drawable icon, int depth)
+    public FolderDTO(long id, String name, String iconHash, IconStore iconStore, int depth)
     {
         mId = id;
         mDepth = depth;
         mName = name;
-        mIcon = icon;
+        mIconHash = iconHash;
+        mIconStore = iconStore;
+    }
+
+    /**
+     * copies the data, including an icon that hasn't been persisted yet
+     */
+    public FolderDTO(FolderDTO other)
+    {
+        this(other.mId, other.mName, other.mIconHash, other.mIconStore, other.mDepth);
+        mIcon = other.mIcon;
+        mIconChanged = other.mIconChanged;
     }
 
     public long getId() {
@@ -56,11 +70,34 @@ public class FolderDTO {
         this.mName = name;
     }
 
+    /**
+     * an icon that has been set is kept, stored icons are loaded through the IconCache on each access
+     */
     public Drawable getIcon() {
-        return mIcon;
+        if(mIcon != null || mIconChanged || mIconHash == null || mIconStore == null) {
+            return mIcon;
+        }
+        return mIconStore.getIcon(mIconHash);
     }
 
     public void setIcon(Drawable icon) {
         this.mIcon = icon;
+        mIconChanged = true;
+    }
+
+    public String getIconHash() {
+        return mIconHash;
+    }
+
+    /**
+     * gets called by the storage layer after the icon has been persisted
+     */
+    void setIconHash(String iconHash) {
+        mIconHash = iconHash;
+        mIconChanged = false;
+    }
+
+    public boolean isIconChanged() {
+        return mIconChanged;
     }
 }
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2015 Devmil Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.devmil.paperlaunch.storage;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Maintains the generation of the stored data.
+ * The generation gets incremented by every modification, so comparing it tells if data has changed.
+ */
+public class GenerationAccess {
+
+    private ProfiledDatabase mDatabase;
+
+    public GenerationAccess(SQLiteDatabase database) {
+        mDatabase = new ProfiledDatabase(database);
+    }
+
+    public long queryGeneration() {
+        return mDatabase.longForQuery(
+                "SELECT " + EntriesSQLiteOpenHelper.COLUMN_GENERATION_VALUE
+                        + " FROM " + EntriesSQLiteOpenHelper.TABLE_GENERATION,
+                null);
+    }
+
+    /**
+     * @return the new generation
+     */
+    public long increment() {
+        mDatabase.execSQL(
+                "UPDATE " + EntriesSQLiteOpenHelper.TABLE_GENERATION
+                        + " SET " + EntriesSQLiteOpenHelper.COLUMN_GENERATION_VALUE + " = " + EntriesSQLiteOpenHelper.COLUMN_GENERATION_VALUE + " + 1");
+        return queryGeneration();
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2015 Devmil Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.devmil.paperlaunch.storage;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * One step of the database schema upgrade path.
+ */
+public interface IDatabaseMigration {
+    /**
+     * @return the database version this step leads to. The step is applied to databases of version getTargetVersion() - 1
+     */
+    int getTargetVersion();
+
+    /**
+     * gets called inside the upgrade transaction.
+     * Icon files must not be deleted here, see EntriesSQLiteOpenHelper.consumeIconSweepRequired
+     *
+     * @param context the context the database belongs to
+     * @param db the database to migrate
+     */
+    void migrate(Context context, SQLiteDatabase db);
+}
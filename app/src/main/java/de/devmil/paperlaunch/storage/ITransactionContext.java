@@ -15,8 +15,14 @@
  */
 package de.devmil.paperlaunch.storage;
 
+import android.content.Intent;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import de.devmil.paperlaunch.model.Folder;
 import de.devmil.paperlaunch.model.IEntry;
@@ -29,15 +35,25 @@ public interface ITransactionContext {
     void clear();
     Launch createLaunch(long parentFolderId);
     Launch createLaunch(long parentFolderId, int orderIndex);
+    List<Launch> createLaunches(long parentFolderId, List<Intent> launchIntents);
     Folder createFolder(long parentFolderId, int orderIndex, int parentFolderDepth);
     Launch loadLaunch(long launchId);
     List<IEntry> loadRootContent();
     Folder loadFolder(long folderId);
-    void deleteEntry(long entryId);
+    EntriesTreeBuilder loadTree();
+    EntriesTreeBuilder loadChildren(long parentFolderId);
+    long getGeneration();
+    int exportEntries(OutputStream out) throws IOException;
+    int importEntries(InputStream in, boolean replace) throws IOException;
+    Map<String, String> normalizeIcons();
+    MaintenanceReport runMaintenance();
+    MaintenanceReport runMaintenance(Map<String, String> normalizedIcons);
+    int deleteEntry(long entryId);
     void updateLaunchData(Launch launch);
     void updateFolderData(Folder folder);
     void updateFolderData(FolderDTO folderDto);
+    void updateFolderIcon(long folderId, byte[] iconData);
     void updateOrders(Folder folder);
-    void updateOrders(List<IEntry> entries);
+    void updateOrders(long parentFolderId, List<IEntry> entries);
     void updateOrder(IEntry entry, int orderIndex);
 }
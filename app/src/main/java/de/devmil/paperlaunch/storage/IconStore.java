@@ -0,0 +1,331 @@
+/*
+ * Copyright 2015 Devmil Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.devmil.paperlaunch.storage;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.drawable.Drawable;
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Set;
+
+import de.devmil.paperlaunch.utils.AccentColor;
+import de.devmil.paperlaunch.utils.BitmapUtils;
+import de.devmil.paperlaunch.utils.IconCache;
+import de.devmil.paperlaunch.utils.IconDrawable;
+
+/**
+ * Content addressed file store for icons.
+ * Each icon is stored once as a PNG file named by the hash of its bytes, so identical icons
+ * share one file. Reference counting is done by IconsAccess.
+ * Icons get stored with the size they are displayed at (see getIconSize) instead of the size
+ * of their source.
+ * The accent color of an icon gets stored next to it once it has been computed, so it is computed only once.
+ */
+public class IconStore {
+    private static final String TAG = IconStore.class.getSimpleName();
+
+    private static final String ICONS_DIRECTORY = "icons";
+    private static final String ICON_FILE_EXTENSION = ".png";
+    private static final String ACCENT_COLOR_FILE_EXTENSION = ".accent";
+    private static final String TEMP_FILE_EXTENSION = ".tmp";
+    //upper bound for the icon size (48dp on xxxhdpi), independent of what the device reports
+    private static final int MAX_ICON_SIZE = 192;
+
+    private File mDirectory;
+    private Context mContext;
+    private Resources mResources;
+    private int mIconSize;
+
+    public IconStore(Context context) {
+        mDirectory = new File(context.getFilesDir(), ICONS_DIRECTORY);
+        mContext = context.getApplicationContext();
+        mResources = context.getResources();
+        mIconSize = Math.min(MAX_ICON_SIZE, IconCache.getTargetSize(context));
+    }
+
+    /**
+     * @return the key of the given icon in the IconCache
+     */
+    public static String getIconKey(String hash) {
+        return "icon:" + hash;
+    }
+
+    public static String computeHash(byte[] data) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(data);
+            StringBuilder result = new StringBuilder(hash.length * 2);
+            for(byte b : hash) {
+                result.append(Character.forDigit((b >> 4) & 0xF, 16));
+                result.append(Character.forDigit(b & 0xF, 16));
+            }
+            return result.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available", e);
+        }
+    }
+
+    /**
+     * @return the size (in px) of the larger side of the stored icons
+     */
+    public int getIconSize() {
+        return mIconSize;
+    }
+
+    /**
+     * @return the PNG data of the icon, scaled down to getIconSize, or null if there is no icon
+     */
+    public byte[] encode(Drawable icon) {
+        return BitmapUtils.getBytes(icon, mIconSize);
+    }
+
+    public boolean contains(String hash) {
+        return getFile(hash).exists();
+    }
+
+    /**
+     * writes the icon data if there is no file for the given hash yet
+     */
+    public void store(String hash, byte[] data) {
+        File target = getFile(hash);
+        if(target.exists()) {
+            return;
+        }
+        if(!mDirectory.exists() && !mDirectory.mkdirs()) {
+            Log.e(TAG, "Unable to create icon directory " + mDirectory);
+            return;
+        }
+        //write to a temp file first so that a crash never leaves a partially written icon behind
+        File temp = new File(mDirectory, hash + TEMP_FILE_EXTENSION);
+        try {
+            FileOutputStream out = new FileOutputStream(temp);
+            try {
+                out.write(data);
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+            if(!temp.renameTo(target)) {
+                Log.e(TAG, "Unable to move icon file to " + target);
+                temp.delete();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing icon " + hash, e);
+            temp.delete();
+        }
+    }
+
+    public byte[] read(String hash) {
+        File file = getFile(hash);
+        if(!file.exists()) {
+            return null;
+        }
+        try {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                byte[] result = new byte[(int)file.length()];
+                int offset = 0;
+                while(offset < result.length) {
+                    int read = in.read(result, offset, result.length - offset);
+                    if(read < 0) {
+                        break;
+                    }
+                    offset += read;
+                }
+                return result;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading icon " + hash, e);
+            return null;
+        }
+    }
+
+    /**
+     * loads the icon through the IconCache, icons never change so the cached ones never get stale
+     */
+    public Drawable getIcon(final String hash) {
+        if(hash == null) {
+            return null;
+        }
+        return IconCache.getInstance().getIcon(mContext, getIconKey(hash), new IconCache.IIconLoader() {
+            @Override
+            public Drawable loadIcon() {
+                return IconStore.this.loadIcon(hash);
+            }
+        });
+    }
+
+    public Drawable loadIcon(String hash) {
+        if(hash == null) {
+            return null;
+        }
+        Bitmap bmp = BitmapUtils.decodeFile(getFile(hash).getAbsolutePath(), mIconSize);
+        if(bmp == null) {
+            Log.w(TAG, "Missing icon " + hash);
+            return null;
+        }
+        //the decoder has set the density used for scaling, the icon has to keep its pixel size
+        bmp.setDensity(mResources.getDisplayMetrics().densityDpi);
+        return new IconDrawable(mResources, bmp, loadAccentColor(hash, bmp));
+    }
+
+    /**
+     * @return the stored accent color or one that gets computed in the background and stored then
+     */
+    private AccentColor loadAccentColor(final String hash, Bitmap bmp) {
+        File file = getAccentColorFile(hash);
+        if(file.length() == 4) {
+            try {
+                DataInputStream in = new DataInputStream(new FileInputStream(file));
+                try {
+                    return new AccentColor(in.readInt());
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Error reading the accent color of icon " + hash, e);
+            }
+        }
+        final AccentColor result = new AccentColor();
+        IconCache.getInstance().computeAccentColorAsync(bmp, result, new Runnable() {
+            @Override
+            public void run() {
+                storeAccentColor(hash, result.getColor(0));
+            }
+        });
+        return result;
+    }
+
+    private void storeAccentColor(String hash, int accentColor) {
+        //the icon may have been deleted in the meantime
+        if(!contains(hash)) {
+            return;
+        }
+        File target = getAccentColorFile(hash);
+        File temp = new File(mDirectory, hash + ACCENT_COLOR_FILE_EXTENSION + TEMP_FILE_EXTENSION);
+        try {
+            DataOutputStream out = new DataOutputStream(new FileOutputStream(temp));
+            try {
+                out.writeInt(accentColor);
+            } finally {
+                out.close();
+            }
+            if(!temp.renameTo(target)) {
+                Log.w(TAG, "Unable to move accent color file to " + target);
+                temp.delete();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Error writing the accent color of icon " + hash, e);
+            temp.delete();
+        }
+    }
+
+    /**
+     * Stores a scaled down copy of the icon if it is larger than getIconSize, e.g. because it
+     * has been stored by an older version or imported from an archive.
+     * The original file is left alone, it gets deleted when it isn't referenced any more.
+     *
+     * @return the hash of the scaled down icon or null if the icon doesn't need to be scaled
+     */
+    public String normalize(String hash) {
+        String path = getFile(hash).getAbsolutePath();
+        if(BitmapUtils.getLargerSide(path) <= mIconSize) {
+            return null;
+        }
+        Bitmap bmp = BitmapUtils.decodeFile(path, mIconSize);
+        if(bmp == null) {
+            return null;
+        }
+        byte[] data = BitmapUtils.getBytes(bmp);
+        bmp.recycle();
+        String result = computeHash(data);
+        store(result, data);
+        return result;
+    }
+
+    public void delete(String hash) {
+        File file = getFile(hash);
+        if(file.exists() && !file.delete()) {
+            Log.w(TAG, "Unable to delete icon " + hash);
+        }
+        getAccentColorFile(hash).delete();
+    }
+
+    /**
+     * Deletes all files that don't belong to one of the given icons (the icon and its accent color), including left over temp files.
+     *
+     * @return the number of deleted files
+     */
+    public int retainAll(Set<String> hashes) {
+        File[] files = mDirectory.listFiles();
+        if(files == null) {
+            return 0;
+        }
+        int result = 0;
+        for(File file : files) {
+            String name = file.getName();
+            if(name.endsWith(ICON_FILE_EXTENSION)
+                    && hashes.contains(name.substring(0, name.length() - ICON_FILE_EXTENSION.length()))) {
+                continue;
+            }
+            if(name.endsWith(ACCENT_COLOR_FILE_EXTENSION)
+                    && hashes.contains(name.substring(0, name.length() - ACCENT_COLOR_FILE_EXTENSION.length()))) {
+                continue;
+            }
+            if(file.delete()) {
+                result++;
+            } else {
+                Log.w(TAG, "Unable to delete " + file);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of bytes used by the stored icons
+     */
+    public long getSize() {
+        File[] files = mDirectory.listFiles();
+        if(files == null) {
+            return 0;
+        }
+        long result = 0;
+        for(File file : files) {
+            result += file.length();
+        }
+        return result;
+    }
+
+    private File getFile(String hash) {
+        return new File(mDirectory, hash + ICON_FILE_EXTENSION);
+    }
+
+    private File getAccentColorFile(String hash) {
+        return new File(mDirectory, hash + ACCENT_COLOR_FILE_EXTENSION);
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright 2015 Devmil Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.devmil.paperlaunch.storage;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.graphics.drawable.Drawable;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Maintains the reference counts of the icons in the IconStore.
+ * Nodes only store the hash of their icon.
+ * The files of icons that aren't referenced any more are only deleted once that has been committed,
+ * see deleteReleasedIcons.
+ */
+public class IconsAccess {
+
+    private ProfiledDatabase mDatabase;
+    private IconStore mIconStore;
+    //icons whose last reference has been removed, only accessed by the writing thread
+    private Set<String> mReleasedHashes = new HashSet<>();
+    private boolean mRolledBack = false;
+
+    public IconsAccess(SQLiteDatabase database, IconStore iconStore) {
+        mDatabase = new ProfiledDatabase(database);
+        mIconStore = iconStore;
+    }
+
+    public IconStore getIconStore() {
+        return mIconStore;
+    }
+
+    /**
+     * stores the icon (if not already present) and adds a reference to it
+     *
+     * @return the hash that identifies the icon
+     */
+    public String addReference(byte[] iconData) {
+        String hash = IconStore.computeHash(iconData);
+        mIconStore.store(hash, iconData);
+        addReference(hash);
+        return hash;
+    }
+
+    /**
+     * adds a reference to an icon that is already in the icon store
+     */
+    public void addReference(String hash) {
+        mDatabase.execSQL(
+                "INSERT OR IGNORE INTO " + EntriesSQLiteOpenHelper.TABLE_ICONS
+                        + " (" + EntriesSQLiteOpenHelper.COLUMN_ICONS_HASH + ", " + EntriesSQLiteOpenHelper.COLUMN_ICONS_REFCOUNT + ")"
+                        + " VALUES (?, 0)",
+                new Object[] { hash });
+        mDatabase.execSQL(
+                "UPDATE " + EntriesSQLiteOpenHelper.TABLE_ICONS
+                        + " SET " + EntriesSQLiteOpenHelper.COLUMN_ICONS_REFCOUNT + " = " + EntriesSQLiteOpenHelper.COLUMN_ICONS_REFCOUNT + " + 1"
+                        + " WHERE " + EntriesSQLiteOpenHelper.COLUMN_ICONS_HASH + " = ?",
+                new Object[] { hash });
+    }
+
+    /**
+     * replaces the reference to oldHash by a reference to the given icon.
+     * Nothing gets written when the icon bytes didn't change.
+     *
+     * @return the hash of the new icon or null if there is no icon
+     */
+    public String replaceReference(String oldHash, Drawable newIcon) {
+        return replaceReference(oldHash, mIconStore.encode(newIcon));
+    }
+
+    /**
+     * same as replaceReference(String, Drawable) for an icon that has already been encoded, see IconStore.encode
+     */
+    public String replaceReference(String oldHash, byte[] iconData) {
+        String newHash = iconData == null ? null : IconStore.computeHash(iconData);
+        if(newHash == null ? oldHash == null : newHash.equals(oldHash)) {
+            return oldHash;
+        }
+        if(iconData != null) {
+            addReference(iconData);
+        }
+        releaseReference(oldHash);
+        return newHash;
+    }
+
+    /**
+     * removes one reference for each hash returned by hashesSelect (a SELECT that returns one column).
+     * Icons that aren't referenced any more get released.
+     */
+    public void releaseReferences(String hashesSelect) {
+        mDatabase.execSQL(
+                "WITH released(hash) AS (" + hashesSelect + ")"
+                        + " UPDATE " + EntriesSQLiteOpenHelper.TABLE_ICONS
+                        + " SET " + EntriesSQLiteOpenHelper.COLUMN_ICONS_REFCOUNT + " = " + EntriesSQLiteOpenHelper.COLUMN_ICONS_REFCOUNT
+                        + " - (SELECT count(*) FROM released r WHERE r.hash = " + EntriesSQLiteOpenHelper.TABLE_ICONS + "." + EntriesSQLiteOpenHelper.COLUMN_ICONS_HASH + ")"
+                        + " WHERE " + EntriesSQLiteOpenHelper.COLUMN_ICONS_HASH + " IN (SELECT hash FROM released)");
+        deleteUnreferenced();
+    }
+
+    /**
+     * Recalculates the reference counts from the icon hashes stored in the nodes table.
+     * Icons that aren't referenced any more get released.
+     *
+     * @return the number of released icons
+     */
+    public int recountReferences() {
+        String referencedHashesSelect = "SELECT " + EntriesSQLiteOpenHelper.COLUMN_NODES_ICONREF
+                + " FROM " + EntriesSQLiteOpenHelper.TABLE_NODES
+                + " WHERE " + EntriesSQLiteOpenHelper.COLUMN_NODES_ICONREF + " IS NOT NULL";
+        //icons that are referenced without being counted
+        mDatabase.execSQL(
+                "WITH referenced(hash) AS (" + referencedHashesSelect + ")"
+                        + " INSERT OR IGNORE INTO " + EntriesSQLiteOpenHelper.TABLE_ICONS
+                        + " (" + EntriesSQLiteOpenHelper.COLUMN_ICONS_HASH + ", " + EntriesSQLiteOpenHelper.COLUMN_ICONS_REFCOUNT + ")"
+                        + " SELECT DISTINCT hash, 0 FROM referenced");
+        mDatabase.execSQL(
+                "WITH referenced(hash) AS (" + referencedHashesSelect + ")"
+                        + " UPDATE " + EntriesSQLiteOpenHelper.TABLE_ICONS
+                        + " SET " + EntriesSQLiteOpenHelper.COLUMN_ICONS_REFCOUNT
+                        + " = (SELECT count(*) FROM referenced r WHERE r.hash = " + EntriesSQLiteOpenHelper.TABLE_ICONS + "." + EntriesSQLiteOpenHelper.COLUMN_ICONS_HASH + ")");
+        return deleteUnreferenced();
+    }
+
+    /**
+     * @return the hashes of all icons that are referenced
+     */
+    public Set<String> queryHashes() {
+        Cursor c = mDatabase.query(
+                EntriesSQLiteOpenHelper.TABLE_ICONS,
+                new String[] { EntriesSQLiteOpenHelper.COLUMN_ICONS_HASH },
+                null,
+                null,
+                null,
+                null,
+                null
+        );
+        Set<String> result = new HashSet<>();
+        if(c.moveToFirst()) {
+            do {
+                result.add(c.getString(0));
+            }
+            while(c.moveToNext());
+        }
+        c.close();
+        return result;
+    }
+
+    /**
+     * Releases all icons, used when all nodes get deleted
+     */
+    public void releaseAll() {
+        mReleasedHashes.addAll(queryHashes());
+    }
+
+    /**
+     * Deletes the files of the released icons that haven't been referenced again.
+     * Has to be called when a transaction has ended, does nothing while the outermost one is still open.
+     * If any transaction has been rolled back in the meantime, the files are left to IconStore.retainAll,
+     * as it's unknown which of the references have been restored.
+     */
+    public void deleteReleasedIcons() {
+        if(mDatabase.inTransaction()) {
+            return;
+        }
+        if(!mRolledBack && !mReleasedHashes.isEmpty()) {
+            Set<String> referencedHashes = queryHashes();
+            for(String hash : mReleasedHashes) {
+                if(!referencedHashes.contains(hash)) {
+                    mIconStore.delete(hash);
+                }
+            }
+        }
+        mReleasedHashes.clear();
+        mRolledBack = false;
+    }
+
+    /**
+     * has to be called when a transaction gets rolled back, see deleteReleasedIcons
+     */
+    public void onRolledBack() {
+        mRolledBack = true;
+    }
+
+    /**
+     * removes the icons whose reference count has dropped to 0, their files are deleted by deleteReleasedIcons
+     *
+     * @return the number of removed icons
+     */
+    private int deleteUnreferenced() {
+        String unreferenced = EntriesSQLiteOpenHelper.COLUMN_ICONS_REFCOUNT + " <= 0";
+        Cursor c = mDatabase.query(
+                EntriesSQLiteOpenHelper.TABLE_ICONS,
+                new String[] { EntriesSQLiteOpenHelper.COLUMN_ICONS_HASH },
+                unreferenced,
+                null,
+                null,
+                null,
+                null
+        );
+        if(c.moveToFirst()) {
+            do {
+                mReleasedHashes.add(c.getString(0));
+            }
+            while(c.moveToNext());
+        }
+        c.close();
+        return mDatabase.delete(EntriesSQLiteOpenHelper.TABLE_ICONS, unreferenced, null);
+    }
+
+    /**
+     * removes a reference to the icon. The icon gets released when it isn't referenced any more.
+     */
+    public void releaseReference(String hash) {
+        if(hash == null) {
+            return;
+        }
+        mDatabase.execSQL(
+                "UPDATE " + EntriesSQLiteOpenHelper.TABLE_ICONS
+                        + " SET " + EntriesSQLiteOpenHelper.COLUMN_ICONS_REFCOUNT + " = " + EntriesSQLiteOpenHelper.COLUMN_ICONS_REFCOUNT + " - 1"
+                        + " WHERE " + EntriesSQLiteOpenHelper.COLUMN_ICONS_HASH + " = ?",
+                new Object[] { hash });
+
+        int refCount = 0;
+        Cursor c = mDatabase.query(
+                EntriesSQLiteOpenHelper.TABLE_ICONS,
+                new String[] { EntriesSQLiteOpenHelper.COLUMN_ICONS_REFCOUNT },
+                EntriesSQLiteOpenHelper.COLUMN_ICONS_HASH + " = ?",
+                new String[] { hash },
+                null,
+                null,
+                null
+        );
+        if(c.moveToFirst()) {
+            refCount = c.getInt(0);
+        }
+        c.close();
+
+        if(refCount <= 0) {
+            mDatabase.delete(
+                    EntriesSQLiteOpenHelper.TABLE_ICONS,
+                    EntriesSQLiteOpenHelper.COLUMN_ICONS_HASH + " = ?",
+                    new String[] { hash });
+            mReleasedHashes.add(hash);
+        }
+    }
+}
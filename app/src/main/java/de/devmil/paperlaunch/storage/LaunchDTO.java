@@ -35,14 +35,29 @@ public class LaunchDTO {
     private long mId;
     private String mName;
     private Intent mLaunchIntent;
+    private String mIconHash;
+    private IconStore mIconStore;
     private Drawable mIcon;
+    private boolean mIconChanged;
 
-    public LaunchDTO(long id, String name, Intent launchIntent, Drawable icon)
+    public LaunchDTO(long id, String name, Intent launchIntent, String iconHash, IconStore iconStore)
     {
         mId = id;
         mName = name;
         mLaunchIntent = launchIntent;
-        mIcon = icon;
+        mIconHash = iconHash;
+        mIconStore = iconStore;
+    }
+
+    /**
+     * copies the data, including an icon that hasn't been persisted yet.
+     * The launch intent gets copied as well, as it gets modified before launching.
+     */
+    public LaunchDTO(LaunchDTO other)
+    {
+        this(other.mId, other.mName, other.mLaunchIntent == null ? null : new Intent(other.mLaunchIntent), other.mIconHash, other.mIconStore);
+        mIcon = other.mIcon;
+        mIconChanged = other.mIconChanged;
     }
 
     public long getId() {
@@ -69,11 +84,34 @@ public class LaunchDTO {
         this.mLaunchIntent = launchIntent;
     }
 
+    /**
+     * an icon that has been set is kept, stored icons are loaded through the IconCache on each access
+     */
     public Drawable getIcon() {
-        return mIcon;
+        if(mIcon != null || mIconChanged || mIconHash == null || mIconStore == null) {
+            return mIcon;
+        }
+        return mIconStore.getIcon(mIconHash);
     }
 
     public void setIcon(Drawable icon) {
         this.mIcon = icon;
+        mIconChanged = true;
+    }
+
+    public String getIconHash() {
+        return mIconHash;
+    }
+
+    /**
+     * gets called by the storage layer after the icon has been persisted
+     */
+    void setIconHash(String iconHash) {
+        mIconHash = iconHash;
+        mIconChanged = false;
+    }
+
+    public boolean isIconChanged() {
+        return mIconChanged;
     }
 }
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2015 Devmil Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.devmil.paperlaunch.storage;
+
+/**
+ * Result of ITransactionContext.runMaintenance
+ */
+public class MaintenanceReport {
+    private int mRemovedNodes = 0;
+    private int mRemovedIcons = 0;
+    private int mReorderedEntries = 0;
+    private int mNormalizedIcons = 0;
+    private boolean mVacuumed = false;
+    private long mReclaimedBytes = 0;
+
+    /**
+     * @return the number of removed launches and folders
+     */
+    public int getRemovedNodes() {
+        return mRemovedNodes;
+    }
+
+    /**
+     * @return the number of removed icons, icon files that weren't known to the database aren't counted
+     */
+    public int getRemovedIcons() {
+        return mRemovedIcons;
+    }
+
+    /**
+     * @return the number of entries that got a new order index
+     */
+    public int getReorderedEntries() {
+        return mReorderedEntries;
+    }
+
+    /**
+     * @return the number of icons that have been replaced by a scaled down copy
+     */
+    public int getNormalizedIcons() {
+        return mNormalizedIcons;
+    }
+
+    public boolean isVacuumed() {
+        return mVacuumed;
+    }
+
+    /**
+     * @return the number of bytes the database and the icon store have shrunk by
+     */
+    public long getReclaimedBytes() {
+        return mReclaimedBytes;
+    }
+
+    /**
+     * @return true if the maintenance has modified the entries (including the icon references)
+     */
+    public boolean isEntriesModified() {
+        return mRemovedNodes > 0 || mReorderedEntries > 0 || mNormalizedIcons > 0;
+    }
+
+    void addRemovedNodes(int count) {
+        mRemovedNodes += count;
+    }
+
+    void addRemovedIcons(int count) {
+        mRemovedIcons += count;
+    }
+
+    void setReorderedEntries(int count) {
+        mReorderedEntries = count;
+    }
+
+    void addNormalizedIcons(int count) {
+        mNormalizedIcons += count;
+    }
+
+    void setVacuumed() {
+        mVacuumed = true;
+    }
+
+    void addReclaimedBytes(long bytes) {
+        mReclaimedBytes += bytes;
+    }
+
+    @Override
+    public String toString() {
+        return "removed nodes: " + mRemovedNodes
+                + ", icons: " + mRemovedIcons
+                + ", reordered entries: " + mReorderedEntries
+                + ", normalized icons: " + mNormalizedIcons
+                + ", vacuumed: " + mVacuumed
+                + ", reclaimed bytes: " + mReclaimedBytes;
+    }
+}
@@ -0,0 +1,516 @@
+/*
+ * Copyright 2015 Devmil Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.devmil.paperlaunch.storage;
+
+import android.content.ContentValues;
+import android.content.Intent;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import de.devmil.paperlaunch.utils.IntentCodec;
+import de.devmil.paperlaunch.utils.IntentSerializer;
+
+/**
+ * Access to the nodes table that stores launches and folders together with their position.
+ * The id of a node is its entry id as well as its launch or folder id, so each node is read
+ * and written with a single statement.
+ */
+public class NodesAccess {
+    public static final int KIND_LAUNCH = 1;
+    public static final int KIND_FOLDER = 2;
+
+    private static final String[] nodesColumns = new String[]
+            {
+                    EntriesSQLiteOpenHelper.COLUMN_ID,
+                    EntriesSQLiteOpenHelper.COLUMN_NODES_PARENTID,
+                    EntriesSQLiteOpenHelper.COLUMN_NODES_KIND,
+                    EntriesSQLiteOpenHelper.COLUMN_NODES_ORDERKEY,
+                    EntriesSQLiteOpenHelper.COLUMN_NODES_NAME,
+                    EntriesSQLiteOpenHelper.COLUMN_NODES_PAYLOAD,
+                    EntriesSQLiteOpenHelper.COLUMN_NODES_ICONREF,
+                    EntriesSQLiteOpenHelper.COLUMN_NODES_DEPTH
+            };
+
+    private static final int INDEX_COLUMN_ID = 0;
+    private static final int INDEX_COLUMN_PARENTID = 1;
+    private static final int INDEX_COLUMN_KIND = 2;
+    private static final int INDEX_COLUMN_ORDERKEY = 3;
+    private static final int INDEX_COLUMN_NAME = 4;
+    private static final int INDEX_COLUMN_PAYLOAD = 5;
+    private static final int INDEX_COLUMN_ICONREF = 6;
+    private static final int INDEX_COLUMN_DEPTH = 7;
+
+    static final String UPDATE_ORDERKEY_SQL = "UPDATE " + EntriesSQLiteOpenHelper.TABLE_NODES
+            + " SET " + EntriesSQLiteOpenHelper.COLUMN_NODES_ORDERKEY + " = ?"
+            + " WHERE " + EntriesSQLiteOpenHelper.COLUMN_ID + " = ?";
+
+    static final String INSERT_LAUNCH_SQL = "INSERT INTO " + EntriesSQLiteOpenHelper.TABLE_NODES + " ("
+            + EntriesSQLiteOpenHelper.COLUMN_NODES_PARENTID + ", "
+            + EntriesSQLiteOpenHelper.COLUMN_NODES_KIND + ", "
+            + EntriesSQLiteOpenHelper.COLUMN_NODES_ORDERKEY + ", "
+            + EntriesSQLiteOpenHelper.COLUMN_NODES_NAME + ", "
+            + EntriesSQLiteOpenHelper.COLUMN_NODES_PAYLOAD + ", "
+            + EntriesSQLiteOpenHelper.COLUMN_NODES_ICONREF
+            + ") VALUES (?, " + KIND_LAUNCH + ", ?, ?, ?, ?)";
+
+    //temporary table that holds the ids of the nodes collected by deleteSubtree
+    private static final String TABLE_SUBTREE = "temp.nodes_subtree";
+
+    private static final String SUBTREE_CREATE = "CREATE TEMP TABLE IF NOT EXISTS nodes_subtree ("
+            + EntriesSQLiteOpenHelper.COLUMN_ID + " integer primary key"
+            + " )";
+
+    //the ids of the node given as parameter and everything below it.
+    //UNION instead of UNION ALL so broken data with cycles can't make it run forever
+    private static final String SUBTREE_SELECT = "WITH RECURSIVE subtree(id) AS (\n"
+            + "  SELECT CAST(? AS INTEGER)\n"
+            + "  UNION\n"
+            + "  SELECT n." + EntriesSQLiteOpenHelper.COLUMN_ID + " FROM " + EntriesSQLiteOpenHelper.TABLE_NODES + " n\n"
+            + "  INNER JOIN subtree s ON (n." + EntriesSQLiteOpenHelper.COLUMN_NODES_PARENTID + " = s.id)\n"
+            + ")\n"
+            + "SELECT id FROM subtree";
+
+    private static final String SUBTREE_COLLECT = "INSERT INTO " + TABLE_SUBTREE + "\n" + SUBTREE_SELECT;
+
+    //the statements below are package-private so their query plans can be tested, see buildNodesQuery
+
+    //nodes are always read in the order they are shown in
+    static final String NODES_ORDER_BY = EntriesSQLiteOpenHelper.COLUMN_NODES_PARENTID + ", " + EntriesSQLiteOpenHelper.COLUMN_NODES_ORDERKEY;
+
+    //parameter: the id of the folder (-1 = root)
+    static final String CHILDREN_SELECTION = EntriesSQLiteOpenHelper.COLUMN_NODES_PARENTID + " = ?";
+
+    //parameter: the id of the folder
+    static final String SUBTREE_SELECTION = EntriesSQLiteOpenHelper.COLUMN_ID + " IN (" + SUBTREE_SELECT + ")";
+
+    //parameter: the id of the folder (-1 = root)
+    static final String NEXT_ORDERKEY_SQL = "SELECT coalesce(max(" + EntriesSQLiteOpenHelper.COLUMN_NODES_ORDERKEY + "), -1) + 1"
+            + " FROM " + EntriesSQLiteOpenHelper.TABLE_NODES
+            + " WHERE " + CHILDREN_SELECTION;
+
+    private ProfiledDatabase mDatabase;
+    private IconsAccess mIconsAccess;
+    private SQLiteStatement mUpdateOrderKeyStatement;
+    private SQLiteStatement mInsertLaunchStatement;
+    //launches read in the legacy intent format, they get rewritten by migrateLegacyIntents
+    private Map<Long, Intent> mLegacyIntents = new ConcurrentHashMap<>();
+
+    public NodesAccess(SQLiteDatabase database, IconsAccess iconsAccess) {
+        mDatabase = new ProfiledDatabase(database);
+        mIconsAccess = iconsAccess;
+    }
+
+    /**
+     * releases the precompiled statements
+     */
+    public void close() {
+        if(mUpdateOrderKeyStatement != null) {
+            mUpdateOrderKeyStatement.close();
+            mUpdateOrderKeyStatement = null;
+        }
+        if(mInsertLaunchStatement != null) {
+            mInsertLaunchStatement.close();
+            mInsertLaunchStatement = null;
+        }
+    }
+
+    /**
+     * reads all nodes with one query, the launch intents and icons get decoded in parallel afterwards
+     */
+    public EntriesTreeBuilder queryTree() {
+        return query(null, null, true);
+    }
+
+    /**
+     * reads the given folder and everything below it with one query, the icons get decoded on first access
+     */
+    public EntriesTreeBuilder querySubtree(long folderId) {
+        return query(SUBTREE_SELECTION, new String[] { Long.toString(folderId) }, false);
+    }
+
+    /**
+     * reads the nodes of the given folder (-1 = root), but not their content
+     */
+    public EntriesTreeBuilder queryChildren(long parentId) {
+        return query(CHILDREN_SELECTION, new String[] { Long.toString(parentId) }, false);
+    }
+
+    /**
+     * reads a single node, without the content if it is a folder
+     */
+    public EntriesTreeBuilder queryNode(long nodeId) {
+        return query(EntriesSQLiteOpenHelper.COLUMN_ID + " = " + nodeId, null, false);
+    }
+
+    public EntryDTO queryEntry(long nodeId) {
+        Cursor c = mDatabase.query(
+                EntriesSQLiteOpenHelper.TABLE_NODES,
+                nodesColumns,
+                EntriesSQLiteOpenHelper.COLUMN_ID + " = " + nodeId,
+                null,
+                null,
+                null,
+                null
+        );
+
+        EntryDTO result = null;
+        if(c.moveToFirst()) {
+            result = cursorToEntry(c);
+        }
+        c.close();
+        return result;
+    }
+
+    /**
+     * @return the order key that puts a node behind all nodes of the given folder
+     */
+    public long queryNextOrderKey(long parentId) {
+        return mDatabase.longForQuery(NEXT_ORDERKEY_SQL, new String[] { Long.toString(parentId) });
+    }
+
+    /**
+     * inserts a launch without reading it back, with a precompiled statement so inserting many launches stays cheap.
+     * The reference to the icon has to be added by the caller.
+     *
+     * @param launchIntent the launch intent encoded by IntentCodec
+     * @return the id of the new node
+     */
+    public long insertLaunch(long parentId, long orderKey, String name, byte[] launchIntent, String iconHash) {
+        SQLiteStatement statement = getInsertLaunchStatement();
+        statement.bindLong(1, parentId);
+        statement.bindLong(2, orderKey);
+        bindStringOrNull(statement, 3, name);
+        if(launchIntent == null) {
+            statement.bindNull(4);
+        } else {
+            statement.bindBlob(4, launchIntent);
+        }
+        bindStringOrNull(statement, 5, iconHash);
+        return mDatabase.executeInsert(statement, INSERT_LAUNCH_SQL);
+    }
+
+    private SQLiteStatement getInsertLaunchStatement() {
+        if(mInsertLaunchStatement == null) {
+            mInsertLaunchStatement = mDatabase.compileStatement(INSERT_LAUNCH_SQL);
+        }
+        return mInsertLaunchStatement;
+    }
+
+    private static void bindStringOrNull(SQLiteStatement statement, int index, String value) {
+        if(value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    /**
+     * inserts a folder without reading it back.
+     * The reference to the icon has to be added by the caller.
+     *
+     * @return the id of the new node
+     */
+    public long insertFolder(long parentId, long orderKey, String name, String iconHash, int depth) {
+        ContentValues values = new ContentValues();
+        values.put(EntriesSQLiteOpenHelper.COLUMN_NODES_PARENTID, parentId);
+        values.put(EntriesSQLiteOpenHelper.COLUMN_NODES_KIND, KIND_FOLDER);
+        values.put(EntriesSQLiteOpenHelper.COLUMN_NODES_ORDERKEY, orderKey);
+        values.put(EntriesSQLiteOpenHelper.COLUMN_NODES_NAME, name);
+        values.put(EntriesSQLiteOpenHelper.COLUMN_NODES_ICONREF, iconHash);
+        values.put(EntriesSQLiteOpenHelper.COLUMN_NODES_DEPTH, depth);
+        return mDatabase.insert(
+                EntriesSQLiteOpenHelper.TABLE_NODES,
+                null,
+                values);
+    }
+
+    public void update(LaunchDTO launch) {
+        ContentValues values = new ContentValues();
+        values.put(EntriesSQLiteOpenHelper.COLUMN_NODES_NAME, launch.getName());
+        values.put(EntriesSQLiteOpenHelper.COLUMN_NODES_PAYLOAD, IntentCodec.encode(launch.getLaunchIntent()));
+        mLegacyIntents.remove(launch.getId());
+        //the icon is only written when it has been changed, otherwise the stored hash stays valid
+        if(launch.isIconChanged()) {
+            String iconHash = mIconsAccess.replaceReference(launch.getIconHash(), launch.getIcon());
+            values.put(EntriesSQLiteOpenHelper.COLUMN_NODES_ICONREF, iconHash);
+            launch.setIconHash(iconHash);
+        }
+        update(launch.getId(), values);
+    }
+
+    public void update(FolderDTO folder) {
+        ContentValues values = new ContentValues();
+        values.put(EntriesSQLiteOpenHelper.COLUMN_NODES_NAME, folder.getName());
+        values.put(EntriesSQLiteOpenHelper.COLUMN_NODES_DEPTH, folder.getDepth());
+        //the icon is only written when it has been changed, otherwise the stored hash stays valid
+        if(folder.isIconChanged()) {
+            String iconHash = mIconsAccess.replaceReference(folder.getIconHash(), folder.getIcon());
+            values.put(EntriesSQLiteOpenHelper.COLUMN_NODES_ICONREF, iconHash);
+            folder.setIconHash(iconHash);
+        }
+        update(folder.getId(), values);
+    }
+
+    /**
+     * Only updates the icon hash column of one node, the references have to be maintained by the caller.
+     */
+    public void updateIconHash(long nodeId, String iconHash) {
+        ContentValues values = new ContentValues();
+        values.put(EntriesSQLiteOpenHelper.COLUMN_NODES_ICONREF, iconHash);
+        update(nodeId, values);
+    }
+
+    private void update(long nodeId, ContentValues values) {
+        mDatabase.update(
+                EntriesSQLiteOpenHelper.TABLE_NODES,
+                values,
+                EntriesSQLiteOpenHelper.COLUMN_ID + " = " + nodeId,
+                null
+        );
+    }
+
+    /**
+     * Only updates the order key column of one node.
+     */
+    public void updateOrderKey(long nodeId, long orderKey) {
+        SQLiteStatement statement = getUpdateOrderKeyStatement();
+        statement.bindLong(1, orderKey);
+        statement.bindLong(2, nodeId);
+        mDatabase.executeUpdateDelete(statement, UPDATE_ORDERKEY_SQL);
+    }
+
+    /**
+     * Sets the order key of each given node to its position in the array.
+     * The updates only touch the order key column, the caller should run them in one transaction.
+     */
+    public void updateOrderKeys(long[] nodeIds) {
+        for(int i=0; i<nodeIds.length; i++) {
+            updateOrderKey(nodeIds[i], i);
+        }
+    }
+
+    private SQLiteStatement getUpdateOrderKeyStatement() {
+        if(mUpdateOrderKeyStatement == null) {
+            mUpdateOrderKeyStatement = mDatabase.compileStatement(UPDATE_ORDERKEY_SQL);
+        }
+        return mUpdateOrderKeyStatement;
+    }
+
+    /**
+     * Deletes the node and everything below it and releases their icons.
+     * Has to be called inside of a transaction.
+     *
+     * @return the number of deleted nodes
+     */
+    public int deleteSubtree(long nodeId) {
+        mDatabase.execSQL(SUBTREE_CREATE);
+        mDatabase.execSQL("DELETE FROM " + TABLE_SUBTREE);
+        mDatabase.execSQL(SUBTREE_COLLECT, new Object[] { nodeId });
+        int result = deleteAll("SELECT " + EntriesSQLiteOpenHelper.COLUMN_ID + " FROM " + TABLE_SUBTREE);
+        mDatabase.execSQL("DELETE FROM " + TABLE_SUBTREE);
+        return result;
+    }
+
+    /**
+     * deletes all nodes whose id is returned by idsSelect and releases their icons.
+     * Nodes below deleted folders are left alone.
+     *
+     * @return the number of deleted nodes
+     */
+    public int deleteAll(String idsSelect) {
+        String selection = EntriesSQLiteOpenHelper.COLUMN_ID + " IN (" + idsSelect + ")";
+        mIconsAccess.releaseReferences(
+                "SELECT " + EntriesSQLiteOpenHelper.COLUMN_NODES_ICONREF
+                        + " FROM " + EntriesSQLiteOpenHelper.TABLE_NODES
+                        + " WHERE " + selection);
+        return mDatabase.delete(
+                EntriesSQLiteOpenHelper.TABLE_NODES,
+                selection,
+                null
+        );
+    }
+
+    /**
+     * Lets all nodes that use the icon oldHash use newHash instead.
+     * The reference counts aren't touched, see IconsAccess.recountReferences.
+     *
+     * @return the number of updated nodes
+     */
+    public int replaceIconReferences(String oldHash, String newHash) {
+        ContentValues values = new ContentValues();
+        values.put(EntriesSQLiteOpenHelper.COLUMN_NODES_ICONREF, newHash);
+        return mDatabase.update(
+                EntriesSQLiteOpenHelper.TABLE_NODES,
+                values,
+                EntriesSQLiteOpenHelper.COLUMN_NODES_ICONREF + " = ?",
+                new String[] { oldHash }
+        );
+    }
+
+    public boolean hasLegacyIntents() {
+        return !mLegacyIntents.isEmpty();
+    }
+
+    /**
+     * Rewrites the launch intents that have been read in the legacy (serialized + Base64) format
+     * in the binary format of IntentCodec.
+     * Rows that have been written in the meantime are left alone.
+     */
+    public void migrateLegacyIntents() {
+        if(mLegacyIntents.isEmpty()) {
+            return;
+        }
+        mDatabase.beginTransaction();
+        try {
+            for(Map.Entry<Long, Intent> legacyIntent : mLegacyIntents.entrySet()) {
+                ContentValues values = new ContentValues();
+                values.put(EntriesSQLiteOpenHelper.COLUMN_NODES_PAYLOAD, IntentCodec.encode(legacyIntent.getValue()));
+                mDatabase.update(
+                        EntriesSQLiteOpenHelper.TABLE_NODES,
+                        values,
+                        EntriesSQLiteOpenHelper.COLUMN_ID + " = " + legacyIntent.getKey()
+                                + " AND typeof(" + EntriesSQLiteOpenHelper.COLUMN_NODES_PAYLOAD + ") = 'text'",
+                        null
+                );
+                mLegacyIntents.remove(legacyIntent.getKey());
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
+    /**
+     * @return the statement query runs for the given selection
+     */
+    static String buildNodesQuery(String selection) {
+        return SQLiteQueryBuilder.buildQueryString(false, EntriesSQLiteOpenHelper.TABLE_NODES, nodesColumns, selection, null, null, NODES_ORDER_BY, null);
+    }
+
+    /**
+     * @param decodeIcons true to decode the icons together with the launch intents, otherwise they get decoded on first access
+     */
+    private EntriesTreeBuilder query(String selection, String[] selectionArgs, boolean decodeIcons) {
+        Cursor c = mDatabase.query(
+                EntriesSQLiteOpenHelper.TABLE_NODES,
+                nodesColumns,
+                selection,
+                selectionArgs,
+                null,
+                null,
+                NODES_ORDER_BY
+        );
+
+        List<EntryDTO> entries = new ArrayList<>();
+        List<LaunchDTO> launches = new ArrayList<>();
+        List<FolderDTO> folders = new ArrayList<>();
+        EntriesDecoder decoder = new EntriesDecoder();
+        if(c.moveToFirst()) {
+            do {
+                switch(c.getInt(INDEX_COLUMN_KIND)) {
+                    case KIND_LAUNCH:
+                        LaunchDTO launch = cursorToLaunch(c, decoder);
+                        if(decodeIcons) {
+                            decoder.addIcon(launch);
+                        }
+                        launches.add(launch);
+                        break;
+                    case KIND_FOLDER:
+                        FolderDTO folder = cursorToFolder(c);
+                        if(decodeIcons) {
+                            decoder.addIcon(folder);
+                        }
+                        folders.add(folder);
+                        break;
+                    default:
+                        //unknown nodes are skipped, see EntriesMaintenance
+                        continue;
+                }
+                entries.add(cursorToEntry(c));
+            }
+            while (c.moveToNext());
+        }
+        c.close();
+        decoder.decodeAll();
+
+        return new EntriesTreeBuilder(entries, launches, folders);
+    }
+
+    private EntryDTO cursorToEntry(Cursor cursor) {
+        long id = cursor.getLong(INDEX_COLUMN_ID);
+        boolean isFolder = cursor.getInt(INDEX_COLUMN_KIND) == KIND_FOLDER;
+        return new EntryDTO(
+                id,
+                cursor.getLong(INDEX_COLUMN_ORDERKEY),
+                isFolder ? -1 : id,
+                isFolder ? id : -1,
+                cursor.getLong(INDEX_COLUMN_PARENTID)
+        );
+    }
+
+    /**
+     * @param decoder gets the decode of the launch intent, the returned launch has no intent until it has run
+     */
+    private LaunchDTO cursorToLaunch(Cursor cursor, EntriesDecoder decoder) {
+        final long id = cursor.getLong(INDEX_COLUMN_ID);
+        final LaunchDTO result = new LaunchDTO(
+                id,
+                cursor.getString(INDEX_COLUMN_NAME),
+                null,
+                cursor.getString(INDEX_COLUMN_ICONREF),
+                mIconsAccess.getIconStore()
+        );
+        if(cursor.getType(INDEX_COLUMN_PAYLOAD) == Cursor.FIELD_TYPE_STRING) {
+            final String legacyIntent = cursor.getString(INDEX_COLUMN_PAYLOAD);
+            decoder.add(new Runnable() {
+                @Override
+                public void run() {
+                    Intent launchIntent = IntentSerializer.deserialize(legacyIntent);
+                    if(launchIntent != null) {
+                        mLegacyIntents.put(id, new Intent(launchIntent));
+                    }
+                    result.setLaunchIntent(launchIntent);
+                }
+            });
+        } else {
+            final byte[] launchIntent = cursor.getBlob(INDEX_COLUMN_PAYLOAD);
+            decoder.add(new Runnable() {
+                @Override
+                public void run() {
+                    result.setLaunchIntent(IntentCodec.decode(launchIntent));
+                }
+            });
+        }
+        return result;
+    }
+
+    private FolderDTO cursorToFolder(Cursor cursor) {
+        return new FolderDTO(
+                cursor.getLong(INDEX_COLUMN_ID),
+                cursor.getString(INDEX_COLUMN_NAME),
+                cursor.getString(INDEX_COLUMN_ICONREF),
+                mIconsAccess.getIconStore(),
+                cursor.getInt(INDEX_COLUMN_DEPTH)
+        );
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2015 Devmil Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.devmil.paperlaunch.storage;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.devmil.paperlaunch.model.IEntry;
+
+/**
+ * Modifications that have been deferred, so repeated modifications of the same folder
+ * (e.g. while its name gets typed) or of the same order end up in one write.
+ * A folder keeps its latest data and its latest icon, an order the latest list of entries.
+ * The modifications are only removed once they have been committed, after a failure they are
+ * written again by the next writing action.
+ * Thread safe.
+ */
+class PendingWrites {
+    private final Map<Long, FolderDTO> mFolderUpdates = new LinkedHashMap<>();
+    private final Map<Long, byte[]> mFolderIconUpdates = new LinkedHashMap<>();
+    private final Map<Long, List<IEntry>> mOrderUpdates = new LinkedHashMap<>();
+    private long mModificationCount = 0;
+
+    /**
+     * @return the modification count after adding the update, see getModificationCount
+     */
+    synchronized long addFolderUpdate(FolderDTO folderDto) {
+        //the caller may keep modifying its folder
+        mFolderUpdates.put(folderDto.getId(), new FolderDTO(folderDto));
+        return ++mModificationCount;
+    }
+
+    /**
+     * @param iconData the encoded icon, written as it is
+     * @return the modification count after adding the update, see getModificationCount
+     */
+    synchronized long addFolderIconUpdate(long folderId, byte[] iconData) {
+        mFolderIconUpdates.put(folderId, iconData);
+        return ++mModificationCount;
+    }
+
+    /**
+     * @return the modification count after adding the update, see getModificationCount
+     */
+    synchronized long addOrderUpdate(long parentFolderId, List<IEntry> entries) {
+        //the caller may keep modifying its list
+        mOrderUpdates.put(parentFolderId, new ArrayList<>(entries));
+        return ++mModificationCount;
+    }
+
+    /**
+     * @return the number of updates added so far, used to detect if more updates have been added in the meantime
+     */
+    synchronized long getModificationCount() {
+        return mModificationCount;
+    }
+
+    synchronized boolean isEmpty() {
+        return mFolderUpdates.isEmpty() && mFolderIconUpdates.isEmpty() && mOrderUpdates.isEmpty();
+    }
+
+    /**
+     * Writes all pending modifications in one transaction and removes them once it has been committed.
+     * Must not be called inside of another transaction, which could still be rolled back.
+     */
+    void execute(ITransactionContext transactionContext) {
+        Map<Long, FolderDTO> folderUpdates;
+        Map<Long, byte[]> folderIconUpdates;
+        Map<Long, List<IEntry>> orderUpdates;
+        synchronized (this) {
+            if(isEmpty()) {
+                return;
+            }
+            folderUpdates = new LinkedHashMap<>(mFolderUpdates);
+            folderIconUpdates = new LinkedHashMap<>(mFolderIconUpdates);
+            orderUpdates = new LinkedHashMap<>(mOrderUpdates);
+        }
+        transactionContext.startTransaction();
+        for(FolderDTO folderDto : folderUpdates.values()) {
+            //writing marks the icon as persisted, the queued data has to stay intact for a retry
+            transactionContext.updateFolderData(new FolderDTO(folderDto));
+        }
+        for(Map.Entry<Long, byte[]> folderIconUpdate : folderIconUpdates.entrySet()) {
+            transactionContext.updateFolderIcon(folderIconUpdate.getKey(), folderIconUpdate.getValue());
+        }
+        for(Map.Entry<Long, List<IEntry>> orderUpdate : orderUpdates.entrySet()) {
+            transactionContext.updateOrders(orderUpdate.getKey(), orderUpdate.getValue());
+        }
+        transactionContext.commitTransaction();
+        synchronized (this) {
+            removeWritten(mFolderUpdates, folderUpdates);
+            removeWritten(mFolderIconUpdates, folderIconUpdates);
+            removeWritten(mOrderUpdates, orderUpdates);
+        }
+    }
+
+    /**
+     * removes the written updates unless they have been replaced by newer ones in the meantime
+     */
+    private static <T> void removeWritten(Map<Long, T> pendingUpdates, Map<Long, T> writtenUpdates) {
+        for(Map.Entry<Long, T> writtenUpdate : writtenUpdates.entrySet()) {
+            if(pendingUpdates.get(writtenUpdate.getKey()) == writtenUpdate.getValue()) {
+                pendingUpdates.remove(writtenUpdate.getKey());
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2015 Devmil Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.devmil.paperlaunch.storage;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * The part of SQLiteDatabase used by the access classes.
+ * Each statement gets reported to the QueryProfiler while it records an action,
+ * otherwise the calls are passed through unchanged.
+ * The time of a query includes reading its first cursor window, see query.
+ */
+class ProfiledDatabase {
+    private SQLiteDatabase mDatabase;
+    private QueryProfiler mProfiler;
+
+    public ProfiledDatabase(SQLiteDatabase database) {
+        mDatabase = database;
+        mProfiler = QueryProfiler.getInstance();
+    }
+
+    public Cursor query(String table, String[] columns, String selection, String[] selectionArgs, String groupBy, String having, String orderBy) {
+        if(!mProfiler.isRecording()) {
+            return mDatabase.query(table, columns, selection, selectionArgs, groupBy, having, orderBy);
+        }
+        long start = System.nanoTime();
+        Cursor result = mDatabase.query(table, columns, selection, selectionArgs, groupBy, having, orderBy);
+        //The query only runs when the cursor gets moved, counting the rows executes it.
+        //This doesn't add work compared to an unrecorded query: the first move of the cursor calls getCount()
+        //as well and then uses the filled window. Only the time moves from the first moveToFirst() into the query.
+        int rows = result.getCount();
+        mProfiler.record(
+                SQLiteQueryBuilder.buildQueryString(false, table, columns, selection, groupBy, having, orderBy, null),
+                System.nanoTime() - start,
+                rows);
+        return result;
+    }
+
+    public long longForQuery(String sql, String[] selectionArgs) {
+        if(!mProfiler.isRecording()) {
+            return DatabaseUtils.longForQuery(mDatabase, sql, selectionArgs);
+        }
+        long start = System.nanoTime();
+        long result = DatabaseUtils.longForQuery(mDatabase, sql, selectionArgs);
+        mProfiler.record(sql, System.nanoTime() - start, 1);
+        return result;
+    }
+
+    public long insert(String table, String nullColumnHack, ContentValues values) {
+        if(!mProfiler.isRecording()) {
+            return mDatabase.insert(table, nullColumnHack, values);
+        }
+        long start = System.nanoTime();
+        long result = mDatabase.insert(table, nullColumnHack, values);
+        mProfiler.record("INSERT INTO " + table, System.nanoTime() - start, result == -1 ? 0 : 1);
+        return result;
+    }
+
+    public int update(String table, ContentValues values, String whereClause, String[] whereArgs) {
+        if(!mProfiler.isRecording()) {
+            return mDatabase.update(table, values, whereClause, whereArgs);
+        }
+        long start = System.nanoTime();
+        int result = mDatabase.update(table, values, whereClause, whereArgs);
+        mProfiler.record("UPDATE " + table + where(whereClause), System.nanoTime() - start, result);
+        return result;
+    }
+
+    public int delete(String table, String whereClause, String[] whereArgs) {
+        if(!mProfiler.isRecording()) {
+            return mDatabase.delete(table, whereClause, whereArgs);
+        }
+        long start = System.nanoTime();
+        int result = mDatabase.delete(table, whereClause, whereArgs);
+        mProfiler.record("DELETE FROM " + table + where(whereClause), System.nanoTime() - start, result);
+        return result;
+    }
+
+    public void execSQL(String sql) {
+        if(!mProfiler.isRecording()) {
+            mDatabase.execSQL(sql);
+            return;
+        }
+        long start = System.nanoTime();
+        mDatabase.execSQL(sql);
+        mProfiler.record(sql, System.nanoTime() - start, 0);
+    }
+
+    public void execSQL(String sql, Object[] bindArgs) {
+        if(!mProfiler.isRecording()) {
+            mDatabase.execSQL(sql, bindArgs);
+            return;
+        }
+        long start = System.nanoTime();
+        mDatabase.execSQL(sql, bindArgs);
+        mProfiler.record(sql, System.nanoTime() - start, 0);
+    }
+
+    /**
+     * the statement has to be executed by executeUpdateDelete or executeInsert to get recorded,
+     * its executions are recorded as batched (see QueryProfiler.recordBatched)
+     */
+    public SQLiteStatement compileStatement(String sql) {
+        return mDatabase.compileStatement(sql);
+    }
+
+    /**
+     * @param sql the sql the statement has been compiled from
+     */
+    public int executeUpdateDelete(SQLiteStatement statement, String sql) {
+        if(!mProfiler.isRecording()) {
+            return statement.executeUpdateDelete();
+        }
+        long start = System.nanoTime();
+        int result = statement.executeUpdateDelete();
+        mProfiler.recordBatched(sql, System.nanoTime() - start, result);
+        return result;
+    }
+
+    /**
+     * @param sql the sql the statement has been compiled from
+     */
+    public long executeInsert(SQLiteStatement statement, String sql) {
+        if(!mProfiler.isRecording()) {
+            return statement.executeInsert();
+        }
+        long start = System.nanoTime();
+        long result = statement.executeInsert();
+        mProfiler.recordBatched(sql, System.nanoTime() - start, result == -1 ? 0 : 1);
+        return result;
+    }
+
+    public void beginTransaction() {
+        mDatabase.beginTransaction();
+    }
+
+    public void setTransactionSuccessful() {
+        mDatabase.setTransactionSuccessful();
+    }
+
+    public void endTransaction() {
+        mDatabase.endTransaction();
+    }
+
+    public boolean inTransaction() {
+        return mDatabase.inTransaction();
+    }
+
+    private static String where(String whereClause) {
+        return whereClause == null ? "" : " WHERE " + whereClause;
+    }
+}
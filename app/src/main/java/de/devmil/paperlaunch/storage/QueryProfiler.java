@@ -0,0 +1,501 @@
+/*
+ * Copyright 2015 Devmil Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.devmil.paperlaunch.storage;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import de.devmil.paperlaunch.BuildConfig;
+
+/**
+ * Records the statements each ITransactionAction issues through the access classes:
+ * how often each query shape runs, how long it takes and how many rows it returns or modifies.
+ * Query shapes are the statements with their literals replaced by "?", so reading the children
+ * of two different folders counts as the same shape.
+ * A shape that runs more than getRepeatThreshold() times within one action is flagged as a
+ * probable N+1 pattern: it gets logged, and in strict mode (meant for tests) the action fails
+ * with an AssertionError.
+ * Executions of a precompiled statement are recorded as batched (see recordBatched) and never flagged:
+ * reusing one compiled statement for many rows is the intended way to write them.
+ * Only enabled in debug builds by default.
+ */
+public class QueryProfiler {
+    private static final String TAG = QueryProfiler.class.getSimpleName();
+
+    public static final int DEFAULT_REPEAT_THRESHOLD = 10;
+
+    //upper bounds of the latency histogram buckets in microseconds, the last bucket takes everything above
+    private static final long[] LATENCY_BUCKET_BOUNDS_US = new long[] { 100, 250, 1000, 4000, 16000 };
+
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("(?<![\\w.])-?\\d+(?:\\.\\d+)?(?![\\w.])");
+    private static final Pattern VALUE_LIST = Pattern.compile("\\(\\s*\\?(?:\\s*,\\s*\\?)*\\s*\\)");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private volatile boolean mEnabled = BuildConfig.DEBUG;
+    private volatile boolean mStrict = false;
+    private volatile int mRepeatThreshold = DEFAULT_REPEAT_THRESHOLD;
+    //the action that is currently executed by a thread
+    private final ThreadLocal<ActionRecorder> mCurrentAction = new ThreadLocal<>();
+    //guarded by itself
+    private final Map<String, ActionProfile> mProfiles = new LinkedHashMap<>();
+
+    private QueryProfiler() {
+    }
+
+    private static final Object sInstanceLockObject = new Object();
+    private static QueryProfiler sInstance = null;
+    public static QueryProfiler getInstance() {
+        synchronized (sInstanceLockObject) {
+            if (sInstance == null) {
+                sInstance = new QueryProfiler();
+            }
+            return sInstance;
+        }
+    }
+
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * Actions that are already running when this gets called aren't affected
+     */
+    public void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    public boolean isStrict() {
+        return mStrict;
+    }
+
+    /**
+     * @param strict true to fail an action that has a flagged query shape with an AssertionError
+     */
+    public void setStrict(boolean strict) {
+        mStrict = strict;
+    }
+
+    public int getRepeatThreshold() {
+        return mRepeatThreshold;
+    }
+
+    /**
+     * @param repeatThreshold the number of times a query shape may run within one action before it gets flagged
+     */
+    public void setRepeatThreshold(int repeatThreshold) {
+        mRepeatThreshold = repeatThreshold;
+    }
+
+    /**
+     * @return the upper bounds (in microseconds) of the buckets of StatementProfile.getLatencyHistogram,
+     * the histogram has one more bucket for everything above
+     */
+    public static long[] getLatencyBucketBounds() {
+        return LATENCY_BUCKET_BOUNDS_US.clone();
+    }
+
+    /**
+     * @return the name the statements of the given action (ITransactionAction or ITransactionFunction) are grouped by
+     */
+    public static String getActionName(Object action) {
+        String name = action.getClass().getName();
+        return name.substring(name.lastIndexOf('.') + 1);
+    }
+
+    /**
+     * @return a copy of the profile of the given action (see getActionName) or null if it hasn't been recorded
+     */
+    public ActionProfile getProfile(String actionName) {
+        synchronized (mProfiles) {
+            ActionProfile profile = mProfiles.get(actionName);
+            return profile == null ? null : new ActionProfile(profile);
+        }
+    }
+
+    /**
+     * @return copies of the profiles of all recorded actions
+     */
+    public List<ActionProfile> getProfiles() {
+        synchronized (mProfiles) {
+            List<ActionProfile> result = new ArrayList<>();
+            for(ActionProfile profile : mProfiles.values()) {
+                result.add(new ActionProfile(profile));
+            }
+            return result;
+        }
+    }
+
+    public void reset() {
+        synchronized (mProfiles) {
+            mProfiles.clear();
+        }
+    }
+
+    /**
+     * Throws an AssertionError if any recorded action has a flagged query shape
+     */
+    public void assertNoRepeatedQueries() {
+        for(ActionProfile profile : getProfiles()) {
+            profile.assertNoRepeatedQueries();
+        }
+    }
+
+    public void logSummary() {
+        for(ActionProfile profile : getProfiles()) {
+            Log.d(TAG, profile.toString());
+        }
+    }
+
+    /**
+     * Starts recording the statements of an action on the calling thread.
+     * Nested actions are recorded as part of the outermost one.
+     */
+    void beginAction(Object action) {
+        ActionRecorder recorder = mCurrentAction.get();
+        if(recorder != null) {
+            recorder.depth++;
+            return;
+        }
+        if(!mEnabled) {
+            return;
+        }
+        mCurrentAction.set(new ActionRecorder(getActionName(action)));
+    }
+
+    /**
+     * @param succeeded false if the action has thrown, flagged query shapes are only logged then
+     */
+    void endAction(boolean succeeded) {
+        ActionRecorder recorder = mCurrentAction.get();
+        if(recorder == null) {
+            return;
+        }
+        if(recorder.depth > 0) {
+            recorder.depth--;
+            return;
+        }
+        mCurrentAction.remove();
+
+        int threshold = mRepeatThreshold;
+        List<String> flaggedShapes = new ArrayList<>();
+        int statementCount = 0;
+        for(StatementProfile statement : recorder.statements.values()) {
+            statementCount += statement.mCount;
+            if(statement.mCount > threshold && !statement.mBatched) {
+                flaggedShapes.add(statement.mShape);
+                Log.w(TAG, "Possible N+1 pattern in " + recorder.name + ": " + statement);
+            }
+        }
+        synchronized (mProfiles) {
+            ActionProfile profile = mProfiles.get(recorder.name);
+            if(profile == null) {
+                profile = new ActionProfile(recorder.name);
+                mProfiles.put(recorder.name, profile);
+            }
+            profile.add(recorder.statements.values(), statementCount, flaggedShapes);
+        }
+        if(succeeded && mStrict && !flaggedShapes.isEmpty()) {
+            throw new AssertionError(recorder.name + " runs the same query more than " + threshold + " times: " + flaggedShapes);
+        }
+    }
+
+    /**
+     * @return true if the calling thread executes an action whose statements get recorded
+     */
+    boolean isRecording() {
+        return mCurrentAction.get() != null;
+    }
+
+    /**
+     * @param rows the number of rows the statement has returned or modified
+     */
+    void record(String sql, long durationNanos, int rows) {
+        record(sql, durationNanos, rows, false);
+    }
+
+    /**
+     * Records an execution of a precompiled statement, the executions of one statement don't get flagged
+     *
+     * @param sql the sql the statement has been compiled from
+     */
+    void recordBatched(String sql, long durationNanos, int rows) {
+        record(sql, durationNanos, rows, true);
+    }
+
+    private void record(String sql, long durationNanos, int rows, boolean batched) {
+        ActionRecorder recorder = mCurrentAction.get();
+        if(recorder == null) {
+            return;
+        }
+        String shape = toShape(sql);
+        StatementProfile statement = recorder.statements.get(shape);
+        if(statement == null) {
+            statement = new StatementProfile(shape, batched);
+            recorder.statements.put(shape, statement);
+        }
+        statement.add(durationNanos, rows);
+    }
+
+    static String toShape(String sql) {
+        String result = STRING_LITERAL.matcher(sql).replaceAll("?");
+        result = NUMBER_LITERAL.matcher(result).replaceAll("?");
+        result = VALUE_LIST.matcher(result).replaceAll("(?)");
+        return WHITESPACE.matcher(result).replaceAll(" ").trim();
+    }
+
+    private static class ActionRecorder {
+        final String name;
+        final Map<String, StatementProfile> statements = new LinkedHashMap<>();
+        int depth = 0;
+
+        ActionRecorder(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * The statements of all recorded executions of one action
+     */
+    public static class ActionProfile {
+        private String mName;
+        private int mExecutionCount = 0;
+        private int mStatementCount = 0;
+        private int mMaxStatementCount = 0;
+        private Map<String, StatementProfile> mStatements = new LinkedHashMap<>();
+        private List<String> mRepeatedShapes = new ArrayList<>();
+
+        ActionProfile(String name) {
+            mName = name;
+        }
+
+        ActionProfile(ActionProfile other) {
+            mName = other.mName;
+            mExecutionCount = other.mExecutionCount;
+            mStatementCount = other.mStatementCount;
+            mMaxStatementCount = other.mMaxStatementCount;
+            for(StatementProfile statement : other.mStatements.values()) {
+                mStatements.put(statement.mShape, new StatementProfile(statement));
+            }
+            mRepeatedShapes.addAll(other.mRepeatedShapes);
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public int getExecutionCount() {
+            return mExecutionCount;
+        }
+
+        /**
+         * @return the number of statements of all executions
+         */
+        public int getStatementCount() {
+            return mStatementCount;
+        }
+
+        /**
+         * @return the highest number of statements a single execution has issued
+         */
+        public int getMaxStatementCount() {
+            return mMaxStatementCount;
+        }
+
+        public List<StatementProfile> getStatements() {
+            return new ArrayList<>(mStatements.values());
+        }
+
+        /**
+         * @return the statements of the given shape (see toShape) or null if there are none
+         */
+        public StatementProfile getStatement(String shape) {
+            return mStatements.get(shape);
+        }
+
+        /**
+         * @return the query shapes that have run more often than the repeat threshold within one execution
+         */
+        public List<String> getRepeatedShapes() {
+            return new ArrayList<>(mRepeatedShapes);
+        }
+
+        public void assertNoRepeatedQueries() {
+            if(!mRepeatedShapes.isEmpty()) {
+                throw new AssertionError(mName + " runs the same query repeatedly: " + mRepeatedShapes);
+            }
+        }
+
+        public void assertMaxStatementCount(int maxStatementCount) {
+            if(mMaxStatementCount > maxStatementCount) {
+                throw new AssertionError(mName + " issues " + mMaxStatementCount + " statements, expected at most " + maxStatementCount);
+            }
+        }
+
+        void add(Iterable<StatementProfile> statements, int statementCount, List<String> repeatedShapes) {
+            mExecutionCount++;
+            mStatementCount += statementCount;
+            mMaxStatementCount = Math.max(mMaxStatementCount, statementCount);
+            for(StatementProfile statement : statements) {
+                StatementProfile existing = mStatements.get(statement.mShape);
+                if(existing == null) {
+                    mStatements.put(statement.mShape, new StatementProfile(statement));
+                } else {
+                    existing.add(statement);
+                }
+            }
+            for(String shape : repeatedShapes) {
+                if(!mRepeatedShapes.contains(shape)) {
+                    mRepeatedShapes.add(shape);
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder result = new StringBuilder();
+            result.append(mName)
+                    .append(": ").append(mExecutionCount).append(" executions, ")
+                    .append(mStatementCount).append(" statements (max ").append(mMaxStatementCount).append(" per execution)");
+            for(StatementProfile statement : mStatements.values()) {
+                result.append("\n  ").append(statement);
+            }
+            return result.toString();
+        }
+    }
+
+    /**
+     * The executions of one query shape
+     */
+    public static class StatementProfile {
+        private String mShape;
+        private boolean mBatched;
+        private int mCount = 0;
+        //the highest count within a single action execution
+        private int mMaxCount = 0;
+        private long mRows = 0;
+        private long mTotalNanos = 0;
+        private long mMaxNanos = 0;
+        private int[] mLatencyHistogram = new int[LATENCY_BUCKET_BOUNDS_US.length + 1];
+
+        StatementProfile(String shape, boolean batched) {
+            mShape = shape;
+            mBatched = batched;
+        }
+
+        StatementProfile(StatementProfile other) {
+            mShape = other.mShape;
+            mBatched = other.mBatched;
+            mCount = other.mCount;
+            mMaxCount = other.mMaxCount;
+            mRows = other.mRows;
+            mTotalNanos = other.mTotalNanos;
+            mMaxNanos = other.mMaxNanos;
+            mLatencyHistogram = other.mLatencyHistogram.clone();
+        }
+
+        public String getShape() {
+            return mShape;
+        }
+
+        /**
+         * @return true if the executions have reused one precompiled statement
+         */
+        public boolean isBatched() {
+            return mBatched;
+        }
+
+        public int getCount() {
+            return mCount;
+        }
+
+        /**
+         * @return the highest number of times this shape has run within a single execution of the action
+         */
+        public int getMaxCount() {
+            return mMaxCount;
+        }
+
+        /**
+         * @return the number of rows returned (queries) or modified (updates and deletes)
+         */
+        public long getRows() {
+            return mRows;
+        }
+
+        public long getTotalNanos() {
+            return mTotalNanos;
+        }
+
+        public long getMaxNanos() {
+            return mMaxNanos;
+        }
+
+        /**
+         * @return the number of executions per latency bucket, see QueryProfiler.getLatencyBucketBounds
+         */
+        public int[] getLatencyHistogram() {
+            return mLatencyHistogram.clone();
+        }
+
+        void add(long durationNanos, int rows) {
+            mCount++;
+            mMaxCount = Math.max(mMaxCount, mCount);
+            mRows += rows;
+            mTotalNanos += durationNanos;
+            mMaxNanos = Math.max(mMaxNanos, durationNanos);
+            long durationUs = durationNanos / 1000;
+            int bucket = 0;
+            while(bucket < LATENCY_BUCKET_BOUNDS_US.length && durationUs >= LATENCY_BUCKET_BOUNDS_US[bucket]) {
+                bucket++;
+            }
+            mLatencyHistogram[bucket]++;
+        }
+
+        void add(StatementProfile other) {
+            mCount += other.mCount;
+            mMaxCount = Math.max(mMaxCount, other.mMaxCount);
+            mRows += other.mRows;
+            mTotalNanos += other.mTotalNanos;
+            mMaxNanos = Math.max(mMaxNanos, other.mMaxNanos);
+            for(int i = 0; i < mLatencyHistogram.length; i++) {
+                mLatencyHistogram[i] += other.mLatencyHistogram[i];
+            }
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder histogram = new StringBuilder();
+            for(int i = 0; i < mLatencyHistogram.length; i++) {
+                if(i > 0) {
+                    histogram.append('/');
+                }
+                histogram.append(mLatencyHistogram[i]);
+            }
+            return mCount + "x " + (mBatched ? "batched " : "") + "(max " + mMaxCount + " per execution), "
+                    + mRows + " rows, "
+                    + (mTotalNanos / 1000) + "us total, "
+                    + (mMaxNanos / 1000) + "us max, "
+                    + "histogram " + histogram + ": "
+                    + mShape;
+        }
+    }
+}
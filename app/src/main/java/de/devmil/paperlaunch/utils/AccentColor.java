@@ -0,0 +1,57 @@
+/*
+ * Copyright 2015 Devmil Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.devmil.paperlaunch.utils;
+
+/**
+ * The accent color of an icon, shared by all IconDrawables of the icon.
+ * It gets computed in the background (see IconCache.computeAccentColorAsync), until then
+ * the default color is used.
+ */
+public class AccentColor {
+    //0 (transparent) if the icon has no accent color, palette colors are opaque
+    private volatile int mColor = 0;
+    private volatile boolean mComputed = false;
+
+    /**
+     * creates a color that still has to be computed
+     */
+    public AccentColor() {
+    }
+
+    /**
+     * creates an already computed color, e.g. one that has been stored with the icon
+     */
+    public AccentColor(int color) {
+        set(color);
+    }
+
+    /**
+     * @return the accent color or the given default color if the icon has none or it hasn't been computed yet
+     */
+    public int getColor(int defaultColor) {
+        int color = mColor;
+        return color == 0 ? defaultColor : color;
+    }
+
+    public boolean isComputed() {
+        return mComputed;
+    }
+
+    void set(int color) {
+        mColor = color;
+        mComputed = true;
+    }
+}
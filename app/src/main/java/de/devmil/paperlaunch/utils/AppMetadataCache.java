@@ -0,0 +1,436 @@
+/*
+ * Copyright 2015 Devmil Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.devmil.paperlaunch.utils;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import de.devmil.paperlaunch.storage.IconStore;
+
+/**
+ * Disk cache for the labels and icons resolved through the PackageManager, so loading the entries
+ * doesn't need any PackageManager calls for apps that haven't changed.
+ * There is one directory per package with one file per label or icon. Icons are stored scaled
+ * to the size of the IconCache together with their accent color, labels together with the locale
+ * they have been resolved for.
+ * Each file carries the version code of its package.
+ * Entries get dropped by PackageChangeReceiver when their package changes, by the maintenance job
+ * when their version code is outdated, and all of them after a system update.
+ */
+public class AppMetadataCache {
+    private static final String TAG = AppMetadataCache.class.getSimpleName();
+
+    private static final String DIRECTORY = "app_metadata";
+    private static final String FINGERPRINT_FILE = "fingerprint";
+    private static final String LABEL_FILE_EXTENSION = ".label";
+    private static final String ICON_FILE_EXTENSION = ".icon";
+    private static final String TEMP_FILE_EXTENSION = ".tmp";
+
+    private static final int MAGIC = 0x504C4D43;
+    private static final int VERSION = 2;
+    //magic, version, version code and, for icons, the accent color
+    private static final int HEADER_SIZE = 16;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    public interface ILabelLoader {
+        /**
+         * @return the label or null if there is none, null results aren't cached
+         */
+        String loadLabel();
+    }
+
+    private File mDirectory;
+    //locale + label key => label
+    private final Map<String, String> mLabels = new ConcurrentHashMap<>();
+
+    private AppMetadataCache() {
+    }
+
+    private static final Object sInstanceLockObject = new Object();
+    private static AppMetadataCache sInstance = null;
+    public static AppMetadataCache getInstance() {
+        synchronized (sInstanceLockObject) {
+            if (sInstance == null) {
+                sInstance = new AppMetadataCache();
+            }
+            return sInstance;
+        }
+    }
+
+    /**
+     * @param labelKey identifies the label inside of its package
+     * @return the cached label or the label returned by the loader
+     */
+    public String getLabel(Context context, String packageName, String labelKey, ILabelLoader loader) {
+        String locale = getLocale(context);
+        String memoryKey = locale + "|" + packageName + "|" + labelKey;
+        String result = mLabels.get(memoryKey);
+        if(result != null) {
+            return result;
+        }
+        File file = getFile(context, packageName, labelKey, LABEL_FILE_EXTENSION);
+        result = readLabel(file, locale);
+        if(result == null) {
+            result = loader.loadLabel();
+            if(result == null) {
+                return null;
+            }
+            writeLabel(file, getVersionCode(context, packageName), locale, result);
+        }
+        mLabels.put(memoryKey, result);
+        return result;
+    }
+
+    /**
+     * Returns the icon from the IconCache, from disk or, if it isn't cached at all, from the given loader.
+     *
+     * @param iconKey the key of the icon in the IconCache
+     */
+    public Drawable getIcon(final Context context, final String packageName, final String iconKey, final IconCache.IIconLoader loader) {
+        return IconCache.getInstance().getIcon(context, iconKey, new IconCache.IIconLoader() {
+            @Override
+            public Drawable loadIcon() {
+                final File file = getFile(context, packageName, IconCache.getSizedKey(context, iconKey), ICON_FILE_EXTENSION);
+                IconDrawable result = readIcon(file, context.getResources());
+                if(result == null) {
+                    Drawable icon = loader.loadIcon();
+                    if(icon == null) {
+                        return null;
+                    }
+                    final Bitmap bitmap = IconCache.toBitmap(icon, IconCache.getTargetSize(context));
+                    final AccentColor accentColor = new AccentColor();
+                    final int versionCode = getVersionCode(context, packageName);
+                    //the file gets written once the accent color is known
+                    IconCache.getInstance().computeAccentColorAsync(bitmap, accentColor, new Runnable() {
+                        @Override
+                        public void run() {
+                            writeIcon(file, versionCode, bitmap, accentColor.getColor(0));
+                        }
+                    });
+                    result = new IconDrawable(context.getResources(), bitmap, accentColor);
+                }
+                return result;
+            }
+        });
+    }
+
+    /**
+     * Drops everything cached for the given package, on disk and in memory
+     */
+    public void invalidatePackage(Context context, String packageName) {
+        deleteDirectory(new File(getDirectory(context), packageName));
+        String memoryKeyPart = "|" + packageName + "|";
+        for(String memoryKey : mLabels.keySet()) {
+            if(memoryKey.contains(memoryKeyPart)) {
+                mLabels.remove(memoryKey);
+            }
+        }
+        IconCache.getInstance().invalidate(AppMetadataUtils.getAppIconKey(packageName) + "@");
+        IconCache.getInstance().invalidate(AppMetadataUtils.getShortcutIconKeyPrefix(packageName));
+    }
+
+    /**
+     * Drops all labels, e.g. after the locale has changed. Outdated labels would be ignored anyway,
+     * this only frees their space.
+     */
+    public void invalidateLabels(Context context) {
+        mLabels.clear();
+        for(File packageDirectory : listPackageDirectories(getDirectory(context))) {
+            File[] files = packageDirectory.listFiles();
+            if(files == null) {
+                continue;
+            }
+            for(File file : files) {
+                if(file.getName().endsWith(LABEL_FILE_EXTENSION)) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes the entries of packages that have been removed or updated without this cache being
+     * notified. Asks the PackageManager for every cached package, so this shouldn't run on the main thread.
+     *
+     * @return the number of deleted entries
+     */
+    public int removeOutdated(Context context) {
+        int result = 0;
+        for(File packageDirectory : listPackageDirectories(getDirectory(context))) {
+            File[] files = packageDirectory.listFiles();
+            if(files == null) {
+                continue;
+            }
+            String packageName = packageDirectory.getName();
+            int versionCode = getVersionCode(context, packageName);
+            for(File file : files) {
+                if(versionCode == -1 || readVersionCode(file) != versionCode) {
+                    //the whole package has changed
+                    result += files.length;
+                    invalidatePackage(context, packageName);
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    public void clear(Context context) {
+        mLabels.clear();
+        for(File packageDirectory : listPackageDirectories(getDirectory(context))) {
+            deleteDirectory(packageDirectory);
+        }
+    }
+
+    /**
+     * @return the cache directory, emptied if it has been written by another system version
+     */
+    private synchronized File getDirectory(Context context) {
+        if(mDirectory != null) {
+            return mDirectory;
+        }
+        File directory = new File(context.getCacheDir(), DIRECTORY);
+        if(!directory.exists() && !directory.mkdirs()) {
+            Log.e(TAG, "Unable to create app metadata directory " + directory);
+        }
+        File fingerprintFile = new File(directory, FINGERPRINT_FILE);
+        byte[] fingerprint = Build.FINGERPRINT.getBytes(UTF8);
+        byte[] storedFingerprint = readFile(fingerprintFile);
+        if(storedFingerprint == null || !new String(storedFingerprint, UTF8).equals(Build.FINGERPRINT)) {
+            //updated system apps keep their version code
+            for(File packageDirectory : listPackageDirectories(directory)) {
+                deleteDirectory(packageDirectory);
+            }
+            writeFile(fingerprintFile, fingerprint);
+        }
+        mDirectory = directory;
+        return mDirectory;
+    }
+
+    private File getFile(Context context, String packageName, String key, String extension) {
+        File packageDirectory = new File(getDirectory(context), packageName);
+        return new File(packageDirectory, IconStore.computeHash(key.getBytes(UTF8)) + extension);
+    }
+
+    private static String getLocale(Context context) {
+        return context.getResources().getConfiguration().locale.toString();
+    }
+
+    /**
+     * @return the version code of the given package or -1 if it isn't installed
+     */
+    private static int getVersionCode(Context context, String packageName) {
+        try {
+            return context.getPackageManager().getPackageInfo(packageName, 0).versionCode;
+        } catch (PackageManager.NameNotFoundException e) {
+            return -1;
+        }
+    }
+
+    private static String readLabel(File file, String locale) {
+        byte[] data = readFile(file);
+        if(data == null) {
+            return null;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            if(in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            in.readInt();
+            if(!in.readUTF().equals(locale)) {
+                return null;
+            }
+            return in.readUTF();
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read label " + file, e);
+            return null;
+        }
+    }
+
+    private static void writeLabel(File file, int versionCode, String locale, String label) {
+        try {
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(data);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(versionCode);
+            out.writeUTF(locale);
+            out.writeUTF(label);
+            out.flush();
+            writeFile(file, data.toByteArray());
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write label " + file, e);
+        }
+    }
+
+    private static IconDrawable readIcon(File file, Resources resources) {
+        byte[] data = readFile(file);
+        if(data == null || data.length <= HEADER_SIZE || readVersion(data) != VERSION) {
+            return null;
+        }
+        Bitmap bitmap = BitmapFactory.decodeByteArray(data, HEADER_SIZE, data.length - HEADER_SIZE);
+        if(bitmap == null) {
+            return null;
+        }
+        int accentColor = ByteBuffer.wrap(data, HEADER_SIZE - 4, 4).getInt();
+        return new IconDrawable(resources, bitmap, new AccentColor(accentColor));
+    }
+
+    private static void writeIcon(File file, int versionCode, Bitmap bitmap, int accentColor) {
+        try {
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(data);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(versionCode);
+            out.writeInt(accentColor);
+            bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+            out.flush();
+            writeFile(file, data.toByteArray());
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write icon " + file, e);
+        }
+    }
+
+    /**
+     * @return the version code the file has been written for or -1 if it isn't valid
+     */
+    private static int readVersionCode(File file) {
+        try {
+            DataInputStream in = new DataInputStream(new FileInputStream(file));
+            try {
+                if(in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    return -1;
+                }
+                return in.readInt();
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return the format version of the given file content or -1 if it isn't valid
+     */
+    private static int readVersion(byte[] data) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            if(in.readInt() != MAGIC) {
+                return -1;
+            }
+            return in.readInt();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private static byte[] readFile(File file) {
+        if(!file.exists()) {
+            return null;
+        }
+        try {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                byte[] result = new byte[(int)file.length()];
+                int offset = 0;
+                while(offset < result.length) {
+                    int read = in.read(result, offset, result.length - offset);
+                    if(read < 0) {
+                        return null;
+                    }
+                    offset += read;
+                }
+                return result;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * writes to a temp file first, so concurrent readers never see a partially written file
+     */
+    private static void writeFile(File file, byte[] data) {
+        File directory = file.getParentFile();
+        if(!directory.exists() && !directory.mkdirs()) {
+            Log.w(TAG, "Unable to create directory " + directory);
+            return;
+        }
+        File temp = new File(directory, file.getName() + "." + Thread.currentThread().getId() + TEMP_FILE_EXTENSION);
+        try {
+            FileOutputStream out = new FileOutputStream(temp);
+            try {
+                out.write(data);
+            } finally {
+                out.close();
+            }
+            if(!temp.renameTo(file)) {
+                Log.w(TAG, "Unable to move " + temp + " to " + file);
+                temp.delete();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write " + file, e);
+            temp.delete();
+        }
+    }
+
+    private static File[] listPackageDirectories(File directory) {
+        File[] result = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isDirectory();
+            }
+        });
+        return result == null ? new File[0] : result;
+    }
+
+    private static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if(files != null) {
+            for(File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+}
@@ -29,7 +29,10 @@ import de.devmil.paperlaunch.R;
 
 public abstract class AppMetadataUtils {
 
-    public static String getAppName(Context context, Intent appIntent)
+    /**
+     * resolves the name through the AppMetadataCache, names of missing apps aren't cached
+     */
+    public static String getAppName(final Context context, Intent appIntent)
     {
 
         if(appIntent.hasExtra(Intent.EXTRA_SHORTCUT_NAME)) {
@@ -39,8 +42,21 @@ public abstract class AppMetadataUtils {
         if(appIntent.hasExtra(Intent.EXTRA_SHORTCUT_INTENT)) {
             appIntent = appIntent.getParcelableExtra(Intent.EXTRA_SHORTCUT_INTENT);
         }
-        ComponentName componentName = appIntent.getComponent();
+        final ComponentName componentName = appIntent.getComponent();
+        if(componentName == null) {
+            return null;
+        }
+
+        return AppMetadataCache.getInstance().getLabel(context, componentName.getPackageName(), componentName.flattenToString(), new AppMetadataCache.ILabelLoader() {
+            @Override
+            public String loadLabel() {
+                return loadAppName(context, componentName);
+            }
+        });
+    }
 
+    private static String loadAppName(Context context, ComponentName componentName)
+    {
         PackageManager pm = context.getPackageManager();
 
         ApplicationInfo appInfo = null;
@@ -77,15 +93,85 @@ public abstract class AppMetadataUtils {
         }
     }
 
-    public static Drawable getAppIcon(Context context, Intent launchIntent)
+    /**
+     * loads the icon through the IconCache and the AppMetadataCache, icons of missing apps aren't cached
+     */
+    public static Drawable getAppIcon(final Context context, final Intent launchIntent)
     {
-        Drawable result = null;
-        boolean isShortcut = false;
+        IconCache.IIconLoader loader = new IconCache.IIconLoader() {
+            @Override
+            public Drawable loadIcon() {
+                return loadAppIcon(context, launchIntent);
+            }
+        };
+        String packageName = getIconPackageName(launchIntent);
+        Drawable result = packageName == null
+                ? loader.loadIcon()
+                : AppMetadataCache.getInstance().getIcon(context, packageName, getAppIconKey(launchIntent), loader);
+        if(result != null) {
+            return result;
+        }
+        if(!launchIntent.hasExtra(Intent.EXTRA_SHORTCUT_INTENT)) {
+            return context.getResources().getDrawable(R.mipmap.ic_missing_app_red, context.getTheme());
+        }
+        return context.getResources().getDrawable(R.mipmap.ic_link_black_48dp, context.getTheme());
+    }
+
+    /**
+     * @return the key of the application icon in the IconCache
+     */
+    public static String getAppIconKey(String packageName) {
+        return "app:" + packageName;
+    }
+
+    /**
+     * @return the common start of the keys of all shortcut icons of the given package in the IconCache
+     */
+    public static String getShortcutIconKeyPrefix(String packageName) {
+        return "res:" + packageName + "/";
+    }
 
+    /**
+     * @return the key of the icon getAppIcon returns in the IconCache, see getIconPackageName
+     */
+    private static String getAppIconKey(Intent launchIntent) {
+        Intent.ShortcutIconResource iconRes = getShortcutIconResource(launchIntent);
+        if(iconRes != null) {
+            return getShortcutIconKeyPrefix(iconRes.packageName) + iconRes.resourceName;
+        }
+        return getAppIconKey(getIconPackageName(launchIntent));
+    }
+
+    /**
+     * @return the package the icon getAppIcon returns comes from or null if it can't be determined
+     */
+    private static String getIconPackageName(Intent launchIntent) {
+        Intent.ShortcutIconResource iconRes = getShortcutIconResource(launchIntent);
+        if(iconRes != null) {
+            return iconRes.packageName;
+        }
         if(launchIntent.hasExtra(Intent.EXTRA_SHORTCUT_INTENT)) {
-            isShortcut = true;
+            launchIntent = launchIntent.getParcelableExtra(Intent.EXTRA_SHORTCUT_INTENT);
         }
+        if(launchIntent == null || launchIntent.getComponent() == null) {
+            return null;
+        }
+        return launchIntent.getComponent().getPackageName();
+    }
 
+    private static Intent.ShortcutIconResource getShortcutIconResource(Intent launchIntent) {
+        if(!launchIntent.hasExtra(Intent.EXTRA_SHORTCUT_ICON_RESOURCE)) {
+            return null;
+        }
+        return launchIntent.getParcelableExtra(Intent.EXTRA_SHORTCUT_ICON_RESOURCE);
+    }
+
+    /**
+     * @return the icon or null if the app isn't installed
+     */
+    private static Drawable loadAppIcon(Context context, Intent launchIntent)
+    {
+        Drawable result = null;
 
         if(launchIntent.hasExtra(Intent.EXTRA_SHORTCUT_ICON_RESOURCE)) {
             result = getShortcutIcon(context, launchIntent);
@@ -108,13 +194,9 @@ public abstract class AppMetadataUtils {
             appInfo = null;
         }
         if(appInfo == null) {
-            if(!isShortcut) {
-                return context.getResources().getDrawable(R.mipmap.ic_missing_app_red, context.getTheme());
-            }
-            return context.getResources().getDrawable(R.mipmap.ic_link_black_48dp, context.getTheme());
-        } else {
-            return pm.getApplicationIcon(appInfo);
+            return null;
         }
+        return pm.getApplicationIcon(appInfo);
     }
 
     private static Drawable getShortcutIcon(Context context, Intent shortcutIntent) {
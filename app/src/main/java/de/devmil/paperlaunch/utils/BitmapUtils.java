@@ -43,10 +43,25 @@ public abstract class BitmapUtils {
 
         BitmapResult bmpResult = drawableToBitmap(drawable);
 
-        ByteArrayOutputStream stream = new ByteArrayOutputStream();
-        bmpResult.getBitmap().compress(Bitmap.CompressFormat.PNG, 100, stream);
+        byte[] byteArray = getBytes(bmpResult.getBitmap());
+
+        if(bmpResult.isNew()) {
+            bmpResult.getBitmap().recycle();
+        }
+        return byteArray;
+    }
+
+    /**
+     * Same as getBytes(Drawable) but scales the drawable down so that its larger side is at most maxSize px
+     */
+    public static byte[] getBytes(Drawable drawable, int maxSize) {
+        if(drawable == null) {
+            return null;
+        }
+
+        BitmapResult bmpResult = drawableToBitmap(drawable, maxSize);
 
-        byte[] byteArray = stream.toByteArray();
+        byte[] byteArray = getBytes(bmpResult.getBitmap());
 
         if(bmpResult.isNew()) {
             bmpResult.getBitmap().recycle();
@@ -54,6 +69,64 @@ public abstract class BitmapUtils {
         return byteArray;
     }
 
+    public static byte[] getBytes(Bitmap bitmap) {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.PNG, 100, stream);
+        return stream.toByteArray();
+    }
+
+    /**
+     * Decodes the image file so that its larger side is at most maxSize px.
+     * The file gets subsampled while decoding and the rest is scaled by the decoder, so the
+     * full size image is never loaded.
+     *
+     * @return the bitmap or null if the file can't be decoded
+     */
+    public static Bitmap decodeFile(String path, int maxSize) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+        if(options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        int largerSide = Math.max(options.outWidth, options.outHeight);
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = getSampleSize(largerSide, maxSize);
+        int sampledSide = largerSide / options.inSampleSize;
+        if(sampledSide > maxSize) {
+            //the decoder scales by inTargetDensity / inDensity (with filtering)
+            options.inScaled = true;
+            options.inDensity = sampledSide;
+            options.inTargetDensity = maxSize;
+        }
+        return BitmapFactory.decodeFile(path, options);
+    }
+
+    /**
+     * @return the larger side (in px) of the image file without decoding it or -1 if it isn't an image
+     */
+    public static int getLargerSide(String path) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+        if(options.outWidth <= 0 || options.outHeight <= 0) {
+            return -1;
+        }
+        return Math.max(options.outWidth, options.outHeight);
+    }
+
+    /**
+     * @return the largest power of 2 that keeps the given size at or above maxSize
+     */
+    static int getSampleSize(int size, int maxSize) {
+        int result = 1;
+        while(size / (result * 2) >= maxSize) {
+            result *= 2;
+        }
+        return result;
+    }
+
     public static class BitmapResult {
         private Bitmap mBitmap;
         private boolean mIsNew;
@@ -97,4 +170,67 @@ public abstract class BitmapUtils {
 
         return new BitmapResult(bitmap, true);
     }
+
+    /**
+     * Converts the drawable to a bitmap whose larger side is at most maxSize px.
+     * Drawables that aren't bitmaps (e.g. vector or adaptive icons) get drawn at the target size
+     * directly. Large bitmaps get halved (with filtering) before the final scaling step so that
+     * no source pixels are skipped.
+     */
+    public static BitmapResult drawableToBitmap(Drawable drawable, int maxSize) {
+        if(drawable == null) {
+            return null;
+        }
+        if (!(drawable instanceof BitmapDrawable)) {
+            int width = drawable.getIntrinsicWidth();
+            int height = drawable.getIntrinsicHeight();
+            int largerSide = Math.max(width, height);
+            if(width <= 0 || height <= 0 || largerSide <= maxSize) {
+                return drawableToBitmap(drawable);
+            }
+            float scale = (float)maxSize / largerSide;
+            Bitmap bitmap = Bitmap.createBitmap(
+                    Math.max(1, Math.round(width * scale)),
+                    Math.max(1, Math.round(height * scale)),
+                    Bitmap.Config.ARGB_8888);
+            Canvas canvas = new Canvas(bitmap);
+            drawable.setBounds(0, 0, canvas.getWidth(), canvas.getHeight());
+            drawable.draw(canvas);
+            return new BitmapResult(bitmap, true);
+        }
+
+        Bitmap source = ((BitmapDrawable) drawable).getBitmap();
+        Bitmap bitmap = source;
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        if(Math.max(width, height) <= maxSize) {
+            return new BitmapResult(bitmap, false);
+        }
+        while(Math.max(width, height) / 2 >= maxSize) {
+            width = Math.max(1, width / 2);
+            height = Math.max(1, height / 2);
+            bitmap = replaceScaled(bitmap, source, width, height);
+        }
+        float scale = (float)maxSize / Math.max(width, height);
+        bitmap = replaceScaled(
+                bitmap,
+                source,
+                Math.max(1, Math.round(width * scale)),
+                Math.max(1, Math.round(height * scale)));
+        return new BitmapResult(bitmap, bitmap != source);
+    }
+
+    /**
+     * scales the bitmap and recycles it if it is an intermediate result
+     */
+    private static Bitmap replaceScaled(Bitmap bitmap, Bitmap source, int width, int height) {
+        if(bitmap.getWidth() == width && bitmap.getHeight() == height) {
+            return bitmap;
+        }
+        Bitmap result = Bitmap.createScaledBitmap(bitmap, width, height, true);
+        if(bitmap != source && result != bitmap) {
+            bitmap.recycle();
+        }
+        return result;
+    }
 }
@@ -18,11 +18,9 @@ package de.devmil.paperlaunch.utils;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
-import android.view.View;
-import android.widget.FrameLayout;
-import android.widget.ImageView;
 
 import java.util.List;
 
@@ -30,14 +28,24 @@ import de.devmil.paperlaunch.R;
 import de.devmil.paperlaunch.model.IEntry;
 import de.devmil.paperlaunch.view.utils.ViewUtils;
 
+/**
+ * Draws the image of a folder: the folder frame with the icons of its first entries in a 3x2 grid.
+ * See FolderImageRenderer to create the image in the background.
+ */
 public class FolderImageHelper {
 
-    public static Bitmap createImageFromEntries(Context context, List<IEntry> entries, float imgSizeDip) {
-
-        FrameLayout imgLayout = new FrameLayout(context);
+    public static final int COLS = 3;
+    public static final int ROWS = 2;
 
-        int cols = 3;
-        int rows = 2;
+    /**
+     * Draws the frame and the icons straight onto the canvas of the resulting bitmap.
+     * The icons are drawn like an ImageView with ScaleType CENTER_INSIDE would draw them.
+     *
+     * @param reusableBitmap a bitmap of a previous image that isn't used any more, may be null.
+     *                       It gets drawn into if it has the size of the image.
+     * @return the image, the given bitmap if it could be reused
+     */
+    public static Bitmap createImageFromEntries(Context context, List<IEntry> entries, float imgSizeDip, Bitmap reusableBitmap) {
 
         int sizePx = (int) ViewUtils.getPxFromDip(context, imgSizeDip);
 
@@ -48,56 +56,57 @@ public class FolderImageHelper {
 
         Rect contentRect = new Rect(offsetLeftPx, offsetTopPx, sizePx - offsetRightPx, sizePx - offsetBottomPx);
 
-        Rect cellRect = new Rect(0, 0, contentRect.width() / cols, contentRect.height() / rows);
-
-        imgLayout.setBackgroundResource(R.mipmap.folder_frame);
-
-        int idx = 0;
-
-        for(int r=0; r<rows; r++) {
-            if(entries.size() <= idx) {
-                break;
-            }
-            for(int c=0; c<cols; c++) {
-                if(entries.size() <= idx) {
-                    break;
-                }
-
-                IEntry entry = entries.get(idx);
-
-                Drawable img = entry.getFolderSummaryIcon(context);
-                ImageView entryImageView = new ImageView(context);
-                entryImageView.setImageDrawable(img);
-                entryImageView.setScaleType(ImageView.ScaleType.CENTER_INSIDE);
+        int cellWidth = contentRect.width() / COLS;
+        int cellHeight = contentRect.height() / ROWS;
 
-                entryImageView.setMaxHeight(cellRect.height());
-                entryImageView.setMinimumHeight(cellRect.height());
-                entryImageView.setMaxWidth(cellRect.width());
-                entryImageView.setMinimumWidth(cellRect.width());
-
-                FrameLayout.LayoutParams params = new FrameLayout.LayoutParams(cellRect.width(), cellRect.height());
-                params.setMargins(
-                        contentRect.left + c * cellRect.width(),
-                        contentRect.top + r * cellRect.height(),
-                        0,
-                        0);
+        Bitmap result;
+        if(reusableBitmap != null && reusableBitmap.isMutable()
+                && reusableBitmap.getWidth() == sizePx && reusableBitmap.getHeight() == sizePx) {
+            result = reusableBitmap;
+            result.eraseColor(Color.TRANSPARENT);
+        } else {
+            result = Bitmap.createBitmap(sizePx, sizePx, Bitmap.Config.ARGB_8888);
+        }
+        Canvas canvas = new Canvas(result);
 
-                imgLayout.addView(entryImageView, params);
+        Drawable frame = context.getResources().getDrawable(R.mipmap.folder_frame, context.getTheme());
+        if(frame != null) {
+            frame.setBounds(0, 0, sizePx, sizePx);
+            frame.draw(canvas);
+        }
 
-                idx++;
+        Rect iconRect = new Rect();
+        int count = Math.min(entries.size(), COLS * ROWS);
+        for(int idx=0; idx<count; idx++) {
+            Drawable img = entries.get(idx).getFolderSummaryIcon(context);
+            if(img == null) {
+                continue;
             }
+            int left = contentRect.left + (idx % COLS) * cellWidth;
+            int top = contentRect.top + (idx / COLS) * cellHeight;
+            centerInside(img, left, top, cellWidth, cellHeight, iconRect);
+            img.setBounds(iconRect);
+            img.draw(canvas);
         }
 
-        imgLayout.measure(
-                View.MeasureSpec.UNSPECIFIED,
-                View.MeasureSpec.UNSPECIFIED);
-        imgLayout.layout(0, 0, sizePx, sizePx);
-
-        Bitmap result = Bitmap.createBitmap(sizePx, sizePx, Bitmap.Config.ARGB_8888);
-
-        Canvas canvas = new Canvas(result);
-        imgLayout.draw(canvas);
-
         return result;
     }
+
+    /**
+     * the bounds of the drawable inside of the cell, only scaled down if it is larger than the cell
+     */
+    private static void centerInside(Drawable drawable, int left, int top, int width, int height, Rect result) {
+        int drawableWidth = drawable.getIntrinsicWidth();
+        int drawableHeight = drawable.getIntrinsicHeight();
+        if(drawableWidth <= 0 || drawableHeight <= 0) {
+            result.set(left, top, left + width, top + height);
+            return;
+        }
+        float scale = Math.min(1f, Math.min((float)width / drawableWidth, (float)height / drawableHeight));
+        int scaledWidth = Math.round(drawableWidth * scale);
+        int scaledHeight = Math.round(drawableHeight * scale);
+        int scaledLeft = left + (width - scaledWidth) / 2;
+        int scaledTop = top + (height - scaledHeight) / 2;
+        result.set(scaledLeft, scaledTop, scaledLeft + scaledWidth, scaledTop + scaledHeight);
+    }
 }
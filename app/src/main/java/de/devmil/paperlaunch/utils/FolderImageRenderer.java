@@ -0,0 +1,201 @@
+/*
+ * Copyright 2015 Devmil Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.devmil.paperlaunch.utils;
+
+import android.content.Context;
+import android.content.Intent;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import de.devmil.paperlaunch.model.IEntry;
+import de.devmil.paperlaunch.model.Launch;
+import de.devmil.paperlaunch.storage.IconStore;
+import de.devmil.paperlaunch.storage.LaunchDTO;
+
+/**
+ * Creates folder images (see FolderImageHelper) on a background thread.
+ * Requests for the same folder are coalesced: a request that comes in while an older one is
+ * still waiting replaces it, so a burst of modifications renders the folder once.
+ * A request is skipped if the icons of the first entries are the same as in the image that has
+ * been rendered last for the folder, e.g. when entries further down the list got reordered.
+ * The images are delivered encoded (see IconStore.encode), so the bitmap they get drawn into is reused.
+ */
+public class FolderImageRenderer {
+    private static final String TAG = FolderImageRenderer.class.getSimpleName();
+
+    public interface IRenderListener {
+        /**
+         * gets called on the main thread
+         *
+         * @param iconData the image encoded as icon, see IconStore.encode
+         */
+        void onImageRendered(byte[] iconData);
+    }
+
+    private static class Request {
+        Context context;
+        List<IEntry> entries;
+        float imgSizeDip;
+        String signature;
+        IRenderListener listener;
+    }
+
+    private final Object mLockObject = new Object();
+    //folder id => request that is waiting to be rendered
+    private final Map<Long, Request> mPendingRequests = new HashMap<>();
+    //folder id => signature of the image that has been rendered last
+    private final Map<Long, String> mRenderedSignatures = new HashMap<>();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    //the bitmap the last image has been drawn into, only used by the render thread
+    private Bitmap mImageBitmap;
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            return new Thread(r, "FolderImageRenderer");
+        }
+    });
+
+    private FolderImageRenderer() {
+    }
+
+    private static final Object sInstanceLockObject = new Object();
+    private static FolderImageRenderer sInstance = null;
+    public static FolderImageRenderer getInstance() {
+        synchronized (sInstanceLockObject) {
+            if (sInstance == null) {
+                sInstance = new FolderImageRenderer();
+            }
+            return sInstance;
+        }
+    }
+
+    /**
+     * Renders the image of the given folder in the background, unless it would look like the
+     * image that has been rendered last for it.
+     * Has to be called on the main thread.
+     *
+     * @param entries the content of the folder, only read during this call
+     * @param listener gets the image, not called if the request gets replaced by a newer one or skipped
+     */
+    public void requestImage(Context context, final long folderId, List<IEntry> entries, float imgSizeDip, IRenderListener listener) {
+        Request request = new Request();
+        request.context = context.getApplicationContext();
+        //the entries may be modified as soon as this returns
+        request.entries = new ArrayList<>(entries.subList(0, Math.min(entries.size(), FolderImageHelper.COLS * FolderImageHelper.ROWS)));
+        request.imgSizeDip = imgSizeDip;
+        request.signature = getSignature(request.entries, imgSizeDip);
+        request.listener = listener;
+
+        synchronized (mLockObject) {
+            if(request.signature.equals(mRenderedSignatures.get(folderId))) {
+                //a waiting request would change the image, this one changes it back
+                mPendingRequests.remove(folderId);
+                return;
+            }
+            boolean queued = mPendingRequests.containsKey(folderId);
+            mPendingRequests.put(folderId, request);
+            if(queued) {
+                return;
+            }
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                render(folderId);
+            }
+        });
+    }
+
+    /**
+     * Forgets the image that has been rendered last for the given folder, so the next request renders it
+     */
+    public void invalidate(long folderId) {
+        synchronized (mLockObject) {
+            mRenderedSignatures.remove(folderId);
+        }
+    }
+
+    private void render(long folderId) {
+        final Request request;
+        synchronized (mLockObject) {
+            request = mPendingRequests.remove(folderId);
+        }
+        //skipped in the meantime
+        if(request == null) {
+            return;
+        }
+        final byte[] iconData;
+        try {
+            mImageBitmap = FolderImageHelper.createImageFromEntries(request.context, request.entries, request.imgSizeDip, mImageBitmap);
+            iconData = new IconStore(request.context).encode(new BitmapDrawable(request.context.getResources(), mImageBitmap));
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Error rendering the image of folder " + folderId, e);
+            return;
+        }
+        synchronized (mLockObject) {
+            mRenderedSignatures.put(folderId, request.signature);
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                request.listener.onImageRendered(iconData);
+            }
+        });
+    }
+
+    /**
+     * @return a string that is equal for entries that result in the same image
+     */
+    private static String getSignature(List<IEntry> entries, float imgSizeDip) {
+        StringBuilder result = new StringBuilder();
+        result.append(imgSizeDip);
+        for(IEntry entry : entries) {
+            result.append('|');
+            if(entry.isFolder()) {
+                //folders are shown with the same summary icon
+                result.append("folder");
+            } else if(entry instanceof Launch) {
+                result.append(getIconSignature(((Launch) entry).getDto()));
+            } else {
+                //unknown entries always get rendered
+                result.append(System.identityHashCode(entry));
+            }
+        }
+        return result.toString();
+    }
+
+    private static String getIconSignature(LaunchDTO launch) {
+        if(launch.isIconChanged()) {
+            return "changed:" + System.identityHashCode(launch.getIcon());
+        }
+        if(launch.getIconHash() != null) {
+            return "icon:" + launch.getIconHash();
+        }
+        Intent launchIntent = launch.getLaunchIntent();
+        return "app:" + (launchIntent == null ? null : launchIntent.toUri(0));
+    }
+}
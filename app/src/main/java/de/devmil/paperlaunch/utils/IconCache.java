@@ -0,0 +1,286 @@
+/*
+ * Copyright 2015 Devmil Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.devmil.paperlaunch.utils;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.drawable.Drawable;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import de.devmil.paperlaunch.view.utils.ColorUtils;
+
+/**
+ * Process wide memory cache for icons, shared by the launcher overlay, the folder editor and the app picker.
+ * Icons are kept as bitmaps scaled down to the size they are displayed at, keyed by the icon
+ * (e.g. the package or the hash of a stored icon), the target size and the density.
+ * The cache is bounded by the byte size of the bitmaps and shrinks when the system asks to trim memory.
+ * Every call returns a new IconDrawable, so callers can't influence each other by modifying it.
+ * The accent color of each icon is computed once in the background when it enters the cache, see IconDrawable.
+ * In strict mode (meant for tests) computing an accent color on the main thread throws an IllegalStateException.
+ */
+public class IconCache {
+    private static final String TAG = IconCache.class.getSimpleName();
+
+    //part of the heap the cached bitmaps may use
+    private static final int MAX_SIZE_HEAP_DIVISOR = 16;
+
+    public interface IIconLoader {
+        /**
+         * @return the icon or null if there is none, null results aren't cached
+         */
+        Drawable loadIcon();
+    }
+
+    private static class CachedIcon {
+        final Bitmap bitmap;
+        final AccentColor accentColor;
+
+        CachedIcon(Bitmap bitmap, AccentColor accentColor) {
+            this.bitmap = bitmap;
+            this.accentColor = accentColor;
+        }
+    }
+
+    private final LruCache<String, CachedIcon> mIcons;
+    //computes the accent colors one after the other, Palette is too slow for the main thread
+    private final ExecutorService mAccentColorExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread result = new Thread(r, "IconCache-AccentColor");
+            result.setPriority(Thread.MIN_PRIORITY);
+            return result;
+        }
+    });
+    private volatile boolean mStrict = false;
+    private Context mAppContext;
+    private final ComponentCallbacks2 mTrimMemoryCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            trimMemory(level);
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+        }
+
+        @Override
+        public void onLowMemory() {
+            mIcons.evictAll();
+        }
+    };
+
+    private IconCache() {
+        int maxSize = (int)Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / MAX_SIZE_HEAP_DIVISOR);
+        mIcons = new LruCache<String, CachedIcon>(maxSize) {
+            @Override
+            protected int sizeOf(String key, CachedIcon value) {
+                return value.bitmap.getAllocationByteCount();
+            }
+        };
+    }
+
+    private static final Object sInstanceLockObject = new Object();
+    private static IconCache sInstance = null;
+    public static IconCache getInstance() {
+        synchronized (sInstanceLockObject) {
+            if (sInstance == null) {
+                sInstance = new IconCache();
+            }
+            return sInstance;
+        }
+    }
+
+    /**
+     * @return the size (in px) icons get cached with
+     */
+    public static int getTargetSize(Context context) {
+        return context.getResources().getDimensionPixelSize(android.R.dimen.app_icon_size);
+    }
+
+    /**
+     * Returns the cached icon or loads it with the given loader.
+     *
+     * @param iconKey identifies the icon independent of size and density, null to load the icon without caching it
+     * @return the icon or null if the loader hasn't found one
+     */
+    public Drawable getIcon(Context context, String iconKey, IIconLoader loader) {
+        if(iconKey == null) {
+            return loader.loadIcon();
+        }
+        registerTrimMemoryCallbacks(context.getApplicationContext());
+        String key = getSizedKey(context, iconKey);
+
+        CachedIcon cachedIcon = mIcons.get(key);
+        if(cachedIcon == null) {
+            Drawable icon = loader.loadIcon();
+            if(icon == null) {
+                return null;
+            }
+            Bitmap bitmap = toBitmap(icon, getTargetSize(context));
+            //icons of the AppMetadataCache and the IconStore bring their accent color with them
+            AccentColor accentColor;
+            if(icon instanceof IconDrawable) {
+                accentColor = ((IconDrawable)icon).getAccentColorHolder();
+            } else {
+                accentColor = new AccentColor();
+                computeAccentColorAsync(bitmap, accentColor, null);
+            }
+            cachedIcon = new CachedIcon(bitmap, accentColor);
+            mIcons.put(key, cachedIcon);
+        }
+        return new IconDrawable(context.getResources(), cachedIcon.bitmap, cachedIcon.accentColor);
+    }
+
+    /**
+     * loads a drawable of this app through the cache, e.g. to get its accent color
+     */
+    public Drawable getResourceIcon(final Context context, final int resId) {
+        return getIcon(context, "resource:" + resId, new IIconLoader() {
+            @Override
+            public Drawable loadIcon() {
+                return context.getResources().getDrawable(resId, context.getTheme());
+            }
+        });
+    }
+
+    /**
+     * @return the given icon key extended by the target size and the density
+     */
+    static String getSizedKey(Context context, String iconKey) {
+        return iconKey + "@" + getTargetSize(context) + "/" + context.getResources().getDisplayMetrics().densityDpi;
+    }
+
+    /**
+     * Drops all icons whose key starts with the given prefix, e.g. after the icon has changed
+     */
+    public void invalidate(String iconKeyPrefix) {
+        for(String key : mIcons.snapshot().keySet()) {
+            if(key.startsWith(iconKeyPrefix)) {
+                mIcons.remove(key);
+            }
+        }
+    }
+
+    public void clear() {
+        mIcons.evictAll();
+    }
+
+    public boolean isStrict() {
+        return mStrict;
+    }
+
+    /**
+     * @param strict true to throw an IllegalStateException when an accent color gets computed on the main thread
+     */
+    public void setStrict(boolean strict) {
+        mStrict = strict;
+    }
+
+    /**
+     * Computes the accent color of the given bitmap in the background and sets it to accentColor.
+     * The bitmap must not be modified afterwards.
+     *
+     * @param onComputed gets called on the background thread once the color has been set, e.g. to store it; may be null
+     */
+    public void computeAccentColorAsync(final Bitmap bitmap, final AccentColor accentColor, final Runnable onComputed) {
+        mAccentColorExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                accentColor.set(computeAccentColor(bitmap));
+                if(onComputed != null) {
+                    onComputed.run();
+                }
+            }
+        });
+    }
+
+    public int getHitCount() {
+        return mIcons.hitCount();
+    }
+
+    public int getMissCount() {
+        return mIcons.missCount();
+    }
+
+    public int getEvictionCount() {
+        return mIcons.evictionCount();
+    }
+
+    /**
+     * @return the number of bytes used by the cached bitmaps
+     */
+    public int getSize() {
+        return mIcons.size();
+    }
+
+    public int getMaxSize() {
+        return mIcons.maxSize();
+    }
+
+    @Override
+    public String toString() {
+        return "IconCache[size=" + getSize() + "/" + getMaxSize()
+                + ", hits=" + getHitCount()
+                + ", misses=" + getMissCount()
+                + ", evictions=" + getEvictionCount() + "]";
+    }
+
+    private void trimMemory(int level) {
+        if(level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            mIcons.evictAll();
+        } else if(level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            mIcons.trimToSize(mIcons.maxSize() / 4);
+        } else {
+            //the UI got hidden or memory starts to get low, the overlay still needs its icons
+            mIcons.trimToSize(mIcons.maxSize() / 2);
+        }
+        Log.d(TAG, "Trimmed to level " + level + ": " + this);
+    }
+
+    private synchronized void registerTrimMemoryCallbacks(Context appContext) {
+        if(mAppContext == null) {
+            mAppContext = appContext;
+            mAppContext.registerComponentCallbacks(mTrimMemoryCallbacks);
+        }
+    }
+
+    /**
+     * @return the accent color of the given icon or 0 if it has none, see IconDrawable
+     */
+    private static int computeAccentColor(Bitmap bitmap) {
+        if(getInstance().isStrict() && Looper.myLooper() == Looper.getMainLooper()) {
+            throw new IllegalStateException("Accent color computed on the main thread");
+        }
+        return ColorUtils.getBackgroundColorFromImage(bitmap, 0);
+    }
+
+    /**
+     * @return the bitmap of the icon, scaled down if it is larger than the target size
+     */
+    static Bitmap toBitmap(Drawable icon, int targetSize) {
+        return BitmapUtils.drawableToBitmap(icon, targetSize).getBitmap();
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2015 Devmil Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.devmil.paperlaunch.utils;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+
+/**
+ * Icon handed out by the IconCache, carries the accent color that gets computed in the background
+ * when the icon is loaded, so it never has to be computed while the icon is shown.
+ */
+public class IconDrawable extends BitmapDrawable {
+    private AccentColor mAccentColor;
+
+    public IconDrawable(Resources resources, Bitmap bitmap, AccentColor accentColor) {
+        super(resources, bitmap);
+        mAccentColor = accentColor;
+    }
+
+    /**
+     * @return the accent color or the given default color if the icon has none or it hasn't been computed yet
+     */
+    public int getAccentColor(int defaultColor) {
+        return mAccentColor.getColor(defaultColor);
+    }
+
+    AccentColor getAccentColorHolder() {
+        return mAccentColor;
+    }
+}
@@ -0,0 +1,415 @@
+/*
+ * Copyright 2015 Devmil Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.devmil.paperlaunch.utils;
+
+import android.content.ComponentName;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Bundle;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Compact, versioned binary format for launch intents.
+ * Stores action, categories, component, package, data, type, flags and typed extras.
+ * Replaces the Java serialization + Base64 format of IntentSerializer, which is only used
+ * for reading data written by older versions.
+ */
+public abstract class IntentCodec {
+
+    private static final String TAG = IntentCodec.class.getSimpleName();
+
+    private static final int MAGIC = 0x504C;
+    private static final int VERSION = 1;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_STRING = 1;
+    private static final byte TYPE_INT = 2;
+    private static final byte TYPE_LONG = 3;
+    private static final byte TYPE_BOOLEAN = 4;
+    private static final byte TYPE_FLOAT = 5;
+    private static final byte TYPE_DOUBLE = 6;
+    private static final byte TYPE_STRING_ARRAY = 7;
+    private static final byte TYPE_BUNDLE = 8;
+    private static final byte TYPE_INTENT = 9;
+    private static final byte TYPE_SHORTCUT_ICON_RESOURCE = 10;
+    private static final byte TYPE_CHAR_SEQUENCE = 11;
+    private static final byte TYPE_BYTE_ARRAY = 12;
+    private static final byte TYPE_INT_ARRAY = 13;
+    private static final byte TYPE_LONG_ARRAY = 14;
+    private static final byte TYPE_SERIALIZABLE = 15;
+
+    public static byte[] encode(Intent intent) {
+        if(intent == null) {
+            return null;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeShort(MAGIC);
+            out.writeByte(VERSION);
+            writeIntent(out, intent);
+            out.flush();
+        } catch (IOException e) {
+            Log.e(TAG, "Error encoding Intent", e);
+            return null;
+        }
+        return bytes.toByteArray();
+    }
+
+    public static Intent decode(byte[] data) {
+        if(data == null) {
+            return null;
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        try {
+            if(in.readUnsignedShort() != MAGIC) {
+                Log.e(TAG, "Unknown Intent format");
+                return null;
+            }
+            int version = in.readUnsignedByte();
+            if(version > VERSION) {
+                Log.e(TAG, "Unsupported Intent format version " + version);
+                return null;
+            }
+            return readIntent(in);
+        } catch (IOException e) {
+            Log.e(TAG, "Error decoding Intent", e);
+            return null;
+        }
+    }
+
+    private static void writeIntent(DataOutputStream out, Intent intent) throws IOException {
+        writeString(out, intent.getAction());
+
+        Set<String> categories = intent.getCategories();
+        if(categories == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(categories.size());
+            for(String category : categories) {
+                writeString(out, category);
+            }
+        }
+
+        ComponentName component = intent.getComponent();
+        writeString(out, component == null ? null : component.getPackageName());
+        writeString(out, component == null ? null : component.getClassName());
+        writeString(out, intent.getPackage());
+        writeString(out, intent.getDataString());
+        writeString(out, intent.getType());
+        out.writeInt(intent.getFlags());
+        writeBundle(out, intent.getExtras());
+    }
+
+    private static Intent readIntent(DataInputStream in) throws IOException {
+        Intent result = new Intent();
+        result.setAction(readString(in));
+
+        int categoryCount = in.readInt();
+        for(int i=0; i<categoryCount; i++) {
+            result.addCategory(readString(in));
+        }
+
+        String componentPackage = readString(in);
+        String componentClass = readString(in);
+        if(componentPackage != null && componentClass != null) {
+            result.setComponent(new ComponentName(componentPackage, componentClass));
+        }
+        result.setPackage(readString(in));
+
+        String data = readString(in);
+        String type = readString(in);
+        if(data != null && type != null) {
+            result.setDataAndType(Uri.parse(data), type);
+        } else if(data != null) {
+            result.setData(Uri.parse(data));
+        } else if(type != null) {
+            result.setType(type);
+        }
+        result.setFlags(in.readInt());
+
+        Bundle extras = readBundle(in);
+        if(extras != null) {
+            result.putExtras(extras);
+        }
+        return result;
+    }
+
+    private static void writeBundle(DataOutputStream out, Bundle bundle) throws IOException {
+        if(bundle == null) {
+            out.writeInt(-1);
+            return;
+        }
+        //values of unsupported types are skipped, so they have to be filtered before the count is written
+        List<String> keys = new ArrayList<>();
+        List<Object> values = new ArrayList<>();
+        for(String key : bundle.keySet()) {
+            Object value = bundle.get(key);
+            if(getType(value) >= 0) {
+                keys.add(key);
+                values.add(value);
+            }
+        }
+        out.writeInt(keys.size());
+        for(int i=0; i<keys.size(); i++) {
+            writeString(out, keys.get(i));
+            writeValue(out, values.get(i));
+        }
+    }
+
+    private static Bundle readBundle(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if(count < 0) {
+            return null;
+        }
+        Bundle result = new Bundle();
+        for(int i=0; i<count; i++) {
+            String key = readString(in);
+            readValue(in, result, key);
+        }
+        return result;
+    }
+
+    private static byte getType(Object value) {
+        if(value == null) {
+            return TYPE_NULL;
+        } else if(value instanceof String) {
+            return TYPE_STRING;
+        } else if(value instanceof Integer) {
+            return TYPE_INT;
+        } else if(value instanceof Long) {
+            return TYPE_LONG;
+        } else if(value instanceof Boolean) {
+            return TYPE_BOOLEAN;
+        } else if(value instanceof Float) {
+            return TYPE_FLOAT;
+        } else if(value instanceof Double) {
+            return TYPE_DOUBLE;
+        } else if(value instanceof String[]) {
+            return TYPE_STRING_ARRAY;
+        } else if(value instanceof Bundle) {
+            return TYPE_BUNDLE;
+        } else if(value instanceof Intent) {
+            return TYPE_INTENT;
+        } else if(value instanceof Intent.ShortcutIconResource) {
+            return TYPE_SHORTCUT_ICON_RESOURCE;
+        } else if(value instanceof CharSequence) {
+            return TYPE_CHAR_SEQUENCE;
+        } else if(value instanceof byte[]) {
+            return TYPE_BYTE_ARRAY;
+        } else if(value instanceof int[]) {
+            return TYPE_INT_ARRAY;
+        } else if(value instanceof long[]) {
+            return TYPE_LONG_ARRAY;
+        } else if(value instanceof Serializable) {
+            return TYPE_SERIALIZABLE;
+        }
+        return -1;
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        byte type = getType(value);
+        out.writeByte(type);
+        switch(type) {
+            case TYPE_NULL:
+                break;
+            case TYPE_STRING:
+                writeString(out, (String)value);
+                break;
+            case TYPE_INT:
+                out.writeInt((Integer)value);
+                break;
+            case TYPE_LONG:
+                out.writeLong((Long)value);
+                break;
+            case TYPE_BOOLEAN:
+                out.writeBoolean((Boolean)value);
+                break;
+            case TYPE_FLOAT:
+                out.writeFloat((Float)value);
+                break;
+            case TYPE_DOUBLE:
+                out.writeDouble((Double)value);
+                break;
+            case TYPE_STRING_ARRAY:
+                String[] strings = (String[])value;
+                out.writeInt(strings.length);
+                for(String s : strings) {
+                    writeString(out, s);
+                }
+                break;
+            case TYPE_BUNDLE:
+                writeBundle(out, (Bundle)value);
+                break;
+            case TYPE_INTENT:
+                writeIntent(out, (Intent)value);
+                break;
+            case TYPE_SHORTCUT_ICON_RESOURCE:
+                Intent.ShortcutIconResource iconResource = (Intent.ShortcutIconResource)value;
+                writeString(out, iconResource.packageName);
+                writeString(out, iconResource.resourceName);
+                break;
+            case TYPE_CHAR_SEQUENCE:
+                writeString(out, value.toString());
+                break;
+            case TYPE_BYTE_ARRAY:
+                writeBytes(out, (byte[])value);
+                break;
+            case TYPE_INT_ARRAY:
+                int[] ints = (int[])value;
+                out.writeInt(ints.length);
+                for(int i : ints) {
+                    out.writeInt(i);
+                }
+                break;
+            case TYPE_LONG_ARRAY:
+                long[] longs = (long[])value;
+                out.writeInt(longs.length);
+                for(long l : longs) {
+                    out.writeLong(l);
+                }
+                break;
+            case TYPE_SERIALIZABLE:
+                ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+                ObjectOutputStream objectOut = new ObjectOutputStream(serialized);
+                objectOut.writeObject(value);
+                objectOut.close();
+                writeBytes(out, serialized.toByteArray());
+                break;
+        }
+    }
+
+    private static void readValue(DataInputStream in, Bundle target, String key) throws IOException {
+        byte type = in.readByte();
+        switch(type) {
+            case TYPE_NULL:
+                target.putString(key, null);
+                break;
+            case TYPE_STRING:
+                target.putString(key, readString(in));
+                break;
+            case TYPE_INT:
+                target.putInt(key, in.readInt());
+                break;
+            case TYPE_LONG:
+                target.putLong(key, in.readLong());
+                break;
+            case TYPE_BOOLEAN:
+                target.putBoolean(key, in.readBoolean());
+                break;
+            case TYPE_FLOAT:
+                target.putFloat(key, in.readFloat());
+                break;
+            case TYPE_DOUBLE:
+                target.putDouble(key, in.readDouble());
+                break;
+            case TYPE_STRING_ARRAY:
+                String[] strings = new String[in.readInt()];
+                for(int i=0; i<strings.length; i++) {
+                    strings[i] = readString(in);
+                }
+                target.putStringArray(key, strings);
+                break;
+            case TYPE_BUNDLE:
+                target.putBundle(key, readBundle(in));
+                break;
+            case TYPE_INTENT:
+                target.putParcelable(key, readIntent(in));
+                break;
+            case TYPE_SHORTCUT_ICON_RESOURCE:
+                Intent.ShortcutIconResource iconResource = new Intent.ShortcutIconResource();
+                iconResource.packageName = readString(in);
+                iconResource.resourceName = readString(in);
+                target.putParcelable(key, iconResource);
+                break;
+            case TYPE_CHAR_SEQUENCE:
+                target.putCharSequence(key, readString(in));
+                break;
+            case TYPE_BYTE_ARRAY:
+                target.putByteArray(key, readBytes(in));
+                break;
+            case TYPE_INT_ARRAY:
+                int[] ints = new int[in.readInt()];
+                for(int i=0; i<ints.length; i++) {
+                    ints[i] = in.readInt();
+                }
+                target.putIntArray(key, ints);
+                break;
+            case TYPE_LONG_ARRAY:
+                long[] longs = new long[in.readInt()];
+                for(int i=0; i<longs.length; i++) {
+                    longs[i] = in.readLong();
+                }
+                target.putLongArray(key, longs);
+                break;
+            case TYPE_SERIALIZABLE:
+                ObjectInputStream objectIn = new ObjectInputStream(new ByteArrayInputStream(readBytes(in)));
+                try {
+                    target.putSerializable(key, (Serializable)objectIn.readObject());
+                } catch (ClassNotFoundException e) {
+                    Log.w(TAG, "Skipping extra " + key, e);
+                } finally {
+                    objectIn.close();
+                }
+                break;
+            default:
+                throw new IOException("Unknown value type " + type);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        writeBytes(out, value == null ? null : value.getBytes(UTF8));
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = readBytes(in);
+        return bytes == null ? null : new String(bytes, UTF8);
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+        if(value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(value.length);
+        out.write(value);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if(length < 0) {
+            return null;
+        }
+        byte[] result = new byte[length];
+        in.readFully(result);
+        return result;
+    }
+}
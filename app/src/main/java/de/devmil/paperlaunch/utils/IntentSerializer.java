@@ -31,6 +31,10 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 
+/**
+ * Legacy launch intent format, new data is written by IntentCodec.
+ * Only kept to read launches stored by older versions.
+ */
 public class IntentSerializer {
 	
 	private static final String KEY_ACTION = "Action";
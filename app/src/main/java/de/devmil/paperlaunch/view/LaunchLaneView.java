@@ -34,7 +34,6 @@ import java.util.List;
 
 import de.devmil.paperlaunch.R;
 import de.devmil.paperlaunch.model.IEntry;
-import de.devmil.paperlaunch.utils.BitmapUtils;
 import de.devmil.paperlaunch.utils.PositionAndSizeEvaluator;
 import de.devmil.paperlaunch.view.utils.ViewUtils;
 import de.devmil.paperlaunch.view.utils.ColorUtils;
@@ -44,6 +43,7 @@ public class LaunchLaneView extends RelativeLayout {
     interface ILaneListener {
         void onItemSelected(IEntry selectedItem);
         void onItemSelecting(IEntry selectedItem);
+        void onItemFocused(IEntry focusedItem);
         void onStateChanged(LaunchLaneViewModel.State oldState, LaunchLaneViewModel.State newState);
     }
 
@@ -394,23 +394,17 @@ public class LaunchLaneView extends RelativeLayout {
 
         mSelectedItemTextView.setText(mFocusedEntryView.getEntry().getName(getContext()));
 
-        BitmapUtils.BitmapResult bmpResult = BitmapUtils.drawableToBitmap(drawable);
-        if(useIconColor
-                && bmpResult != null
-                && bmpResult.getBitmap() != null) {
+        //precomputed, this runs in the middle of the gesture
+        if(useIconColor) {
             mSelectIndicator.setBackgroundColor(
-                    ColorUtils.getBackgroundColorFromImage(
-                            bmpResult.getBitmap(),
+                    ColorUtils.getAccentColor(
+                            drawable,
                             mViewModel.getFrameDefaultColor()));
         } else {
             mSelectIndicator.setBackgroundColor(
                     mViewModel.getFrameDefaultColor());
         }
 
-        if(bmpResult != null && bmpResult.isNew()) {
-            bmpResult.getBitmap().recycle();
-        }
-
         try {
             ObjectAnimator anim = ObjectAnimator.ofObject(
                     mSelectIndicator,
@@ -483,6 +477,7 @@ public class LaunchLaneView extends RelativeLayout {
 
     private void ensureFocusedEntryAt(int y)
     {
+        LaunchEntryView previouslyFocusedEntryView = mFocusedEntryView;
         mFocusedEntryView = null;
         for(LaunchEntryView ev : mEntryViews)
         {
@@ -495,6 +490,11 @@ public class LaunchLaneView extends RelativeLayout {
             }
             ev.gotoState(desiredState);
         }
+        if(mFocusedEntryView != null
+                && mFocusedEntryView != previouslyFocusedEntryView
+                && mLaneListener != null) {
+            mLaneListener.onItemFocused(mFocusedEntryView.getEntry());
+        }
     }
 
     private boolean isEntryAt(LaunchEntryView entryView, int y)
@@ -35,14 +35,17 @@ import java.util.ArrayList;
 import java.util.List;
 
 import de.devmil.paperlaunch.R;
+import de.devmil.paperlaunch.model.Folder;
 import de.devmil.paperlaunch.model.IEntry;
 import de.devmil.paperlaunch.model.IFolder;
 import de.devmil.paperlaunch.config.LaunchConfig;
 import de.devmil.paperlaunch.model.Launch;
+import de.devmil.paperlaunch.utils.IconCache;
 import de.devmil.paperlaunch.utils.PositionAndSizeEvaluator;
 import de.devmil.paperlaunch.view.utils.ViewUtils;
 import de.devmil.paperlaunch.view.utils.ColorUtils;
 import de.devmil.paperlaunch.view.widgets.VerticalTextView;
+import rx.Subscription;
 
 public class LauncherView extends RelativeLayout {
 
@@ -59,6 +62,8 @@ public class LauncherView extends RelativeLayout {
     private MotionEvent mAutoStartMotionEvent;
 
     private IEntry mCurrentlySelectedItem;
+    //loads the content of the focused folder in the background
+    private Subscription mPrefetching;
 
     public interface ILauncherViewListener {
         void onFinished();
@@ -228,6 +233,15 @@ public class LauncherView extends RelativeLayout {
                 mCurrentlySelectedItem = selectedItem;
             }
 
+            @Override
+            public void onItemFocused(IEntry focusedItem) {
+                //folders load their content on first access, a focused folder is likely to be opened next
+                if (focusedItem instanceof Folder) {
+                    cancelPrefetching();
+                    mPrefetching = ((Folder) focusedItem).prefetchSubEntries();
+                }
+            }
+
             @Override
             public void onStateChanged(LaunchLaneViewModel.State oldState, LaunchLaneViewModel.State newState) {
                 if (newState == LaunchLaneViewModel.State.Focusing) {
@@ -241,6 +255,19 @@ public class LauncherView extends RelativeLayout {
         return llv;
     }
 
+    private void cancelPrefetching() {
+        if(mPrefetching != null) {
+            mPrefetching.unsubscribe();
+            mPrefetching = null;
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        cancelPrefetching();
+        super.onDetachedFromWindow();
+    }
+
     private void setEntriesToLane(LaunchLaneView laneView, List<IEntry> entries) {
         List<LaunchEntryViewModel> entryModels = new ArrayList<>();
         for(IEntry e : entries)
@@ -309,10 +336,10 @@ public class LauncherView extends RelativeLayout {
         mNeutralZoneBackground.addView(mNeutralZoneBackgroundImage, backImageParams);
 
         mNeutralZoneBackground.setBackgroundColor(
-                ColorUtils.getBackgroundColorFromImage(
-                        getResources().getDrawable(
-                                R.mipmap.ic_launcher,
-                                getContext().getTheme()
+                ColorUtils.getAccentColor(
+                        IconCache.getInstance().getResourceIcon(
+                                getContext(),
+                                R.mipmap.ic_launcher
                         ),
                         mViewModel.getFrameDefaultColor()));
 
@@ -19,11 +19,9 @@ package de.devmil.paperlaunch.view.fragments;
 import android.app.Activity;
 import android.app.AlertDialog;
 import android.app.Fragment;
+import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.graphics.Bitmap;
-import android.graphics.drawable.BitmapDrawable;
-import android.graphics.drawable.Drawable;
 import android.os.Bundle;
 import android.support.design.widget.FloatingActionButton;
 import android.support.v7.widget.DefaultItemAnimator;
@@ -43,10 +41,6 @@ import com.cocosw.bottomsheet.BottomSheet;
 import com.makeramen.dragsortadapter.DragSortAdapter;
 
 import java.util.List;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
 
 import de.devmil.paperlaunch.EditFolderActivity;
 import de.devmil.paperlaunch.R;
@@ -54,14 +48,19 @@ import de.devmil.paperlaunch.model.Folder;
 import de.devmil.paperlaunch.model.IEntry;
 import de.devmil.paperlaunch.model.Launch;
 import de.devmil.paperlaunch.config.LaunchConfig;
-import de.devmil.paperlaunch.service.LauncherOverlayService;
+import de.devmil.paperlaunch.storage.EntriesChangeSet;
 import de.devmil.paperlaunch.storage.EntriesDataSource;
+import de.devmil.paperlaunch.storage.EntriesRepository;
 import de.devmil.paperlaunch.storage.FolderDTO;
+import de.devmil.paperlaunch.storage.IEntriesObserver;
 import de.devmil.paperlaunch.storage.ITransactionAction;
 import de.devmil.paperlaunch.storage.ITransactionContext;
+import de.devmil.paperlaunch.storage.ITransactionFunction;
 import de.devmil.paperlaunch.config.UserSettings;
-import de.devmil.paperlaunch.utils.FolderImageHelper;
+import de.devmil.paperlaunch.utils.FolderImageRenderer;
 import de.devmil.paperlaunch.view.utils.IntentSelector;
+import rx.Subscription;
+import rx.functions.Action1;
 
 /**
  * A simple {@link Fragment} subclass.
@@ -81,6 +80,20 @@ public class EditFolderFragment extends Fragment {
     private EditText mFolderNameEditText;
     private long mFolderId = -1;
     private Folder mFolder = null;
+    private Subscription mLoadSubscription = null;
+    //set when entries have been modified somewhere else while this fragment wasn't in the foreground
+    private boolean mEntriesChangedInBackground = false;
+    private IEntriesObserver mEntriesObserver = new IEntriesObserver() {
+        @Override
+        public void onEntriesChanged(EntriesChangeSet changes) {
+            //changes made while in the foreground have been made by this fragment and are shown already
+            if(!isResumed()) {
+                mEntriesChangedInBackground = true;
+            }
+        }
+    };
+    //used for writes that may finish after the fragment has been detached
+    private Context mAppContext;
     LaunchConfig mConfig;
 
     IEditFolderFragmentListener mListener = null;
@@ -89,8 +102,6 @@ public class EditFolderFragment extends Fragment {
         void onFolderNameChanged(String newName);
     }
 
-    private static final ScheduledExecutorService sNotifyDataChangedWorker = Executors.newSingleThreadScheduledExecutor();
-
     public EditFolderFragment() {
     }
 
@@ -120,6 +131,8 @@ public class EditFolderFragment extends Fragment {
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         mConfig = new LaunchConfig(new UserSettings(getActivity()));
+        mAppContext = getActivity().getApplicationContext();
+        EntriesRepository.getInstance().addObserver(mEntriesObserver);
         if (getArguments() != null) {
             mFolderId = getArguments().getLong(ARG_PARAM_FOLDERID, -1);
         }
@@ -157,17 +170,13 @@ public class EditFolderFragment extends Fragment {
                 if (mFolder == null) {
                     return;
                 }
-                mFolder.getDto().setName(mFolderNameEditText.getText().toString());
-                EntriesDataSource.getInstance().accessData(getActivity(), new ITransactionAction() {
-                    @Override
-                    public void execute(ITransactionContext transactionContext) {
-                        transactionContext.updateFolderData(mFolder);
-                    }
-                });
+                final Folder folder = mFolder;
+                folder.getDto().setName(mFolderNameEditText.getText().toString());
+                //typing produces one write instead of one per character
+                EntriesDataSource.getInstance().updateFolderDataDeferred(mAppContext, folder.getDto());
                 if (mListener != null) {
-                    mListener.onFolderNameChanged(mFolder.getDto().getName());
+                    mListener.onFolderNameChanged(folder.getDto().getName());
                 }
-                notifyDataChanged();
             }
         });
 
@@ -202,12 +211,69 @@ public class EditFolderFragment extends Fragment {
         return result;
     }
 
+    @Override
+    public void onResume() {
+        super.onResume();
+        if(mEntriesChangedInBackground) {
+            mEntriesChangedInBackground = false;
+            loadData();
+        }
+    }
+
+    @Override
+    public void onPause() {
+        EntriesDataSource.getInstance().flushPendingWritesAsync(mAppContext);
+        super.onPause();
+    }
+
+    @Override
+    public void onDestroy() {
+        EntriesRepository.getInstance().removeObserver(mEntriesObserver);
+        super.onDestroy();
+    }
+
+    @Override
+    public void onDestroyView() {
+        if(mLoadSubscription != null) {
+            mLoadSubscription.unsubscribe();
+            mLoadSubscription = null;
+        }
+        super.onDestroyView();
+    }
+
     public void invalidate() {
         loadData();
     }
 
     private void loadData() {
-        mRecyclerView.setAdapter(mAdapter = new EntriesAdapter(mRecyclerView, loadEntries()));
+        if(mLoadSubscription != null) {
+            mLoadSubscription.unsubscribe();
+        }
+        Subscription loading;
+        if (mFolderId == -1) {
+            loading = EntriesRepository.getInstance().loadRootContentAsync(getActivity()).subscribe(new Action1<List<IEntry>>() {
+                @Override
+                public void call(List<IEntry> entries) {
+                    mLoadSubscription = null;
+                    showEntries(entries);
+                }
+            });
+        } else {
+            loading = EntriesRepository.getInstance().loadFolderAsync(getActivity(), mFolderId).subscribe(new Action1<Folder>() {
+                @Override
+                public void call(Folder folder) {
+                    mLoadSubscription = null;
+                    mFolder = folder;
+                    showEntries(folder.getSubEntries());
+                }
+            });
+        }
+        //entries that are in memory already are delivered right away
+        mLoadSubscription = loading.isUnsubscribed() ? null : loading;
+    }
+
+    private void showEntries(List<IEntry> entries) {
+        mRecyclerView.setAdapter(mAdapter = new EntriesAdapter(mRecyclerView, entries));
         mAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
             @Override
             public void onChanged() {
@@ -261,26 +327,12 @@ public class EditFolderFragment extends Fragment {
         mRecyclerView.setVisibility(isEmpty ? View.GONE : View.VISIBLE);
     }
 
-    private List<IEntry> loadEntries() {
-
-        class Local {
-            List<IEntry> result;
-        }
-
-        final Local local = new Local();
-        EntriesDataSource.getInstance().accessData(getActivity(), new ITransactionAction() {
-            @Override
-            public void execute(ITransactionContext transactionContext) {
-                if (mFolderId == -1) {
-                    local.result = transactionContext.loadRootContent();
-                } else {
-                    mFolder = transactionContext.loadFolder(mFolderId);
-                    local.result = mFolder.getSubEntries();
-                }
-            }
-        });
-
-        return local.result;
+    /**
+     * Executes the given action on the I/O thread.
+     * The service gets the changes through the EntriesRepository.
+     */
+    private void saveAsync(ITransactionAction action) {
+        EntriesDataSource.getInstance().accessDataAsync(mAppContext, action).subscribe();
     }
 
     private void initiateCreateFolder() {
@@ -294,10 +346,7 @@ public class EditFolderFragment extends Fragment {
                     .show();
             return;
         }
-        long folderId = addFolder(getResources().getString(R.string.fragment_edit_folder_new_folder_name));
-
-        Intent editFolderIntent = EditFolderActivity.createLaunchIntent(getActivity(), folderId);
-        startActivityForResult(editFolderIntent, REQUEST_EDIT_FOLDER);
+        addFolder(getResources().getString(R.string.fragment_edit_folder_new_folder_name));
     }
 
     private void initiateCreateLaunch() {
@@ -305,6 +354,8 @@ public class EditFolderFragment extends Fragment {
         intent.setClass(getActivity(), IntentSelector.class);
         intent.putExtra(IntentSelector.EXTRA_STRING_ACTIVITIES, getResources().getString(R.string.folder_settings_add_app_activities));
         intent.putExtra(IntentSelector.EXTRA_STRING_SHORTCUTS, getResources().getString(R.string.folder_settings_add_app_shortcuts));
+        intent.putExtra(IntentSelector.EXTRA_STRING_DONE, getResources().getString(R.string.folder_settings_add_app_done));
+        intent.putExtra(IntentSelector.EXTRA_ALLOW_MULTIPLE, true);
 
         startActivityForResult(intent, REQUEST_ADD_APP);
     }
@@ -316,83 +367,81 @@ public class EditFolderFragment extends Fragment {
             if(resultCode != Activity.RESULT_OK) {
                 return;
             }
-            addLaunch(data);
+            addLaunches(IntentSelector.getSelectedIntents(data));
         }
         else if(REQUEST_EDIT_FOLDER == requestCode) {
             invalidate();
         }
     }
 
-    private void addLaunch(final Intent launchIntent) {
-        EntriesDataSource.getInstance().accessData(getActivity(), new ITransactionAction() {
+    private void addLaunches(final List<Intent> launchIntents) {
+        if(launchIntents.isEmpty()) {
+            return;
+        }
+        final long folderId = mFolderId;
+        EntriesDataSource.getInstance().accessDataAsync(getActivity(), new ITransactionFunction<List<Launch>>() {
             @Override
-            public void execute(ITransactionContext transactionContext) {
-                Launch l = transactionContext.createLaunch(mFolderId);
-                l.getDto().setLaunchIntent(launchIntent);
-                transactionContext.updateLaunchData(l);
-
-                mAdapter.addEntry(l);
+            public List<Launch> execute(ITransactionContext transactionContext) {
+                return transactionContext.createLaunches(folderId, launchIntents);
+            }
+        }).subscribe(new Action1<List<Launch>>() {
+            @Override
+            public void call(List<Launch> launches) {
+                if (!isAdded() || mAdapter == null) {
+                    return;
+                }
+                //the launches have been created behind the existing entries, so the order is stored already
+                mAdapter.appendEntries(launches);
 
                 if (mFolder != null) {
                     updateFolderImage(mFolder.getDto(), mAdapter.getEntries());
                 }
             }
         });
-        notifyDataChanged();
     }
 
     private void updateFolderImage(Folder folder) {
         updateFolderImage(folder.getDto(), folder.getSubEntries());
     }
 
-    private void updateFolderImage(final FolderDTO folderDto, List<IEntry> entries) {
+    /**
+     * Renders the image in the background, the image is stored even if the fragment is gone by then.
+     * The image is passed to the data source on its own, the folder data may be written at the same time.
+     */
+    private void updateFolderImage(FolderDTO folderDto, List<IEntry> entries) {
         float imgWidth = mConfig.getImageWidthDip();
-        Bitmap bmp = FolderImageHelper.createImageFromEntries(getActivity(), entries, imgWidth);
-        Drawable newIcon = new BitmapDrawable(getResources(), bmp);
-        folderDto.setIcon(newIcon);
-
-        EntriesDataSource.getInstance().accessData(getActivity(), new ITransactionAction() {
+        final long folderId = folderDto.getId();
+        FolderImageRenderer.getInstance().requestImage(mAppContext, folderId, entries, imgWidth, new FolderImageRenderer.IRenderListener() {
             @Override
-            public void execute(ITransactionContext transactionContext) {
-                transactionContext.updateFolderData(folderDto);
+            public void onImageRendered(byte[] iconData) {
+                EntriesDataSource.getInstance().updateFolderIconDeferred(mAppContext, folderId, iconData);
             }
         });
-        notifyDataChanged();
     }
 
-    private long addFolder(final String initialName) {
-        class Local {
-            Folder folder = null;
-        }
-        final Local local = new Local();
-        EntriesDataSource.getInstance().accessData(getActivity(), new ITransactionAction() {
+    private void addFolder(final String initialName) {
+        final long parentFolderId = mFolderId;
+        final int parentFolderDepth = mFolder == null ? 0 : mFolder.getDto().getDepth();
+        EntriesDataSource.getInstance().accessDataAsync(getActivity(), new ITransactionFunction<Folder>() {
             @Override
-            public void execute(ITransactionContext transactionContext) {
-                local.folder = transactionContext.createFolder(mFolderId, -1, mFolder == null ? 0 : mFolder.getDto().getDepth());
-                local.folder.getDto().setName(initialName);
-                transactionContext.updateFolderData(local.folder);
+            public Folder execute(ITransactionContext transactionContext) {
+                Folder folder = transactionContext.createFolder(parentFolderId, -1, parentFolderDepth);
+                folder.getDto().setName(initialName);
+                transactionContext.updateFolderData(folder);
+                return folder;
             }
-        });
-
-        mAdapter.addEntry(local.folder);
-
-        notifyDataChanged();
-
-        return local.folder.getId();
-    }
-
-    private ScheduledFuture<?> mScheduledNotifyDataChanged;
-
-    private void notifyDataChanged() {
-        if(mScheduledNotifyDataChanged != null) {
-            mScheduledNotifyDataChanged.cancel(false);
-        }
-        mScheduledNotifyDataChanged = sNotifyDataChangedWorker.schedule(new Runnable() {
+        }).subscribe(new Action1<Folder>() {
             @Override
-            public void run() {
-                LauncherOverlayService.notifyDataChanged(getActivity());
+            public void call(Folder folder) {
+                if (!isAdded() || mAdapter == null) {
+                    return;
+                }
+                mAdapter.addEntry(folder);
+
+                Intent editFolderIntent = EditFolderActivity.createLaunchIntent(getActivity(), folder.getId());
+                startActivityForResult(editFolderIntent, REQUEST_EDIT_FOLDER);
             }
-        }, 1, TimeUnit.SECONDS);
+        });
     }
 
     private class EntriesItemAnimator extends DefaultItemAnimator
@@ -437,6 +486,12 @@ public class EditFolderFragment extends Fragment {
             notifyDataSetChanged();
         }
 
+        public void appendEntries(List<? extends IEntry> entries) {
+            int positionStart = mEntries.size();
+            mEntries.addAll(entries);
+            notifyItemRangeInserted(positionStart, entries.size());
+        }
+
         @Override
         public int getPositionForId(long entryId) {
             for(int i=0; i<mEntries.size(); i++) {
@@ -472,7 +527,6 @@ public class EditFolderFragment extends Fragment {
             if (mFolder != null) {
                 updateFolderImage(mFolder.getDto(), mEntries);
             }
-            notifyDataChanged();
             return true;
         }
 
@@ -499,12 +553,8 @@ public class EditFolderFragment extends Fragment {
         }
 
         private void saveOrder() {
-            EntriesDataSource.getInstance().accessData(getActivity(), new ITransactionAction() {
-                @Override
-                public void execute(ITransactionContext transactionContext) {
-                    transactionContext.updateOrders(mEntries);
-                }
-            });
+            //dragging saves on every step, only the final order gets written
+            EntriesDataSource.getInstance().updateOrdersDeferred(mAppContext, mFolderId, mEntries);
         }
 
         class ViewHolder extends DragSortAdapter.ViewHolder implements View.OnLongClickListener, View.OnClickListener {
@@ -547,20 +597,19 @@ public class EditFolderFragment extends Fragment {
                     }
                 }
                 else if(v == deleteImg) {
-                    EntriesDataSource.getInstance().accessData(getActivity(), new ITransactionAction() {
+                    saveAsync(new ITransactionAction() {
                         @Override
                         public void execute(ITransactionContext transactionContext) {
                             transactionContext.deleteEntry(entry.getEntryId());
-
-                            int pos = getPositionForId(getItemId());
-                            mEntries.remove(pos);
-                            if (mFolder != null) {
-                                updateFolderImage(mFolder.getDto(), mEntries);
-                            }
-                            notifyItemRemoved(pos);
                         }
                     });
-                    notifyDataChanged();
+
+                    int pos = getPositionForId(getItemId());
+                    mEntries.remove(pos);
+                    if (mFolder != null) {
+                        updateFolderImage(mFolder.getDto(), mEntries);
+                    }
+                    notifyItemRemoved(pos);
                 }
             }
         }
@@ -21,6 +21,7 @@ import android.graphics.drawable.Drawable;
 import android.support.v7.graphics.Palette;
 
 import de.devmil.paperlaunch.utils.BitmapUtils;
+import de.devmil.paperlaunch.utils.IconDrawable;
 
 public class ColorUtils {
 
@@ -44,6 +45,19 @@ public class ColorUtils {
         return getColorFromPalette(p, defaultColor);
     }
 
+    /**
+     * Returns the accent color that gets computed in the background when the icon is loaded (see IconDrawable),
+     * cheap enough to be called while handling touch events.
+     *
+     * @return the accent color or the default color if the drawable doesn't have one (yet)
+     */
+    public static int getAccentColor(Drawable drawable, int defaultColor) {
+        if(drawable instanceof IconDrawable) {
+            return ((IconDrawable)drawable).getAccentColor(defaultColor);
+        }
+        return defaultColor;
+    }
+
     private static int getColorFromPalette(Palette palette, int defaultColor) {
         int result = palette.getLightMutedColor(Color.BLACK);
         if(result == Color.BLACK) {
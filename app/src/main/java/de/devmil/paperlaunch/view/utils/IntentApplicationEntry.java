@@ -27,6 +27,10 @@ import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
 
+import de.devmil.paperlaunch.utils.AppMetadataCache;
+import de.devmil.paperlaunch.utils.AppMetadataUtils;
+import de.devmil.paperlaunch.utils.IconCache;
+
 public class IntentApplicationEntry implements Comparable<IntentApplicationEntry> {
 	
 	public enum IntentType {
@@ -41,7 +45,6 @@ public class IntentApplicationEntry implements Comparable<IntentApplicationEntry
 	
 	private ApplicationInfo appInfo;
 	private CharSequence appName;
-	private Drawable appIcon = null;
 	
 	private List<IntentItem> intentItems = new ArrayList<IntentItem>();
 	
@@ -95,9 +98,13 @@ public class IntentApplicationEntry implements Comparable<IntentApplicationEntry
 	}
 	
 	public Drawable getAppIcon() {
-		if(appIcon == null)
-			appIcon = context.getPackageManager().getApplicationIcon(appInfo);
-		return appIcon;
+		//shared with the launches of this app
+		return AppMetadataCache.getInstance().getIcon(context, packageName, AppMetadataUtils.getAppIconKey(packageName), new IconCache.IIconLoader() {
+			@Override
+			public Drawable loadIcon() {
+				return context.getPackageManager().getApplicationIcon(appInfo);
+			}
+		});
 	}
 
 	@Override
@@ -28,6 +28,8 @@ import android.graphics.drawable.Drawable;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.BaseExpandableListAdapter;
@@ -45,7 +47,9 @@ import android.widget.Toolbar;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import de.devmil.paperlaunch.R;
 
@@ -56,6 +60,10 @@ public class IntentSelector extends Activity {
 	public static String EXTRA_SHORTCUT_TEXT = "de.devmil.common.extras.SHORTCUT_TEXT";
 	public static String EXTRA_STRING_SHORTCUTS = "de.devmil.common.extras.STRING_SHORTCUTS";
 	public static String EXTRA_STRING_ACTIVITIES = "de.devmil.common.extras.STRING_ACTIVITIES";
+	public static String EXTRA_STRING_DONE = "de.devmil.common.extras.STRING_DONE";
+	//allows selecting several activities / shortcuts, they are returned in EXTRA_SELECTED_INTENTS
+	public static String EXTRA_ALLOW_MULTIPLE = "de.devmil.common.extras.ALLOW_MULTIPLE";
+	public static String EXTRA_SELECTED_INTENTS = "de.devmil.common.extras.SELECTED_INTENTS";
 	
 	private LinearLayout llWait;
 	private ExpandableListView lvActivities;
@@ -69,6 +77,11 @@ public class IntentSelector extends Activity {
     private Object searchThreadLockObject = new Object();
 	
 	private List<IntentApplicationEntry> entries = new ArrayList<IntentApplicationEntry>();
+	private boolean allowMultiple = false;
+	private String doneLabel = "Done";
+	//selected activities by package and activity name, in the order of selection
+	private Map<String, Intent> selectedActivities = new LinkedHashMap<String, Intent>();
+	private List<Intent> selectedShortcuts = new ArrayList<Intent>();
 	IntentSelectorAdapter adapterActivities;
 	IntentSelectorAdapter adapterShortcuts;
 	
@@ -123,6 +136,9 @@ public class IntentSelector extends Activity {
 		String activitiesLabel = "Shortcuts";
 		if(getIntent().hasExtra(EXTRA_STRING_ACTIVITIES))
 			activitiesLabel = getIntent().getStringExtra(EXTRA_STRING_ACTIVITIES);
+		if(getIntent().hasExtra(EXTRA_STRING_DONE))
+			doneLabel = getIntent().getStringExtra(EXTRA_STRING_DONE);
+		allowMultiple = getIntent().getBooleanExtra(EXTRA_ALLOW_MULTIPLE, false);
 		
 		setContentView(R.layout.common__intentselectorview);
 		
@@ -145,7 +161,11 @@ public class IntentSelector extends Activity {
 				Intent resultIntent = new Intent(Intent.ACTION_MAIN);
 				IntentApplicationEntry.IntentItem entry = (IntentApplicationEntry.IntentItem)adapterActivities.getChild(groupPosition, childPosition);
 				resultIntent.setClassName(entry.getPackageName(), entry.getActivityName());
-				setResultIntent(resultIntent);
+				if(allowMultiple) {
+					toggleSelection(entry, resultIntent);
+				} else {
+					setResultIntent(resultIntent);
+				}
 				return true;
 			}
 		});
@@ -338,14 +358,87 @@ public class IntentSelector extends Activity {
 		setResult(Activity.RESULT_OK, intent);
 		IntentSelector.this.finish();
 	}
+
+	private static String getSelectionKey(IntentApplicationEntry.IntentItem item) {
+		return item.getPackageName() + "/" + item.getActivityName();
+	}
+
+	private boolean isSelected(IntentApplicationEntry.IntentItem item) {
+		return selectedActivities.containsKey(getSelectionKey(item));
+	}
+
+	private void toggleSelection(IntentApplicationEntry.IntentItem item, Intent intent) {
+		String key = getSelectionKey(item);
+		if(selectedActivities.containsKey(key)) {
+			selectedActivities.remove(key);
+		} else {
+			selectedActivities.put(key, intent);
+		}
+		adapterActivities.notifyDataSetChanged();
+		invalidateOptionsMenu();
+	}
+
+	private int getSelectionCount() {
+		return selectedActivities.size() + selectedShortcuts.size();
+	}
+
+	private void setResultSelection() {
+		ArrayList<Intent> selection = new ArrayList<Intent>(selectedActivities.values());
+		selection.addAll(selectedShortcuts);
+		Intent result = new Intent();
+		result.putParcelableArrayListExtra(EXTRA_SELECTED_INTENTS, selection);
+		setResultIntent(result);
+	}
+
+	@Override
+	public boolean onCreateOptionsMenu(Menu menu) {
+		boolean result = super.onCreateOptionsMenu(menu);
+		if(!allowMultiple) {
+			return result;
+		}
+		MenuItem itemDone = menu.add(doneLabel + " (" + getSelectionCount() + ")");
+		itemDone.setShowAsAction(MenuItem.SHOW_AS_ACTION_ALWAYS);
+		itemDone.setEnabled(getSelectionCount() > 0);
+		itemDone.setOnMenuItemClickListener(new MenuItem.OnMenuItemClickListener() {
+			@Override
+			public boolean onMenuItemClick(MenuItem item) {
+				setResultSelection();
+				return true;
+			}
+		});
+		return true;
+	}
 	
 	@Override
 	protected void onActivityResult(int requestCode, int resultCode, Intent data) {
 		if(requestCode == CREATE_SHORTCUT_REQUEST && resultCode == Activity.RESULT_OK) {
-			setResultIntent(data);
+			if(allowMultiple) {
+				//each created shortcut is a separate selection
+				selectedShortcuts.add(data);
+				invalidateOptionsMenu();
+			} else {
+				setResultIntent(data);
+			}
 		}
 		super.onActivityResult(requestCode, resultCode, data);
 	}
+
+	/**
+	 * @return the selected intents of a result of this activity, regardless of EXTRA_ALLOW_MULTIPLE
+	 */
+	public static List<Intent> getSelectedIntents(Intent resultData) {
+		List<Intent> result = new ArrayList<Intent>();
+		if(resultData == null) {
+			return result;
+		}
+		List<Intent> selection = resultData.getParcelableArrayListExtra(EXTRA_SELECTED_INTENTS);
+		if(selection != null) {
+			result.addAll(selection);
+		} else {
+			result.add(resultData);
+		}
+		return result;
+	}
 	
 	class IntentSelectorAdapter extends BaseExpandableListAdapter {
 		private List<IntentApplicationEntry> entries;
@@ -387,6 +480,9 @@ public class IntentSelector extends Activity {
 			
 			txt.setText(getSubList(entries.get(groupPosition)).get(childPosition).getName());
 			txtActivityName.setText(getSubList(entries.get(groupPosition)).get(childPosition).getActivityName());
+			convertView.setActivated(allowMultiple
+					&& intentType != IntentApplicationEntry.IntentType.Shortcut
+					&& isSelected(getSubList(entries.get(groupPosition)).get(childPosition)));
 			return convertView;
 		}
 
@@ -422,7 +518,7 @@ public class IntentSelector extends Activity {
 			txt.setText(entries.get(groupPosition).getName());
 			Drawable appIcon = entries.get(groupPosition).getAppIcon();
 			if(appIcon != null) {
-				img.setImageDrawable(entries.get(groupPosition).getAppIcon());
+				img.setImageDrawable(appIcon);
 				img.setVisibility(View.VISIBLE);
 			} else {
 				img.setVisibility(View.INVISIBLE);